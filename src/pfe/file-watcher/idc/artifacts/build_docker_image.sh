@@ -21,6 +21,8 @@ DOCKER_BUILD=docker.build
 LOGFOLDER=$5
 
 PROJECT_ID=$6
+# 'streamed' or 'staged' if IDC provides the build context, otherwise the project is copied to the context directory
+BUILD_CONTEXT_MODE=$7
 util=/file-watcher/scripts/util.sh
 
 WORKSPACE=/codewind-workspace
@@ -28,9 +30,17 @@ WORKSPACE=/codewind-workspace
 # Ensure extended pattern matching is enabled
 shopt -s extglob
 
-# Copy the project folder contents to the current directory (.idc/docker/docker-xxx), overwrite if needed
-cd $contextDir
-cp -rf "$projectDir/." $contextDir
+# A context directory of '-' means that IDC streams the build context (a tar archive) to stdin, and a
+# 'staged' build context has already been brought up to date by IDC, and is kept between builds
+copyProject=false
+if [ "$contextDir" != "-" ]; then
+	cd $contextDir
+	if [ "$BUILD_CONTEXT_MODE" != "staged" ]; then
+		copyProject=true
+		# Copy the project folder contents to the current directory (.idc/docker/docker-xxx), overwrite if needed
+		cp -rf "$projectDir/." $contextDir
+	fi
+fi
 
 echo -e "Docker build log file "$WORKSPACE/.logs/$LOGFOLDER/$DOCKER_BUILD.log""
 
@@ -43,10 +53,14 @@ $IMAGE_COMMAND $BUILD_COMMAND -t $imageName -f Dockerfile-idc $contextDir |& tee
 
 if [[ $? -ne 0 ]]; then
     echo "Failed to build $imageName"
-    rm -rf !(Dockerfile-idc|artifacts)
+    if [ "$copyProject" = true ]; then
+        rm -rf !(Dockerfile-idc|artifacts)
+    fi
     exit 1
 fi
 
 echo "Successfully built $imageName"
 # Delete the project files we copied over, make sure we don't delete Dockerfile-idc or the artifacts directory
-rm -rf !(Dockerfile-idc|artifacts|target)
+if [ "$copyProject" = true ]; then
+    rm -rf !(Dockerfile-idc|artifacts|target)
+fi
@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.iterdev;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of the application dbs in a .idc directory: for each app id, the values of the db keys needed to clean up
+ * after the application (app directory, container/deployment id, helm release and image name).
+ *
+ * The index is itself a SharedDBMap (db-index), with keys of the form 'appid:KEY'. DBMap updates it whenever one of
+ * the indexed keys of an application db changes, so reading the index replaces reading every application db. The
+ * index is built from the existing application dbs the first time it is opened.
+ */
+public class AppIndex {
+
+	public static final String INDEX_ID = "index";
+
+	/** The db keys that are copied to the index */
+	public static final List<String> INDEXED_KEYS = Collections.unmodifiableList(Arrays.asList(Constants.DB_APP_ID,
+			Constants.DB_APP_DIR, Constants.DB_LAST_CONTAINER_ID, Constants.DB_HELM_RELEASE, Constants.DB_CONTAINER_NAME));
+
+	/** Set once the index has been built from the existing application dbs */
+	private static final String BUILT_KEY = "INDEX_BUILT";
+
+	private static final char KEY_SEPARATOR = ':';
+
+	/** The index that update(...) writes to, for each db directory; each is only used while synchronized on it */
+	private static final Map<File, SharedDBMap> updateIndexes = new ConcurrentHashMap<>();
+
+	private final SharedDBMap db;
+
+	private AppIndex(SharedDBMap db) {
+		this.db = db;
+	}
+
+	public static AppIndex open(File idcBase) throws IOException {
+		SharedDBMap db = new SharedDBMap(INDEX_ID, idcBase);
+
+		if (db.get(BUILT_KEY) == null) {
+			db.begin();
+			try {
+				// Another process may have built the index while this one waited for the lock
+				if (db.get(BUILT_KEY) == null) {
+					build(db, idcBase);
+				}
+			} catch (IOException | RuntimeException e) {
+				db.rollback();
+				throw e;
+			}
+			db.commit();
+		}
+
+		return new AppIndex(db);
+	}
+
+	private static void build(SharedDBMap db, File idcBase) throws IOException {
+		for (File dbFile : DBMap.listDBFiles(idcBase)) {
+			String appId = DBMap.getIdFromFile(dbFile);
+			if (!isApplicationDb(appId)) {
+				continue;
+			}
+
+			DBMap appDb = new DBMap(appId, idcBase);
+			for (String key : INDEXED_KEYS) {
+				String value = appDb.get(key);
+				if (value != null) {
+					db.put(appId + KEY_SEPARATOR + key, value);
+				}
+			}
+		}
+		db.put(BUILT_KEY, "true");
+	}
+
+	private static boolean isApplicationDb(String id) {
+		return !id.equals(INDEX_ID) && !id.equals("global") && !id.equals(Inventory.INVENTORY_ID);
+	}
+
+	/** Record changes to the indexed keys of an application db; a null value removes the key. */
+	static void update(File idcBase, String appId, Map<String, String> changes) throws IOException {
+		if (!isApplicationDb(appId) || changes.isEmpty()) {
+			return;
+		}
+
+		SharedDBMap db;
+		try {
+			db = updateIndexes.computeIfAbsent(new File(idcBase, "db"), dir -> {
+				try {
+					return new SharedDBMap(INDEX_ID, idcBase);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+
+		synchronized (db) {
+			if (db.get(BUILT_KEY) == null) {
+				// Not built yet, the change is picked up when the index is built
+				return;
+			}
+
+			db.begin();
+			try {
+				for (Map.Entry<String, String> e : changes.entrySet()) {
+					db.put(appId + KEY_SEPARATOR + e.getKey(), e.getValue());
+				}
+			} catch (RuntimeException e) {
+				db.rollback();
+				throw e;
+			}
+			db.commit();
+		}
+	}
+
+	/** Remove an application from the index, once its db has been deleted. */
+	public void remove(String appId) {
+		db.begin();
+		for (String key : INDEXED_KEYS) {
+			db.remove(appId + KEY_SEPARATOR + key);
+		}
+		db.commit();
+	}
+
+	/** Return the indexed values of every application. */
+	public Collection<Entry> getEntries() {
+		Map<String, Entry> result = new HashMap<>();
+
+		for (Map.Entry<String, String> e : db.getMap().entrySet()) {
+			int index = e.getKey().indexOf(KEY_SEPARATOR);
+			if (index == -1) {
+				continue;
+			}
+
+			String appId = e.getKey().substring(0, index);
+			Entry entry = result.computeIfAbsent(appId, Entry::new);
+			entry.values.put(e.getKey().substring(index + 1), e.getValue());
+		}
+
+		return result.values();
+	}
+
+	public static class Entry {
+
+		private final String dbId;
+
+		private final Map<String, String> values = new HashMap<>();
+
+		Entry(String dbId) {
+			this.dbId = dbId;
+		}
+
+		/** Return the id of the application db, which is also used to name its .idc contents. */
+		public String getDbId() {
+			return dbId;
+		}
+
+		/** Return the value of one of the INDEXED_KEYS in the application db, or null. */
+		public String get(String key) {
+			return values.get(key);
+		}
+	}
+}
@@ -0,0 +1,509 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.iterdev;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * The build context of an application image, written as a tar stream (for example, to the standard input of 'docker
+ * build -'), rather than copied into a directory for the image builder to archive again.
+ *
+ * The context is assembled from the generated Dockerfile-idc, the IDC artifacts directory (as 'artifacts/'), the
+ * application directory, and empty directories for the build output that the Dockerfile copies (which the
+ * development container populates later). Only the metadata of the files is read while assembling the context; the
+ * contents of each file are read once, as the stream is written. As with a directory context, the .dockerignore of
+ * the application applies to every entry except the Dockerfile.
+ *
+ * The same rule as for the staged context applies to names that are added more than once: a later entry replaces an
+ * earlier one (files of the application replace artifacts of the same name, as the 'cp -rf' of earlier versions did),
+ * except for the entries added with force, such as the Dockerfile, which are kept.
+ */
+public class BuildContext {
+
+	public static final String DOCKERFILE = "Dockerfile-idc";
+
+	private static final int BLOCK_SIZE = 512;
+
+	/** Largest size that fits in the size field of a tar header (11 octal digits) */
+	private static final long MAX_OCTAL_SIZE = 077777777777L;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/** The entries, by name, in the order they are written; a later entry for a name replaces the earlier one */
+	private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+	/** The names of the entries that are never replaced */
+	private final Set<String> kept = new HashSet<>();
+
+	private final Ignore ignore;
+
+	public BuildContext(Ignore ignore) {
+		this.ignore = ignore;
+	}
+
+	/**
+	 * Return true if the build context of the application can be streamed to the image builder: only 'docker build'
+	 * reads a context from its standard input, and only when it is not run with sudo (which reads the password from
+	 * it). Streaming can be turned off with 'streamBuildContext=false' in idc.config.
+	 */
+	public static boolean isStreamingSupported(IDCContext context) {
+		return !context.isK8s() && "docker".equals(context.getImageCommand()) && !context.getRootPassword().isPresent()
+				&& Boolean.parseBoolean(context.getIDCConfiguration()
+						.getProperty(Constants.STREAM_BUILD_CONTEXT_PROPERTY_KEY, "true").trim());
+	}
+
+	/** Return the build context of the application of the given context, which must have its Dockerfile-idc generated. */
+	public static BuildContext forApplication(IDCContext context) throws IOException {
+		File appDir = context.getAppDirectory();
+		BuildContext result = new BuildContext(Ignore.load(new File(appDir, ".dockerignore")));
+
+		File dockerfile = new File(context.getAppDockerBase(), DOCKERFILE);
+		result.addFile(DOCKERFILE, dockerfile, true);
+		result.addTree(context.getArtifactsDirectory().getName(), context.getArtifactsDirectory());
+		result.addTree("", appDir);
+		for (String source : DockerUtils.getDockerfileCopySources(dockerfile)) {
+			if (source.startsWith("target")) {
+				result.addDirectory(source);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Add the given file (or directory, or symbolic link) under the given name, unless it is ignored. A forced entry
+	 * is added even if it is ignored, and is not replaced by later entries of the same name.
+	 */
+	public void addFile(String name, File file, boolean force) throws IOException {
+		name = normalize(name);
+		if (force || !ignore.isExcluded(name)) {
+			addParents(name);
+			put(name, Entry.of(file.toPath(), Files.readAttributes(file.toPath(), BasicFileAttributes.class,
+					LinkOption.NOFOLLOW_LINKS)));
+			if (force) {
+				kept.add(name);
+			}
+		}
+	}
+
+	/** Add an empty directory (and its parents) with the given name, unless it is ignored. */
+	public void addDirectory(String name) {
+		name = normalize(name);
+		if (!name.isEmpty() && !ignore.isExcluded(name)) {
+			addParents(name);
+			entries.putIfAbsent(name, new Entry(null, '5', 0755, 0, System.currentTimeMillis(), null));
+		}
+	}
+
+	/** Add the contents of the given directory under the given name ("" for the root of the context). */
+	public void addTree(String name, File dir) throws IOException {
+		final Path root = dir.toPath();
+		final String prefix = normalize(name);
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+				String entryName = getName(d);
+				if (entryName.isEmpty()) {
+					return FileVisitResult.CONTINUE;
+				}
+				if (ignore.isExcluded(entryName)) {
+					// Files in an excluded directory can only be included again by an exception
+					return ignore.hasExceptions() ? FileVisitResult.CONTINUE : FileVisitResult.SKIP_SUBTREE;
+				}
+				addParents(entryName);
+				put(entryName, Entry.of(d, attrs));
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path f, BasicFileAttributes attrs) throws IOException {
+				String entryName = getName(f);
+				if ((attrs.isRegularFile() || attrs.isSymbolicLink()) && !ignore.isExcluded(entryName)) {
+					addParents(entryName);
+					put(entryName, Entry.of(f, attrs));
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path f, IOException e) {
+				Logger.error("Unable to read " + f + " while assembling the build context");
+				return FileVisitResult.CONTINUE;
+			}
+
+			private String getName(Path p) {
+				String relative = root.relativize(p).toString().replace(File.separatorChar, '/');
+				return prefix.isEmpty() ? relative : relative.isEmpty() ? prefix : prefix + "/" + relative;
+			}
+		});
+	}
+
+	/** Return the names of the entries, in the order they are written. */
+	public List<String> getNames() {
+		return new ArrayList<>(entries.keySet());
+	}
+
+	/** Write the context to the given stream as a tar archive, and return the number of bytes written. */
+	public long write(OutputStream os) throws IOException {
+		CountingOutputStream out = new CountingOutputStream(new BufferedOutputStream(os, BUFFER_SIZE));
+		byte[] buffer = new byte[BUFFER_SIZE];
+		for (Map.Entry<String, Entry> e : entries.entrySet()) {
+			writeEntry(out, e.getKey(), e.getValue(), buffer);
+		}
+		// The end of the archive is marked by two empty blocks
+		out.write(new byte[BLOCK_SIZE * 2]);
+		out.flush();
+		return out.count;
+	}
+
+	private void writeEntry(OutputStream out, String name, Entry entry, byte[] buffer) throws IOException {
+		String tarName = entry.type == '5' ? name + "/" : name;
+
+		// Names, link targets and sizes that don't fit in the header are given in a PAX extended header
+		StringBuilder pax = new StringBuilder();
+		if (tarName.getBytes(StandardCharsets.UTF_8).length > 100) {
+			pax.append(paxRecord("path", tarName));
+		}
+		if (entry.linkTarget != null && entry.linkTarget.getBytes(StandardCharsets.UTF_8).length > 100) {
+			pax.append(paxRecord("linkpath", entry.linkTarget));
+		}
+		if (entry.size > MAX_OCTAL_SIZE) {
+			pax.append(paxRecord("size", String.valueOf(entry.size)));
+		}
+		if (pax.length() > 0) {
+			byte[] data = pax.toString().getBytes(StandardCharsets.UTF_8);
+			out.write(header("PaxHeaders/" + truncate(name, 80), 'x', 0644, data.length, entry.mtimeMillis, null));
+			out.write(data);
+			pad(out, data.length);
+		}
+
+		out.write(header(tarName, entry.type, entry.mode, entry.size, entry.mtimeMillis, entry.linkTarget));
+		if (entry.type == '0') {
+			copyContents(out, entry, buffer);
+			pad(out, entry.size);
+		}
+	}
+
+	/** Write exactly the size of the entry, even if the file has changed since it was added */
+	private static void copyContents(OutputStream out, Entry entry, byte[] buffer) throws IOException {
+		long remaining = entry.size;
+		try (InputStream in = new FileInputStream(entry.path.toFile())) {
+			int n;
+			while (remaining > 0 && (n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) > 0) {
+				out.write(buffer, 0, n);
+				remaining -= n;
+			}
+		}
+		if (remaining > 0) {
+			Logger.error("The file " + entry.path + " became shorter while the build context was being written");
+			while (remaining > 0) {
+				int n = (int) Math.min(buffer.length, remaining);
+				Arrays.fill(buffer, 0, n, (byte) 0);
+				out.write(buffer, 0, n);
+				remaining -= n;
+			}
+		}
+	}
+
+	private static byte[] header(String name, char type, int mode, long size, long mtimeMillis, String linkTarget) {
+		byte[] h = new byte[BLOCK_SIZE];
+		putString(h, 0, 100, name);
+		putOctal(h, 100, 8, mode);
+		putOctal(h, 108, 8, 0);
+		putOctal(h, 116, 8, 0);
+		putOctal(h, 124, 12, size > MAX_OCTAL_SIZE ? 0 : size);
+		putOctal(h, 136, 12, TimeUnit.MILLISECONDS.toSeconds(mtimeMillis));
+		h[156] = (byte) type;
+		if (linkTarget != null) {
+			putString(h, 157, 100, linkTarget);
+		}
+		putString(h, 257, 6, "ustar");
+		h[263] = '0';
+		h[264] = '0';
+
+		// The checksum is calculated with the checksum field set to spaces
+		for (int x = 148; x < 156; x++) {
+			h[x] = ' ';
+		}
+		long checksum = 0;
+		for (byte b : h) {
+			checksum += b & 0xff;
+		}
+		putOctal(h, 148, 7, checksum);
+		return h;
+	}
+
+	private static String paxRecord(String key, String value) {
+		// Each record is '(length) (key)=(value)\n', where the length includes the digits of the length itself
+		int length = (" " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8).length;
+		int digits = String.valueOf(length).length();
+		if (String.valueOf(length + digits).length() > digits) {
+			digits++;
+		}
+		return (length + digits) + " " + key + "=" + value + "\n";
+	}
+
+	/** Fields that are too long are truncated; the full value is in the PAX header. */
+	private static void putString(byte[] h, int offset, int length, String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		System.arraycopy(bytes, 0, h, offset, Math.min(bytes.length, length));
+	}
+
+	private static void putOctal(byte[] h, int offset, int length, long value) {
+		String octal = Long.toOctalString(value);
+		StringBuilder sb = new StringBuilder();
+		for (int x = octal.length(); x < length - 1; x++) {
+			sb.append('0');
+		}
+		putString(h, offset, length - 1, sb.append(octal).toString());
+		h[offset + length - 1] = 0;
+	}
+
+	private static void pad(OutputStream out, long size) throws IOException {
+		int remainder = (int) (size % BLOCK_SIZE);
+		if (remainder != 0) {
+			out.write(new byte[BLOCK_SIZE - remainder]);
+		}
+	}
+
+	private static String truncate(String s, int length) {
+		return s.length() <= length ? s : s.substring(s.length() - length);
+	}
+
+	private static String normalize(String name) {
+		String result = name.replace('\\', '/');
+		while (result.startsWith("/") || result.startsWith("./")) {
+			result = result.substring(result.startsWith("/") ? 1 : 2);
+		}
+		while (result.endsWith("/")) {
+			result = result.substring(0, result.length() - 1);
+		}
+		return result;
+	}
+
+	/** Add the directories above the given entry that have not been added yet, so that they are created in order */
+	private void addParents(String name) {
+		int slash = name.lastIndexOf('/');
+		if (slash <= 0) {
+			return;
+		}
+		String parent = name.substring(0, slash);
+		Entry existing = entries.get(parent);
+		if (existing == null || existing.type != '5') {
+			addParents(parent);
+			put(parent, new Entry(null, '5', 0755, 0, System.currentTimeMillis(), null));
+		}
+	}
+
+	/**
+	 * Add the given entry, replacing any earlier entry of the same name unless it is kept. A directory that is
+	 * replaced by a file (or link) is replaced along with its contents, as when a file is copied over a directory.
+	 */
+	private void put(String name, Entry entry) {
+		if (kept.contains(name)) {
+			return;
+		}
+		Entry previous = entries.put(name, entry);
+		if (previous != null && previous.type == '5' && entry.type != '5') {
+			String prefix = name + "/";
+			entries.keySet().removeIf(n -> n.startsWith(prefix));
+		}
+	}
+
+	private static class Entry {
+		final Path path;
+		/** '0' for a file, '2' for a symbolic link, '5' for a directory */
+		final char type;
+		final int mode;
+		final long size;
+		final long mtimeMillis;
+		final String linkTarget;
+
+		Entry(Path path, char type, int mode, long size, long mtimeMillis, String linkTarget) {
+			this.path = path;
+			this.type = type;
+			this.mode = mode;
+			this.size = size;
+			this.mtimeMillis = mtimeMillis;
+			this.linkTarget = linkTarget;
+		}
+
+		static Entry of(Path p, BasicFileAttributes attrs) throws IOException {
+			long mtime = attrs.lastModifiedTime().toMillis();
+			if (attrs.isSymbolicLink()) {
+				return new Entry(p, '2', 0777, 0, mtime, Files.readSymbolicLink(p).toString());
+			} else if (attrs.isDirectory()) {
+				return new Entry(p, '5', getMode(p, 0755), 0, mtime, null);
+			}
+			return new Entry(p, '0', getMode(p, p.toFile().canExecute() ? 0755 : 0644), attrs.size(), mtime, null);
+		}
+
+		private static int getMode(Path p, int defaultMode) {
+			try {
+				PosixFileAttributes attrs = Files.readAttributes(p, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+				int mode = 0;
+				for (PosixFilePermission permission : attrs.permissions()) {
+					// OWNER_READ is the highest bit, OTHERS_EXECUTE the lowest
+					mode |= 1 << (8 - permission.ordinal());
+				}
+				return mode;
+			} catch (UnsupportedOperationException | IOException e) {
+				return defaultMode;
+			}
+		}
+	}
+
+	/**
+	 * The patterns of a .dockerignore file. As in Docker, a pattern matches a path if it matches the whole path, or the
+	 * directory at the same depth as the pattern, and the last pattern that matches decides whether the path is
+	 * excluded; patterns that start with '!' are exceptions, which include paths again.
+	 */
+	public static class Ignore {
+
+		private final List<Pattern> patterns = new ArrayList<>();
+
+		private final List<Integer> depths = new ArrayList<>();
+
+		private final List<Boolean> exceptions = new ArrayList<>();
+
+		public static Ignore load(File ignoreFile) throws IOException {
+			Ignore result = new Ignore();
+			if (ignoreFile.isFile()) {
+				for (String line : Files.readAllLines(ignoreFile.toPath(), StandardCharsets.UTF_8)) {
+					result.add(line);
+				}
+			}
+			return result;
+		}
+
+		public void add(String line) {
+			String pattern = line.trim();
+			if (pattern.isEmpty() || pattern.startsWith("#")) {
+				return;
+			}
+			boolean exception = pattern.startsWith("!");
+			if (exception) {
+				pattern = pattern.substring(1).trim();
+			}
+			pattern = normalize(pattern);
+			if (pattern.isEmpty()) {
+				return;
+			}
+			patterns.add(Pattern.compile(toRegex(pattern)));
+			depths.add(pattern.split("/").length);
+			exceptions.add(exception);
+		}
+
+		public boolean hasExceptions() {
+			return exceptions.contains(Boolean.TRUE);
+		}
+
+		public boolean isExcluded(String path) {
+			boolean excluded = false;
+			String[] parts = path.split("/");
+			for (int x = 0; x < patterns.size(); x++) {
+				boolean matches = patterns.get(x).matcher(path).matches();
+				if (!matches && depths.get(x) < parts.length) {
+					// The pattern may match a parent directory of the path
+					StringBuilder parent = new StringBuilder(parts[0]);
+					for (int y = 1; y < depths.get(x); y++) {
+						parent.append('/').append(parts[y]);
+					}
+					matches = patterns.get(x).matcher(parent).matches();
+				}
+				if (matches) {
+					excluded = !exceptions.get(x);
+				}
+			}
+			return excluded;
+		}
+
+		private static String toRegex(String pattern) {
+			StringBuilder sb = new StringBuilder();
+			for (int x = 0; x < pattern.length(); x++) {
+				char c = pattern.charAt(x);
+				if (c == '*' && x + 1 < pattern.length() && pattern.charAt(x + 1) == '*') {
+					// '**' matches any number of directories, including none
+					x++;
+					if (x + 1 < pattern.length() && pattern.charAt(x + 1) == '/') {
+						x++;
+						sb.append("(.*/)?");
+					} else {
+						sb.append(".*");
+					}
+				} else if (c == '*') {
+					sb.append("[^/]*");
+				} else if (c == '?') {
+					sb.append("[^/]");
+				} else if (c == '[') {
+					int end = pattern.indexOf(']', x + 1);
+					if (end < 0) {
+						sb.append("\\[");
+					} else {
+						String set = pattern.substring(x + 1, end).replace("\\", "\\\\");
+						sb.append('[').append(set.startsWith("^") ? "^" + set.substring(1) : set).append(']');
+						x = end;
+					}
+				} else if (c == '\\' && x + 1 < pattern.length()) {
+					sb.append(Pattern.quote(String.valueOf(pattern.charAt(++x))));
+				} else {
+					sb.append(Pattern.quote(String.valueOf(c)));
+				}
+			}
+			return sb.toString();
+		}
+	}
+
+	private static class CountingOutputStream extends FilterOutputStream {
+
+		long count = 0;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+}
@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.iterdev;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A command to run (see TaskUtils.runCmd(...)): either a program and its arguments, which is executed directly, or a
+ * command line, which is run by the shell (/bin/bash, or cmd on Windows). The shell is only needed for pipelines,
+ * redirection and the like, so most commands should be created with of(...), which avoids starting a shell and
+ * quoting the arguments.
+ *
+ * Commands are immutable: args(...) returns a new command, so a command can be used as a prefix for other commands
+ * (for example, 'docker exec (container)').
+ *
+ * Each command has an operation, which its execution metrics are recorded under (see Metrics).
+ */
+public final class Cmd {
+
+	/** Programs whose operation includes their subcommand (for example, 'docker ps') */
+	private static final Set<String> CLIENTS = new HashSet<>(Arrays.asList("docker", "kubectl", "helm", "buildah"));
+
+	private final List<String> args;
+
+	/** The command line, if the command is run by the shell */
+	private final String commandLine;
+
+	/** The operation, if it was given by named(...) */
+	private final String operation;
+
+	private Cmd(List<String> args, String commandLine, String operation) {
+		this.args = args;
+		this.commandLine = commandLine;
+		this.operation = operation;
+	}
+
+	/** Return a command that runs the given program with the given arguments. */
+	public static Cmd of(String program, String... args) {
+		return new Cmd(Collections.<String>emptyList(), null, null).args(program).args(args);
+	}
+
+	/** Return a command that runs the given command line with the shell. */
+	public static Cmd shell(String commandLine) {
+		return new Cmd(null, commandLine, null);
+	}
+
+	/** Return a new command, with the given operation. */
+	public Cmd named(String operation) {
+		return new Cmd(args, commandLine, operation);
+	}
+
+	/** Return a new command, with the given arguments added to the arguments of this command. */
+	public Cmd args(String... more) {
+		return args(Arrays.asList(more));
+	}
+
+	/** Return a new command, with the given arguments added to the arguments of this command. */
+	public Cmd args(List<String> more) {
+		if (isShell()) {
+			throw new IllegalStateException("Arguments can't be added to a shell command: " + commandLine);
+		}
+		List<String> list = new ArrayList<>(args.size() + more.size());
+		list.addAll(args);
+		for (String arg : more) {
+			// A missing value is passed as 'null', as it was when commands were built by concatenation
+			list.add(String.valueOf(arg));
+		}
+		return new Cmd(Collections.unmodifiableList(list), null, operation);
+	}
+
+	/** Return the program and its arguments; not available for shell commands. */
+	public List<String> getArgs() {
+		if (isShell()) {
+			throw new IllegalStateException("Shell command: " + commandLine);
+		}
+		return args;
+	}
+
+	/** Return the name of the program that is run, without its directory (the first word, for shell commands). */
+	public String getProgramName() {
+		String program = isShell() ? commandLine.trim().split("\\s+")[0] : args.get(0);
+		return program.substring(Math.max(program.lastIndexOf('/'), program.lastIndexOf('\\')) + 1);
+	}
+
+	/**
+	 * Return the operation of the command: the operation given by named(...), or else the name of the program
+	 * without its extension (for example, 'build_server' for build_server.sh), followed by the subcommand for
+	 * container clients (for example, 'docker ps').
+	 */
+	public String getOperation() {
+		if (operation != null) {
+			return operation;
+		}
+		String program = getProgramName();
+		if (program.endsWith(".sh") || program.endsWith(".bat")) {
+			return program.substring(0, program.lastIndexOf('.'));
+		}
+		if (!isShell() && CLIENTS.contains(program)) {
+			for (String arg : args.subList(1, args.size())) {
+				if (!arg.startsWith("-")) {
+					return program + " " + arg;
+				}
+			}
+		}
+		return program;
+	}
+
+	public boolean isShell() {
+		return commandLine != null;
+	}
+
+	/** Return the arguments to pass to ProcessBuilder. */
+	public String[] toArgv() {
+		if (!isShell()) {
+			return args.toArray(new String[args.size()]);
+		}
+		if (System.getProperty("os.name").toLowerCase().contains("windows")) {
+			return new String[] { "cmd", "/c", commandLine };
+		}
+		return new String[] { "/bin/bash", "-c", commandLine };
+	}
+
+	/** Return the command as it would be typed in a shell, for logging. */
+	@Override
+	public String toString() {
+		if (isShell()) {
+			return commandLine;
+		}
+		StringBuilder sb = new StringBuilder();
+		for (String arg : args) {
+			if (sb.length() > 0) {
+				sb.append(' ');
+			}
+			if (arg.isEmpty() || !arg.matches("[\\w@%+=:,./-]+")) {
+				sb.append('\'').append(arg.replace("'", "'\\''")).append('\'');
+			} else {
+				sb.append(arg);
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -72,6 +72,8 @@ public class Constants {
 	public static final String OPTION_CONTAINER_REMOVE = "container-remove";
 	public static final String OPTION_SYSTEM_CLEANUP = "system-cleanup";
 	public static final String OPTION_HELP = "help";
+	public static final String OPTION_DAEMON = "daemon";
+	public static final String OPTION_METRICS = "metrics";
 	
 	// Build options
 	public static final String BUILD_OPTION_CONFIG = "config";
@@ -81,7 +83,7 @@ public class Constants {
 			OPTION_PROD, OPTION_DEV, OPTION_SET, OPTION_BUILD, OPTION_CLEAN,
 			OPTION_START, OPTION_DEBUG, OPTION_STOP, OPTION_TAIL, OPTION_STATUS_TRACKER, OPTION_SHELL,
 			OPTION_CONTAINER_REFRESH, OPTION_CONTAINER_REMOVE, OPTION_SYSTEM_CLEANUP,
-			OPTION_HELP };
+			OPTION_METRICS, OPTION_HELP };
 	
 	// Dockerfiles
 	public static final String MASTER_DOCKERFILES_DIRNAME = "masterDockerfiles";
@@ -93,7 +95,21 @@ public class Constants {
 
 	public static final String IDC_DIR = ".idc";
 	public static final String IDC_CONFIG_FILE = "idc.config";
+	public static final String DAEMON_DIR = "daemon";
+	public static final String METRICS_DIR = "metrics";
+	public static final String DAEMON_ENDPOINT_FILE = "endpoint";
     public static final String BASE_PATH_PROPERTY_KEY = "idcBasePath";
+    public static final String CONTENT_HASHER_PROPERTY_KEY = "contentHasher";
+    public static final String EXEC_SESSION_PROPERTY_KEY = "containerExecSession";
+    public static final String DOCKER_API_PROPERTY_KEY = "dockerApi";
+    public static final String DOCKER_HOST_PROPERTY_KEY = "dockerHost";
+    public static final String STREAM_BUILD_CONTEXT_PROPERTY_KEY = "streamBuildContext";
+    public static final String STAGE_WITH_HARD_LINKS_PROPERTY_KEY = "stageWithHardLinks";
+    public static final String INVENTORY_TTL_PROPERTY_PREFIX = "inventoryTtl.";
+    public static final String TIMEOUT_PROPERTY_PREFIX = "timeout.";
+    public static final String DEFAULT_TIMEOUT_PROPERTY_KEY = "timeout.default";
+    /** Commands have no timeout unless one is set in idc.config ('idc tail' runs until it is stopped) */
+    public static final long DEFAULT_TIMEOUT_SECONDS = 0;
     public static final String APP_PREFIX_KEY = "appPrefix";
     
     public static final String modifiedAppDirPromptQues = "Warning: The above app directory cannot be detected either because it was deleted or modified. Stop and remove the above container? (yes/no): ";
@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.iterdev;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Calculates the hashes that IDC uses to detect changes to files (for example, the pom.xml and server config hashes
+ * stored in the app db).
+ *
+ * The hasher used for new hashes is set with the 'contentHasher' property in idc.config ('xxh64' by default, or
+ * 'sha1'). Hashes are stored with the name of their hasher as a prefix ('xxh64:...'), except for SHA-1 hashes, which
+ * are stored without a prefix, as they were by earlier versions of IDC. That way, the hasher that calculated a stored
+ * hash is always known, and the stored hash can be checked against the files with the same hasher (see
+ * IDCUtils.migrateStoredHash(...)).
+ */
+public interface ContentHasher {
+
+	public static final String SHA1 = "sha1";
+
+	public static final String SHA256 = "sha256";
+
+	public static final String XXH64 = "xxh64";
+
+	/** Separates the hasher name from the hash, in stored hashes */
+	public static final char PREFIX_SEPARATOR = ':';
+
+	/** Name of the hasher, used in stored hashes and in the fingerprint cache. */
+	public String getName();
+
+	/** Return the hash (hex) of the contents of the given file. */
+	public String hashFile(File f) throws IOException;
+
+	/** Return the hash (hex) of the given string. */
+	public String hashString(String s);
+
+	/** Return the stored form of a hash calculated by this hasher. */
+	public default String toStoredHash(String hash) {
+		return getName().equals(SHA1) ? hash : getName() + PREFIX_SEPARATOR + hash;
+	}
+
+	/** Return the hasher with the given name, or null if there is no such hasher. */
+	public static ContentHasher get(String name) {
+		return Registry.HASHERS.get(name);
+	}
+
+	/** Return the hasher that calculated the given stored hash, or null if it is unknown. */
+	public static ContentHasher forStoredHash(String storedHash) {
+		int index = storedHash.indexOf(PREFIX_SEPARATOR);
+		return index == -1 ? get(SHA1) : get(storedHash.substring(0, index));
+	}
+
+	/** Return the hasher to use for new hashes, as set in idc.config. */
+	public static ContentHasher getConfigured() {
+		String name = IDCContext.readIDCConfig().getProperty(Constants.CONTENT_HASHER_PROPERTY_KEY, XXH64).trim();
+		ContentHasher result = get(name);
+		if (result == null) {
+			Logger.error("Unknown content hasher '" + name + "' in idc.config, using " + SHA1);
+			result = get(SHA1);
+		}
+		return result;
+	}
+
+	/** The available hashers */
+	static class Registry {
+		static final Map<String, ContentHasher> HASHERS = new LinkedHashMap<>();
+
+		static {
+			for (ContentHasher hasher : new ContentHasher[] { new DigestContentHasher(SHA1),
+					new DigestContentHasher(SHA256), new XXH64ContentHasher() }) {
+				HASHERS.put(hasher.getName(), hasher);
+			}
+		}
+	}
+}
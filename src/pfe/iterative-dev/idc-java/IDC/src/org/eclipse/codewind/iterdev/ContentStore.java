@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.iterdev;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Content-addressed store of files (.idc/cas) that the staging directories of every application hard link to, so that
+ * the files they have in common, such as the IDC artifacts, are written and stored once however many applications
+ * there are.
+ *
+ * Each file is stored as (hasher)/(first two characters of the hash)/(hash)-(size)-(mode). The permissions are part of
+ * the name as the links share them along with the contents. A stored file is never written to once it is in the store:
+ * it is written to a temporary file that is then linked into place, and staging directories replace their links rather
+ * than write through them.
+ *
+ * The link count of a stored file is the number of staging directories that use it, plus one for the store itself, so
+ * collectGarbage() deletes the stored files whose link count is one.
+ */
+public class ContentStore {
+
+	public static final String DIRECTORY = "cas";
+
+	/** Files being added to the store */
+	private static final String TEMP_DIRECTORY = "tmp";
+
+	/** Records the time of the last garbage collection */
+	private static final String GC_MARKER = ".gc";
+
+	private static final long GC_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+	/** Unreferenced files younger than this may be about to be linked to by another process, so they are kept */
+	private static final long GC_GRACE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+	private final Path root;
+
+	private final ContentHasher hasher;
+
+	public ContentStore(File idcBase, ContentHasher hasher) {
+		this.root = new File(idcBase, DIRECTORY).toPath();
+		this.hasher = hasher;
+	}
+
+	/** The hasher that calculates the hashes of the stored files */
+	public ContentHasher getHasher() {
+		return hasher;
+	}
+
+	/** Return the path in the store of the given file, whose hash is given. */
+	public Path getStoredPath(Path source, BasicFileAttributes attrs, String hash) throws IOException {
+		return root.resolve(hasher.getName()).resolve(hash.substring(0, 2))
+				.resolve(hash + "-" + attrs.size() + "-" + getMode(source));
+	}
+
+	/**
+	 * Add the given file to the store, as the given stored path, if it is not there already. Return true if the file
+	 * was added, or false if the store already had it.
+	 */
+	public boolean add(Path source, Path stored) throws IOException {
+		if (Files.exists(stored)) {
+			return false;
+		}
+		Path tempDir = root.resolve(TEMP_DIRECTORY);
+		Files.createDirectories(tempDir);
+		Files.createDirectories(stored.getParent());
+		Path temp = Files.createTempFile(tempDir, "blob", null);
+		try {
+			new FileCopier().copyFile(source, temp);
+			// Linking, unlike renaming, never replaces a file that another process stored first
+			Files.createLink(stored, temp);
+			return true;
+		} catch (FileAlreadyExistsException e) {
+			return false;
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/** Replace the given file with a link to the given file of the store, adding the source to the store if needed. */
+	public void link(Path source, Path stored, Path target) throws IOException {
+		Files.deleteIfExists(target);
+		try {
+			Files.createLink(target, stored);
+		} catch (NoSuchFileException e) {
+			// Deleted by a garbage collection in another process since it was added, so add it again
+			add(source, stored);
+			Files.createLink(target, stored);
+		}
+	}
+
+	/** Delete the unreferenced files from the store, if that has not been done in the last hour. */
+	public void collectGarbageIfDue() {
+		try {
+			Path marker = root.resolve(GC_MARKER);
+			if (Files.exists(marker)
+					&& System.currentTimeMillis() - Files.getLastModifiedTime(marker).toMillis() < GC_INTERVAL_MILLIS) {
+				return;
+			}
+			Files.createDirectories(root);
+			if (!Files.exists(marker)) {
+				Files.createFile(marker);
+			}
+			Files.setLastModifiedTime(marker, FileTime.fromMillis(System.currentTimeMillis()));
+
+			int deleted = collectGarbage(GC_GRACE_MILLIS);
+			if (deleted > 0) {
+				Logger.info("Deleted " + deleted + " unreferenced files from " + root);
+			}
+		} catch (IOException e) {
+			Logger.error("Unable to delete the unreferenced files from " + root, e);
+		}
+	}
+
+	/**
+	 * Delete the files of the store that no staging directory links to, and that have not been linked to (or unlinked
+	 * from) for the given time. Return the number of files deleted.
+	 */
+	public int collectGarbage(long graceMillis) throws IOException {
+		if (!Files.isDirectory(root)) {
+			return 0;
+		}
+		long cutoff = System.currentTimeMillis() - graceMillis;
+		int[] deleted = { 0 };
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path f, BasicFileAttributes attrs) throws IOException {
+				if (f.getParent().equals(root)) {
+					return FileVisitResult.CONTINUE;
+				}
+				// The change time is updated when a link is added or removed
+				Object nlink = Files.getAttribute(f, "unix:nlink");
+				FileTime ctime = (FileTime) Files.getAttribute(f, "unix:ctime");
+				boolean temp = f.getParent().equals(root.resolve(TEMP_DIRECTORY));
+				if ((temp || ((Number) nlink).intValue() <= 1) && ctime.toMillis() < cutoff) {
+					Files.deleteIfExists(f);
+					deleted[0]++;
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		return deleted[0];
+	}
+
+	/** Return the store, for the given context, or null if the file system of its .idc directory has no link counts. */
+	public static ContentStore forContext(IDCContext context, ContentHasher hasher) {
+		File idcBase = context.getIDCBase();
+		if (!idcBase.toPath().getFileSystem().supportedFileAttributeViews().contains("unix")) {
+			return null;
+		}
+		return new ContentStore(idcBase, hasher);
+	}
+
+	/** The permissions of the given file, in octal */
+	private static String getMode(Path p) throws IOException {
+		PosixFileAttributeView view = Files.getFileAttributeView(p, PosixFileAttributeView.class);
+		if (view == null) {
+			return p.toFile().canExecute() ? "755" : "644";
+		}
+		Set<PosixFilePermission> permissions = view.readAttributes().permissions();
+		int mode = 0;
+		for (PosixFilePermission permission : PosixFilePermission.values()) {
+			mode <<= 1;
+			if (permissions.contains(permission)) {
+				mode |= 1;
+			}
+		}
+		return Integer.toOctalString(mode);
+	}
+}
@@ -13,55 +13,239 @@
 package org.eclipse.codewind.iterdev;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 
-/** Simple key-value store; this class is not thread safe.  */
+/**
+ * Simple key-value store. A DBMap is not thread safe: threads that share one (the IDC daemon runs commands on many
+ * threads, which share maps such as the AppIndex and Inventory ones) must synchronize on it.
+ * 
+ * The db file is an append-only journal of 'key@#@value' lines, where later lines replace earlier ones and a value of
+ * 'null' removes the key. Each put/remove appends a single line, rather than rewriting the whole file. Once the
+ * journal contains mostly superseded lines, it is compacted by writing the current entries to a temporary file and
+ * renaming it over the journal. A compacted journal has exactly the format of the db files written by earlier versions
+ * of IDC (one line per key), so existing db files are read as-is.
+ * 
+ * Between begin() and commit(), changes are only applied in memory; commit() then writes them all at once, with the
+ * same temporary file and rename used for compaction, so either all or none of the changes reach the disk.
+ * 
+ * Changes to the keys in AppIndex.INDEXED_KEYS are also written to the AppIndex, once they reach the disk.
+ */
 public class DBMap {
 
 	public static final String DBPREFIX = "db-";
 	
+	private static final String SEPARATOR = "@#@";
+	
+	private static final String NULL_VALUE = "null";
+	
+	private static final String TMP_SUFFIX = ".tmp";
+	
+	/** Journals with fewer lines than this are never compacted. */
+	private static final int COMPACTION_MIN_LINES = 64;
+	
+	/** Compact once the journal has this many lines per live entry. */
+	private static final int COMPACTION_RATIO = 4;
+	
+	/** When enabled (by the IDC daemon), the parsed contents of each db file are kept in memory and reused for as 
+	 * long as the file on disk is unchanged. Each DBMap still works on its own copy of the contents. */
+	private static volatile boolean cacheEnabled = false;
+	
+	private static final Map<File, CachedContents> cache = new ConcurrentHashMap<>();
+	
+	/** Number of times any db file has been written by this process */
+	private static final AtomicLong writeCount = new AtomicLong();
+	
+	private final File idcBase;
+	
 	private final File file;
 	
 	private final Map<String, String> map = new HashMap<>();
 	
 	private final String id;
 	
+	/** Number of lines in the journal file, including superseded lines */
+	private int journalLines = 0;
+	
+	/** Number of times the db file has been written by this DBMap */
+	private long writes = 0;
+	
+	/** Nesting depth of begin() calls */
+	private int transactionDepth = 0;
+	
+	/** Whether the current transaction has changed the map */
+	private boolean transactionChanged = false;
+	
+	/** Contents of the map when each open (nested) transaction began, innermost first, restored by rollback() */
+	private final Deque<Map<String, String>> transactionSnapshots = new ArrayDeque<>();
+	
 	public DBMap(String id, File idcBase) throws IOException {
+		this(id, idcBase, true);
+	}
+	
+	/** Subclasses that need to control when the db file is read (for example, under a lock) pass load=false, and 
+	 * then call reload(). */
+	protected DBMap(String id, File idcBase, boolean load) throws IOException {
 		this.id = id;
+		this.idcBase = idcBase;
 		
 		File dir = new File(idcBase, "db");
 		
 		file = new File(dir, DBPREFIX+id);
 		
-		if(file.exists()) {
+		if(!load) {
+			return;
+		}
+		
+		CachedContents cached = cacheEnabled ? cache.get(file) : null;
+		if(cached != null && cached.stamp.equals(FileStamp.of(file))) {
+			map.putAll(cached.contents);
+			journalLines = cached.journalLines;
 			
-			BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file)));
-			String str;
-			while(null != (str = br.readLine())) {
-				
-				int index = str.indexOf("@#@");
-				String value = str.substring(index+3).trim();
-				if(value.equals("null")) { value = null; }
-				
-				map.put(str.substring(0, index), value);
-			}
-			br.close();
+		} else if(file.exists()) {
+			
+			replayJournal();
 			
+			updateCache();
+		}
+	}
+	
+	public static void setCacheEnabled(boolean enabled) {
+		cacheEnabled = enabled;
+		if(!enabled) {
+			cache.clear();
 		}
 	}
 	
+	/** Return the db files in the given .idc directory (excluding temporary files used for compaction, and other 
+	 * files kept alongside a db, such as lock files; db ids never contain a '.'). */
+	public static File[] listDBFiles(File idcBase) {
+		File[] result = new File(idcBase, "db").listFiles((File dir, String name) -> name.startsWith(DBPREFIX) && name.indexOf('.') == -1);
+		return result != null ? result : new File[0];
+	}
+	
+	/** Return the id of the given db file, as passed to the DBMap constructor. */
+	public static String getIdFromFile(File dbFile) {
+		return dbFile.getName().substring(DBPREFIX.length());
+	}
+	
+	/** Return the number of times any db file has been written by this process. */
+	public static long getWriteCount() {
+		return writeCount.get();
+	}
 	
 	public String getId() {
 		return id;
 	}
+	
+	protected File getFile() {
+		return file;
+	}
+	
+	/** Return the file used to store other data that belongs with this db (for example 'db-(id).fp'). Sidecar files
+	 * are not returned by listDBFiles(...), and are removed along with the db when an application is cleaned up. */
+	public File getSidecarFile(String extension) {
+		return new File(file.getParentFile(), file.getName() + "." + extension);
+	}
+	
+	/** Return the number of times the db file has been written by this DBMap. */
+	protected long getWrites() {
+		return writes;
+	}
+	
+	protected int getJournalLines() {
+		return journalLines;
+	}
+	
+	/** Discard the in-memory contents and read the db file again. */
+	protected void reload() throws IOException {
+		map.clear();
+		journalLines = 0;
+		if(file.exists()) {
+			replayJournal();
+		}
+	}
+	
+	/** Replace the in-memory contents with contents previously read from the db file by another DBMap. */
+	protected void reload(Map<String, String> contents, int journalLines) {
+		map.clear();
+		map.putAll(contents);
+		this.journalLines = journalLines;
+	}
+	
+	/** Start a transaction: subsequent puts and removes are not written until the matching commit(). Transactions may 
+	 * be nested, in which case only the outermost commit() writes to disk. */
+	public void begin() {
+		if(transactionDepth++ == 0) {
+			transactionChanged = false;
+		}
+		transactionSnapshots.push(new HashMap<>(map));
+	}
+	
+	/** Write all of the changes made since the outermost begin() to disk, in a single atomic update. */
+	public void commit() {
+		if(transactionDepth == 0) {
+			throw new IllegalStateException("There is no transaction to commit for db " + id);
+		}
+		
+		Map<String, String> snapshot = transactionSnapshots.pop();
+		if(--transactionDepth > 0) {
+			return;
+		}
+		
+		if(transactionChanged) {
+			transactionChanged = false;
+			try {
+				compact();
+			} catch (IOException e) {
+				e.printStackTrace();
+				return;
+			}
+			
+			Map<String, String> indexChanges = new HashMap<>();
+			for(String key : AppIndex.INDEXED_KEYS) {
+				if(!Objects.equals(snapshot.get(key), map.get(key))) {
+					indexChanges.put(key, map.get(key));
+				}
+			}
+			updateIndex(indexChanges);
+		}
+	}
+	
+	/** Discard the changes made since the matching begin(), ending that transaction; the enclosing transaction (if 
+	 * any) remains open, with the changes it made before the nested one began. */
+	public void rollback() {
+		if(transactionDepth == 0) {
+			throw new IllegalStateException("There is no transaction to roll back for db " + id);
+		}
+		
+		map.clear();
+		map.putAll(transactionSnapshots.pop());
+		if(--transactionDepth == 0) {
+			transactionChanged = false;
+		}
+	}
 
 	public String get(String key) {
 		return map.get(key);
@@ -72,37 +256,203 @@ public class DBMap {
 	}
 	
 	public void remove(String key) {
+		boolean present = map.get(key) != null;
 		map.remove(key);
 		
+		if(!present) {
+			// Nothing to record, the key is not in the journal
+			return;
+		}
+		
 		try {
-			writeMap();
+			appendEntry(key, null);
 		} catch (IOException e) {
 			e.printStackTrace();
-		}		
+			return;
+		}
+		
+		if(transactionDepth == 0 && AppIndex.INDEXED_KEYS.contains(key)) {
+			updateIndex(Collections.singletonMap(key, null));
+		}
 	}
 	
 	public void put(String key, String value) {
-		map.put(key, value);
+		String previous = map.put(key, value);
+		
+		if(Objects.equals(previous, value)) {
+			// The journal already holds this value
+			return;
+		}
+		
 		try {
-			writeMap();
+			appendEntry(key, value);
 		} catch (IOException e) {
 			e.printStackTrace();
+			return;
+		}
+		
+		if(transactionDepth == 0 && AppIndex.INDEXED_KEYS.contains(key)) {
+			updateIndex(Collections.singletonMap(key, value));
 		}
 	}
 	
-	private void writeMap() throws IOException {
-		if(!file.getParentFile().exists())
-			file.getParentFile().mkdirs();
-		FileWriter fw = new FileWriter(file);
+	private void updateIndex(Map<String, String> changes) {
+		try {
+			AppIndex.update(idcBase, id, changes);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/** Read the journal into the map. A trailing partial line (from an append that did not complete) is discarded and
+	 * truncated from the file, so that the next append starts on a new line. */
+	private void replayJournal() throws IOException {
+		byte[] data = Files.readAllBytes(file.toPath());
 		
-		for(Map.Entry<String, String> e : map.entrySet()) {
+		int end = data.length;
+		while(end > 0 && data[end-1] != '\n') {
+			end--;
+		}
+		
+		if(end != data.length) {
+			Logger.error("Discarding an incomplete entry at the end of " + file.getPath());
+			try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+				fc.truncate(end);
+			}
+		}
+		
+		BufferedReader br = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(data, 0, end)));
+		String str;
+		while(null != (str = br.readLine())) {
+			journalLines++;
 			
-			// Null values should not be written to the file, rather than being written as nulls
-			if(e.getValue() == null) { continue; }
+			int index = str.indexOf(SEPARATOR);
+			if(index == -1) {
+				continue;
+			}
 			
-			fw.write(e.getKey()+"@#@"+e.getValue()+"\n");
+			String key = str.substring(0, index);
+			String value = str.substring(index+SEPARATOR.length()).trim();
+			if(value.equals(NULL_VALUE)) {
+				map.remove(key);
+			} else {
+				map.put(key, value);
+			}
+		}
+		br.close();
+	}
+	
+	private void appendEntry(String key, String value) throws IOException {
+		if(transactionDepth > 0) {
+			// Written on commit
+			transactionChanged = true;
+			return;
+		}
+		
+		if(!file.getParentFile().exists())
+			file.getParentFile().mkdirs();
+		
+		if(journalLines >= COMPACTION_MIN_LINES && journalLines >= COMPACTION_RATIO * map.size()) {
+			compact();
+			return;
+		}
+		
+		try (Writer w = new OutputStreamWriter(new FileOutputStream(file, true))) {
+			// Null values are written as tombstones, which remove the key when the journal is replayed
+			w.write(key + SEPARATOR + (value == null ? NULL_VALUE : value) + "\n");
+		}
+		journalLines++;
+		writes++;
+		writeCount.incrementAndGet();
+		
+		updateCache();
+	}
+	
+	/** Replace the journal with one line per live entry, using an atomic rename so that a crash leaves either the old 
+	 * or the new journal in place. */
+	private void compact() throws IOException {
+		if(!file.getParentFile().exists())
+			file.getParentFile().mkdirs();
+		
+		File tmpFile = new File(file.getParentFile(), file.getName() + TMP_SUFFIX);
+		
+		int lines = 0;
+		try (FileOutputStream fos = new FileOutputStream(tmpFile)) {
+			Writer w = new BufferedWriter(new OutputStreamWriter(fos));
+			for(Map.Entry<String, String> e : map.entrySet()) {
+				
+				// Null values should not be written to the file, rather than being written as nulls
+				if(e.getValue() == null) { continue; }
+				
+				w.write(e.getKey() + SEPARATOR + e.getValue() + "\n");
+				lines++;
+			}
+			w.flush();
+			fos.getFD().sync();
+		}
+		
+		Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		journalLines = lines;
+		writes++;
+		writeCount.incrementAndGet();
+		
+		updateCache();
+	}
+	
+	private void updateCache() {
+		if(!cacheEnabled) {
+			return;
+		}
+		FileStamp stamp = FileStamp.of(file);
+		if(stamp != null) {
+			cache.put(file, new CachedContents(stamp, new HashMap<>(map), journalLines));
+		}
+	}
+	
+	private static class CachedContents {
+		final FileStamp stamp;
+		final Map<String, String> contents;
+		final int journalLines;
+		
+		CachedContents(FileStamp stamp, Map<String, String> contents, int journalLines) {
+			this.stamp = stamp;
+			this.contents = contents;
+			this.journalLines = journalLines;
+		}
+	}
+
+	/** Size, modification time and file key (inode) of a db file, used to detect changes made by other processes. */
+	private static class FileStamp {
+		final long size;
+		final long lastModifiedNanos;
+		final Object fileKey;
+		
+		private FileStamp(long size, long lastModifiedNanos, Object fileKey) {
+			this.size = size;
+			this.lastModifiedNanos = lastModifiedNanos;
+			this.fileKey = fileKey;
+		}
+		
+		static FileStamp of(File file) {
+			try {
+				BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+				return new FileStamp(attrs.size(), attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS), attrs.fileKey());
+			} catch (IOException e) {
+				return null;
+			}
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof FileStamp)) { return false; }
+			FileStamp other = (FileStamp)o;
+			return size == other.size && lastModifiedNanos == other.lastModifiedNanos && Objects.equals(fileKey, other.fileKey);
+		}
+		
+		@Override
+		public int hashCode() {
+			return Objects.hash(size, lastModifiedNanos, fileKey);
 		}
-		fw.close();
 	}
 	
 }
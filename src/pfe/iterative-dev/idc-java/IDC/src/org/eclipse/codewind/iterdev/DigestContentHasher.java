@@ -0,0 +1,49 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.iterdev;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+/** ContentHasher for the SHA-1 and SHA-256 message digests. */
+public class DigestContentHasher implements ContentHasher {
+
+	private final String name;
+
+	DigestContentHasher(String name) {
+		if (!name.equals(SHA1) && !name.equals(SHA256)) {
+			throw new IllegalArgumentException("Unsupported digest: " + name);
+		}
+		this.name = name;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String hashFile(File f) throws IOException {
+		try (InputStream is = new FileInputStream(f)) {
+			return name.equals(SHA256) ? DigestUtils.sha256Hex(is) : DigestUtils.sha1Hex(is);
+		}
+	}
+
+	@Override
+	public String hashString(String s) {
+		return name.equals(SHA256) ? DigestUtils.sha256Hex(s) : DigestUtils.sha1Hex(s);
+	}
+}
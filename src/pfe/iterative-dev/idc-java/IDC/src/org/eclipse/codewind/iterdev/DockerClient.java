@@ -0,0 +1,467 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.iterdev;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.codewind.iterdev.tasks.TaskUtils;
+
+/**
+ * A client for the Docker Engine API, used instead of running the docker CLI and parsing its output for the simple
+ * requests IDC makes (listing and removing containers and images).
+ *
+ * Requests are made over a single HTTP/1.1 connection to the endpoint in 'dockerHost' in idc.config, or else in
+ * DOCKER_HOST (by default the Unix socket /var/run/docker.sock), which is kept open between requests. Unix sockets are
+ * only supported by SocketChannel from Java 16; with older versions of Java (or a TLS endpoint), get(...) returns
+ * null, and the docker CLI is used instead (see DockerUtils), as it is for buildah and Kubernetes.
+ *
+ * Transport failures are thrown as IOExceptions; errors returned by the engine are returned as Responses.
+ */
+public class DockerClient {
+
+	private static final String API_VERSION = "/v1.24";
+
+	private static final String DEFAULT_HOST = "unix:///var/run/docker.sock";
+
+	private static final Map<String, DockerClient> clients = new ConcurrentHashMap<>();
+
+	/** Closes the connection of a request that has not completed within its timeout */
+	private static final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "IDC docker API watchdog");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private final String endpoint;
+
+	private final long timeoutMillis;
+
+	private volatile SocketChannel channel = null;
+
+	private InputStream in = null;
+
+	/** The response of a request */
+	public static class Response {
+
+		private final int status;
+
+		private final String body;
+
+		Response(int status, String body) {
+			this.status = status;
+			this.body = body;
+		}
+
+		public int getStatus() {
+			return status;
+		}
+
+		public String getBody() {
+			return body;
+		}
+
+		public boolean isSuccessful() {
+			return status >= 200 && status < 300;
+		}
+
+		/** The decoded body of the response */
+		public Object getJson() {
+			return Json.parse(body);
+		}
+
+		/** The error message returned by the engine, or the status if there is none */
+		public String getMessage() {
+			try {
+				String message = Json.getString(getJson(), "message");
+				if (message != null) {
+					return message;
+				}
+			} catch (IllegalArgumentException e) {
+				/* not JSON */
+			}
+			return "HTTP status " + status;
+		}
+	}
+
+	private DockerClient(String endpoint, long timeoutMillis) {
+		this.endpoint = endpoint;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * Return the client for the Docker engine used by the given context, or null if the Docker Engine API can't be
+	 * used (for example, with buildah or Kubernetes, or if 'dockerApi' is set to false in idc.config).
+	 */
+	public static DockerClient get(IDCContext context) {
+		if (context.isK8s() || !"docker".equals(context.getImageCommand()) || !Boolean.parseBoolean(
+				context.getIDCConfiguration().getProperty(Constants.DOCKER_API_PROPERTY_KEY, "true").trim())) {
+			return null;
+		}
+		if (System.getenv("DOCKER_TLS_VERIFY") != null || System.getenv("DOCKER_CERT_PATH") != null) {
+			return null;
+		}
+
+		String host = context.getIDCConfiguration().getProperty(Constants.DOCKER_HOST_PROPERTY_KEY, System.getenv("DOCKER_HOST"));
+		if (host == null || host.trim().isEmpty()) {
+			host = DEFAULT_HOST;
+		}
+		if (host.startsWith("unix://") && (!new File(host.substring(7)).exists() || !isUnixSocketSupported())) {
+			return null;
+		}
+		if (!host.startsWith("unix://") && !host.startsWith("tcp://")) {
+			return null;
+		}
+
+		// Requests have the same timeout as the docker CLI
+		return connect(host, TaskUtils.getTimeoutMillis(Cmd.of("docker"), context));
+	}
+
+	/** Return the client for the given endpoint ('unix://(path)' or 'tcp://(host):(port)'), with the given request timeout (0 for none). */
+	public static DockerClient connect(String endpoint, long timeoutMillis) {
+		return clients.computeIfAbsent(endpoint + " " + timeoutMillis, k -> new DockerClient(endpoint, timeoutMillis));
+	}
+
+	/** Return the names (without the tag) of the images. */
+	public List<String> listImageRepositories() throws IOException {
+		Response response = checked(request("GET", "/images/json"));
+		List<String> result = new ArrayList<>();
+		for (Object image : (List<?>) response.getJson()) {
+			for (Object tag : Json.getList(image, "RepoTags")) {
+				String repository = getRepository(String.valueOf(tag));
+				if (!repository.equals("<none>") && !result.contains(repository)) {
+					result.add(repository);
+				}
+			}
+		}
+		return result;
+	}
+
+	/** Return the ids of the containers that are running (or of all containers), as 'docker ps --no-trunc -q'. */
+	public List<String> listContainerIds(boolean all) throws IOException {
+		List<String> result = new ArrayList<>();
+		for (Object container : listContainers(all, null)) {
+			result.add(Json.getString(container, "Id"));
+		}
+		return result;
+	}
+
+	/** Return the images of the containers that are running, as 'docker ps --format {{.Image}}'. */
+	public List<String> listContainerImages() throws IOException {
+		List<String> result = new ArrayList<>();
+		for (Object container : listContainers(false, null)) {
+			result.add(Json.getString(container, "Image"));
+		}
+		return result;
+	}
+
+	/** Return the ids of the containers (running or not) whose name contains the given name, as 'docker ps -aq -f name=(name)'. */
+	public List<String> findContainerIds(String name) throws IOException {
+		List<String> result = new ArrayList<>();
+		for (Object container : listContainers(true, "{\"name\":[\"" + name.replace("\\", "\\\\").replace("\"", "\\\"") + "\"]}")) {
+			result.add(Json.getString(container, "Id"));
+		}
+		return result;
+	}
+
+	private List<?> listContainers(boolean all, String filters) throws IOException {
+		String path = "/containers/json?all=" + (all ? "1" : "0");
+		if (filters != null) {
+			path += "&filters=" + encode(filters);
+		}
+		return (List<?>) checked(request("GET", path)).getJson();
+	}
+
+	/** Remove the given container, as 'docker rm [-f]'. */
+	public Response removeContainer(String container, boolean force) throws IOException {
+		return request("DELETE", "/containers/" + encode(container) + "?force=" + (force ? "1" : "0"));
+	}
+
+	/** Remove the given image, as 'docker rmi [-f]'. */
+	public Response removeImage(String image, boolean force) throws IOException {
+		return request("DELETE", "/images/" + encodeImage(image) + "?force=" + (force ? "1" : "0"));
+	}
+
+	/** Return the details of the given image, as 'docker image inspect'; 404 (Not Found) if there is no such image. */
+	public Response inspectImage(String image) throws IOException {
+		return request("GET", "/images/" + encodeImage(image) + "/json");
+	}
+
+	/** Stop the given container, as 'docker stop'; a container that is already stopped returns 304 (Not Modified). */
+	public Response stopContainer(String container) throws IOException {
+		return request("POST", "/containers/" + encode(container) + "/stop");
+	}
+
+	/**
+	 * Make a request of the engine, reusing the connection of the last request if it is still open. A request that
+	 * fails on a reused connection (which the engine may have closed since) is retried on a new connection.
+	 */
+	public synchronized Response request(String method, String path) throws IOException {
+		long start = System.nanoTime();
+		boolean reused = channel != null && channel.isOpen();
+		long spawnTime = 0;
+		if (!reused) {
+			open();
+			spawnTime = System.nanoTime() - start;
+		}
+
+		// The watchdog does not synchronize on the client, which is held until the request completes
+		ScheduledFuture<?> deadline = timeoutMillis <= 0 ? null : watchdog.schedule(IDCDaemon.withCurrentTarget(() -> {
+			Logger.error("Closing the connection to " + endpoint + ", as " + method + " " + path + " did not complete within "
+					+ timeoutMillis + " ms");
+			SocketChannel ch = channel;
+			if (ch != null) {
+				closeQuietly(ch);
+			}
+		}), timeoutMillis, TimeUnit.MILLISECONDS);
+
+		Response response = null;
+		try {
+			try {
+				response = exchange(method, path);
+			} catch (IOException e) {
+				if (!reused || (deadline != null && deadline.isDone())) {
+					throw e;
+				}
+				close();
+				open();
+				response = exchange(method, path);
+			}
+			return response;
+		} catch (IOException e) {
+			close();
+			throw e;
+		} finally {
+			if (deadline != null) {
+				deadline.cancel(false);
+			}
+			Metrics.record("docker api " + method + " " + path.replaceAll("^/(\\w+)/.*", "$1"), spawnTime,
+					System.nanoTime() - start, response != null && response.isSuccessful() ? 0 : 1,
+					response != null ? response.getBody().length() : 0, 0);
+		}
+	}
+
+	/** Close the connection; the next request opens a new one. */
+	public synchronized void close() {
+		if (channel != null) {
+			closeQuietly(channel);
+		}
+		channel = null;
+		in = null;
+	}
+
+	private void open() throws IOException {
+		SocketChannel ch;
+		if (endpoint.startsWith("unix://")) {
+			ch = openUnixSocket(endpoint.substring(7));
+		} else {
+			String hostPort = endpoint.substring(6);
+			int colon = hostPort.lastIndexOf(':');
+			if (colon < 0) {
+				throw new IOException("No port in DOCKER_HOST: " + endpoint);
+			}
+			ch = SocketChannel.open(new InetSocketAddress(hostPort.substring(0, colon),
+					Integer.parseInt(hostPort.substring(colon + 1).replaceAll("/.*", ""))));
+		}
+		ch.configureBlocking(true);
+		channel = ch;
+		in = new BufferedInputStream(Channels.newInputStream(ch));
+	}
+
+	private Response exchange(String method, String path) throws IOException {
+		String request = method + " " + API_VERSION + path + " HTTP/1.1\r\n" + "Host: docker\r\n"
+				+ "User-Agent: IDC\r\n" + (method.equals("GET") ? "" : "Content-Length: 0\r\n") + "\r\n";
+		ByteBuffer buffer = ByteBuffer.wrap(request.getBytes(StandardCharsets.US_ASCII));
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+
+		String statusLine = readLine();
+		if (statusLine == null) {
+			throw new IOException("The connection to " + endpoint + " was closed");
+		}
+		String[] status = statusLine.split(" ", 3);
+		if (status.length < 2 || !status[0].startsWith("HTTP/")) {
+			throw new IOException("Invalid response from " + endpoint + ": " + statusLine);
+		}
+		int statusCode = Integer.parseInt(status[1]);
+
+		long contentLength = -1;
+		boolean chunked = false;
+		boolean closeAfter = false;
+		String line;
+		while ((line = readLine()) != null && !line.isEmpty()) {
+			int colon = line.indexOf(':');
+			if (colon < 0) {
+				continue;
+			}
+			String name = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+			String value = line.substring(colon + 1).trim();
+			if (name.equals("content-length")) {
+				contentLength = Long.parseLong(value);
+			} else if (name.equals("transfer-encoding")) {
+				chunked = value.toLowerCase(Locale.ROOT).contains("chunked");
+			} else if (name.equals("connection")) {
+				closeAfter = value.equalsIgnoreCase("close");
+			}
+		}
+		if (line == null) {
+			throw new IOException("The connection to " + endpoint + " was closed");
+		}
+
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		if (chunked) {
+			while (true) {
+				String size = readLine();
+				if (size == null) {
+					throw new IOException("The connection to " + endpoint + " was closed");
+				}
+				int semicolon = size.indexOf(';');
+				long chunkSize = Long.parseLong((semicolon < 0 ? size : size.substring(0, semicolon)).trim(), 16);
+				if (chunkSize == 0) {
+					// Trailers
+					while ((line = readLine()) != null && !line.isEmpty()) {
+						/* ignore */
+					}
+					break;
+				}
+				readFully(body, chunkSize);
+				readLine();
+			}
+		} else if (contentLength >= 0) {
+			readFully(body, contentLength);
+		} else if (statusCode != 204 && statusCode != 304) {
+			// The body is ended by the end of the connection
+			byte[] b = new byte[8192];
+			int n;
+			while ((n = in.read(b)) > 0) {
+				body.write(b, 0, n);
+			}
+			closeAfter = true;
+		}
+
+		if (closeAfter) {
+			close();
+		}
+		return new Response(statusCode, new String(body.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	private String readLine() throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int b;
+		while ((b = in.read()) >= 0) {
+			if (b == '\n') {
+				byte[] bytes = line.toByteArray();
+				int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+				return new String(bytes, 0, length, StandardCharsets.UTF_8);
+			}
+			line.write(b);
+		}
+		return null;
+	}
+
+	private void readFully(ByteArrayOutputStream out, long length) throws IOException {
+		byte[] b = new byte[8192];
+		while (length > 0) {
+			int n = in.read(b, 0, (int) Math.min(b.length, length));
+			if (n < 0) {
+				throw new IOException("The connection to " + endpoint + " was closed");
+			}
+			out.write(b, 0, n);
+			length -= n;
+		}
+	}
+
+	private Response checked(Response response) throws IOException {
+		if (!response.isSuccessful()) {
+			throw new IOException("Docker engine request failed: " + response.getMessage());
+		}
+		return response;
+	}
+
+	/** Return the repository of an image tag such as 'localhost:5000/app:latest' */
+	private static String getRepository(String tag) {
+		int colon = tag.lastIndexOf(':');
+		return colon > tag.lastIndexOf('/') ? tag.substring(0, colon) : tag;
+	}
+
+	private static String encode(String s) {
+		try {
+			return URLEncoder.encode(s, "UTF-8").replace("+", "%20");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/** Image names may include a registry and port (for example, 'localhost:5000/app'), which the engine expects as is */
+	private static String encodeImage(String image) {
+		return encode(image).replace("%2F", "/").replace("%3A", ":");
+	}
+
+	private static void closeQuietly(SocketChannel ch) {
+		try {
+			ch.close();
+		} catch (IOException e) {
+			/* ignore */
+		}
+	}
+
+	private static boolean isUnixSocketSupported() {
+		try {
+			Class.forName("java.net.UnixDomainSocketAddress");
+			return true;
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+
+	/** SocketChannel.open(UnixDomainSocketAddress.of(path)), which is only available from Java 16 */
+	private static SocketChannel openUnixSocket(String path) throws IOException {
+		try {
+			Class<?> addressClass = Class.forName("java.net.UnixDomainSocketAddress");
+			SocketAddress address = (SocketAddress) addressClass.getMethod("of", String.class).invoke(null, path);
+			ProtocolFamily unix = StandardProtocolFamily.valueOf("UNIX");
+			SocketChannel ch = (SocketChannel) SocketChannel.class.getMethod("open", ProtocolFamily.class).invoke(null, unix);
+			ch.connect(address);
+			return ch;
+		} catch (java.lang.reflect.InvocationTargetException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} catch (ReflectiveOperationException | IllegalArgumentException e) {
+			throw new IOException("Unix sockets are not supported by this version of Java", e);
+		}
+	}
+}
@@ -28,61 +28,214 @@ import org.eclipse.codewind.iterdev.tasks.TaskUtils;
 public class DockerUtils {
 
     public static boolean checkForContainerImage(IDCContext context) throws InterruptedException, IOException {
-		boolean isPresent = false;
-
-		String imageCommand = context.getImageCommand();
-		
-		ProcessRunner pr = TaskUtils.runCmd(imageCommand + " images --format \"{{.Repository}}\"", context, false);
-
-		Thread.sleep(1000);
-		for (String str : pr.getReceived().split("\\r?\\n")) {
-			if (str != null && str.equals(context.getImageName())) {
-				isPresent = true;
-				Logger.info("----");
-				Logger.info("Container Image already present: " + str);
-				Logger.info("Skipping image build. ");
-				Logger.info("----");
-
-				context.getAppDb().put(Constants.DB_CONTAINER_BUILT, Boolean.TRUE.toString());
-			}
+		boolean isPresent = context.getEnvironment().isImagePresent();
+
+		if (isPresent) {
+			Logger.info("----");
+			Logger.info("Container Image already present: " + context.getImageName());
+			Logger.info("Skipping image build. ");
+			Logger.info("----");
+
+			context.getAppDb().put(Constants.DB_CONTAINER_BUILT, Boolean.TRUE.toString());
 		}
 
 		return isPresent;
     }
 
-	public static List<List<String>> dockerPs(IDCContext context) throws IOException, InterruptedException {
-		List<List<String>> result = new ArrayList<>();
+	/*
+	 * The following use the Docker Engine API if it is available (see DockerClient), and otherwise run the image
+	 * command (docker or buildah).
+	 */
 
-		ProcessRunner pr = TaskUtils.runCmd("docker ps --no-trunc -q", context, false);
+	/**
+	 * Return true if there is an image with the given name, by inspecting the image (which returns as soon as the
+	 * image is found, or not), rather than listing all of the images. Both docker and buildah look the name up in
+	 * their own index of the images, so the cost of the check does not grow with the number of images on the host.
+	 */
+	public static boolean isImagePresent(IDCContext context, String image) throws IOException, InterruptedException {
+		DockerClient client = DockerClient.get(context);
+		if (client != null) {
+			try {
+				DockerClient.Response response = client.inspectImage(image);
+				if (response.isSuccessful() || response.getStatus() == 404) {
+					return response.isSuccessful();
+				}
+				Logger.error("Failed to inspect the image " + image + ": " + response.getMessage());
+			} catch (IOException e) {
+				logApiFailure(e);
+			}
+		}
+		Cmd cmd = "buildah".equals(context.getImageCommand())
+				? Cmd.of("buildah", "inspect", "--type", "image", "--format", "{{.FromImageID}}", image)
+				: Cmd.of(context.getImageCommand(), "image", "inspect", "--format", "{{.Id}}", image);
+		ProcessRunner pr = TaskUtils.runCmd(cmd.named("image check"), context, false);
+		return pr.getErrorCode().orElse(1) == 0;
+	}
 
-		for (String str : pr.getReceived().split("\\r?\\n")) {
+	/** Return the ids of the running containers, as '(image command) ps --no-trunc -q'. */
+	public static List<String> listContainerIds(IDCContext context) throws IOException, InterruptedException {
+		DockerClient client = DockerClient.get(context);
+		if (client != null) {
+			try {
+				return client.listContainerIds(false);
+			} catch (IOException e) {
+				logApiFailure(e);
+			}
+		}
+		ProcessRunner pr = TaskUtils.runCmd(Cmd.of(context.getImageCommand(), "ps", "--no-trunc", "-q"), context, false);
+		return lines(pr.getReceived());
+	}
 
-			if (str.startsWith("CONTAINER ID")) {
-				continue;
+	/** Return the images of the running containers, as '(image command) ps --format {{.Image}}'. */
+	public static List<String> listContainerImages(IDCContext context) throws IOException, InterruptedException {
+		DockerClient client = DockerClient.get(context);
+		if (client != null) {
+			try {
+				return client.listContainerImages();
+			} catch (IOException e) {
+				logApiFailure(e);
 			}
+		}
+		ProcessRunner pr = TaskUtils.runCmd(Cmd.of(context.getImageCommand(), "ps", "--format", "{{.Image}}"), context, false);
+		return lines(pr.getReceived());
+	}
+
+	/**
+	 * Return the id of the last container (running or not) with the given name, as
+	 * '(image command) ps -aq -f name=(name)', or null if there is none.
+	 */
+	public static String findContainerId(IDCContext context, String name) throws IOException, InterruptedException {
+		List<String> ids = null;
+		DockerClient client = DockerClient.get(context);
+		if (client != null) {
+			try {
+				ids = client.findContainerIds(name);
+			} catch (IOException e) {
+				logApiFailure(e);
+			}
+		}
+		if (ids == null) {
+			ProcessRunner pr = TaskUtils.runCmd(Cmd.of(context.getImageCommand(), "ps", "-aq", "-f", "name=" + name), context, false);
+			if (pr.getErrorCode().orElse(0) != 0) {
+				Logger.error("Error code: " + pr.getErrorCode() + ", No container with the name " + name + " was found.");
+			}
+			ids = lines(pr.getReceived());
+		}
+		return ids.isEmpty() ? null : ids.get(ids.size() - 1).trim();
+	}
 
-			result.add(IDCUtils.splitFieldsByMultipleSpaces(str));
+	/** Remove the given container, as '(image command) rm [-f] (container)'; return true if it was removed. */
+	public static boolean removeContainer(IDCContext context, String container, boolean force, boolean showOutput)
+			throws IOException, InterruptedException {
+		context.getEnvironment().invalidateContainers();
+		DockerClient client = DockerClient.get(context);
+		if (client != null) {
+			try {
+				return checkResponse(client.removeContainer(container, force), "Failed to remove the container " + container);
+			} catch (IOException e) {
+				logApiFailure(e);
+			}
 		}
+		Cmd cmd = force ? Cmd.of(context.getImageCommand(), "rm", "-f", container) : Cmd.of(context.getImageCommand(), "rm", container);
+		return checkErrorCode(TaskUtils.runCmd(cmd, context, showOutput), "Failed to remove the container " + container);
+	}
 
+	/** Remove the given image, as '(image command) rmi [-f] (image)'; return true if it was removed. */
+	public static boolean removeImage(IDCContext context, String image, boolean force, boolean showOutput)
+			throws IOException, InterruptedException {
+		context.getEnvironment().invalidateImages();
+		DockerClient client = DockerClient.get(context);
+		if (client != null) {
+			try {
+				return checkResponse(client.removeImage(image, force), "Failed to remove the image " + image);
+			} catch (IOException e) {
+				logApiFailure(e);
+			}
+		}
+		Cmd cmd = force ? Cmd.of(context.getImageCommand(), "rmi", "-f", image) : Cmd.of(context.getImageCommand(), "rmi", image);
+		return checkErrorCode(TaskUtils.runCmd(cmd, context, showOutput), "Failed to remove the image " + image);
+	}
+
+	/** Stop the given container, as '(image command) stop (container)'; return true if it is stopped. */
+	public static boolean stopContainer(IDCContext context, String container) throws IOException, InterruptedException {
+		context.getEnvironment().invalidateContainers();
+		DockerClient client = DockerClient.get(context);
+		if (client != null) {
+			try {
+				DockerClient.Response response = client.stopContainer(container);
+				// 304: already stopped
+				return response.getStatus() == 304 || checkResponse(response, "Failed to stop the container " + container);
+			} catch (IOException e) {
+				logApiFailure(e);
+			}
+		}
+		return checkErrorCode(TaskUtils.runCmd(Cmd.of(context.getImageCommand(), "stop", container), context, false),
+				"Failed to stop the container " + container);
+	}
+
+	private static boolean checkResponse(DockerClient.Response response, String message) {
+		if (!response.isSuccessful()) {
+			Logger.error(message + ": " + response.getMessage());
+			return false;
+		}
+		return true;
+	}
+
+	private static boolean checkErrorCode(ProcessRunner pr, String message) {
+		if (pr.getErrorCode().orElse(0) != 0) {
+			Logger.error("Error code: " + pr.getErrorCode() + ", " + message);
+			return false;
+		}
+		return true;
+	}
+
+	private static void logApiFailure(IOException e) {
+		Logger.info("Unable to use the Docker Engine API, running the docker command instead: " + e.getMessage());
+	}
+
+	private static List<String> lines(String output) {
+		List<String> result = new ArrayList<>();
+		for (String str : output.split("\\r?\\n")) {
+			if (!str.isEmpty()) {
+				result.add(str);
+			}
+		}
 		return result;
 	}
 
 	// 	
-	// Checks a given Dockerfile for COPY commands and tries to resolve them for an application's source and build output	
+	// Checks a given Dockerfile for COPY commands and tries to resolve them for an application's build output	
 	//	
-	public static void handleDockerfileCopyCommands(File applicationDir, File containerBuildContextDir) throws IOException {	
-		File mergedDockerfile = new File(containerBuildContextDir, "Dockerfile-idc");
+	public static void handleDockerfileCopyCommands(File mergedDockerfile, StagingDirectory staging) throws IOException {	
+		for (String param : getDockerfileCopySources(mergedDockerfile)) {
+			/* 	
+			 * target:	
+			 * If the COPY command's src location is from the app's target then just create the directory structure because the	
+			 * development container will run the build that will populate the locations with the expected files.	
+			 *	
+			 * src:	
+			 * The app's src is staged along with the rest of the application directory.	
+		 	 */ 	
+			if (param.startsWith("target")) {
+				staging.mkdirs(param);
+			}
+		}
+	}
+
+	/**
+	 * Return the source locations of the COPY commands of the given Dockerfile, relative to the build context (that is,
+	 * without any leading '/').
+	 */
+	public static List<String> getDockerfileCopySources(File dockerfile) throws IOException {
+		List<String> result = new ArrayList<>();
 		InputStreamReader fin = null;
 		BufferedReader bin = null;
 		try {	
-			fin = new InputStreamReader(new FileInputStream(mergedDockerfile));
+			fin = new InputStreamReader(new FileInputStream(dockerfile));
 			bin = new BufferedReader(fin);
 	
-			String str = bin.readLine();
-			if (str == null)
-				return;
-			
-			do {
+			String str;
+			while ((str = bin.readLine()) != null) {
 				/*	
 				 * Example Dockerfile commands:	
 				 * COPY /target/liberty/wlp/usr/servers/defaultServer /config/	
@@ -99,51 +252,15 @@ public class DockerUtils {
 					 */	
 					for (int i=0; i< params.length -1; i++) {
 						// Each 'param' corresponds to a src location
-						String param = params[i].startsWith("/") ? params[i].substring(1) : params[i];
-							
-						/* 	
-						 * target:	
-						 * If the COPY command's src location is from the app's target then just create the directory structure because the	
-						 * development container will run the build that will populate the locations with the expected files.	
-						 *	
-						 * src:	
-						 * If the command's src location is from the app's src then copy the file/directory to the container build context location.	
-					 	 */ 	
-						if (param.startsWith("target")) {
-								
-							// Handle application build output folders	
-							File f = new File(containerBuildContextDir, param);
-							f.mkdirs();
-								
-						} else if (param.startsWith("src")) {
-								
-							// Handle application source files/folders	
-							File appFile = new File(applicationDir, param);
-							if (!appFile.exists())
-								continue;	
-								
-							if (appFile.isFile()) {
-								// file	
-								File buildFile = new File(containerBuildContextDir, param);
-								Logger.info("Copying file from " + appFile.getAbsolutePath() + " to " + buildFile.getAbsolutePath());
-								buildFile.getParentFile().mkdirs();
-								IDCUtils.copyFile(appFile.getAbsolutePath(), buildFile.getAbsolutePath());
-	
-							} else if (appFile.isDirectory()) {
-								// folder
-								File buildFolder = new File(containerBuildContextDir, param);
-								buildFolder.mkdirs();
-								IDCUtils.copyDir(appFile.getAbsolutePath(), buildFolder.getAbsolutePath());
-							}
-						}
+						result.add(params[i].startsWith("/") ? params[i].substring(1) : params[i]);
 					}
 				}
-			} while ((str = bin.readLine()) != null);
+			}
 	
 		} catch (FileNotFoundException e1) {
-			throw new IOException(mergedDockerfile + " does not exist");
+			throw new IOException(dockerfile + " does not exist");
 		} catch (IOException e2) {
-			throw new IOException("Error reading/writing file: " + mergedDockerfile, e2);
+			throw new IOException("Error reading file: " + dockerfile, e2);
 		} finally {
 			try {
 				if (bin != null)
@@ -152,22 +269,36 @@ public class DockerUtils {
 				// ignore	
 			}
 		}
-		return;
+		return result;
 	}
 
 	/** Look at the master docker files the users has in their app dir (if those master docker files exist), and 
-	 * return an SHA1 hash of their contents (or null if any master files are not found) */
+	 * return a hash of their contents (or null if any master files are not found) */
 	public static String calculateHashOfAppDirMasterDockerFiles(IDCContext context) throws IOException {
-		String hash = null;
+		return ProjectWatcher.getHash(context.getAppDirectory(), ProjectWatcher.Category.DOCKERFILE,
+				ContentHasher.getConfigured().getName(), () -> {
+					FingerprintCache fingerprints = FingerprintCache.forDb(context.getAppDb());
+					String hash = IDCUtils.calculateHashOfOrderedFileContents(getAppDirMasterDockerFiles(context), fingerprints);
+					fingerprints.save();
+					return hash;
+				});
+	}
 
+	/** If the master docker file hash in the app db was calculated by a different content hasher than the given hash,
+	 * and still matches the master docker files, replace it with the given hash. */
+	public static void migrateMasterDockerFileHash(IDCContext context, String hash) throws IOException {
+		FingerprintCache fingerprints = FingerprintCache.forDb(context.getAppDb());
+		IDCUtils.migrateStoredHash(context.getAppDb(), Constants.DB_MASTER_DOCKER_FILE_HASH, hash,
+				getAppDirMasterDockerFiles(context), fingerprints);
+		fingerprints.save();
+	}
+
+	private static File[] getAppDirMasterDockerFiles(IDCContext context) {
 		List<File> userAppDockerFiles = new LinkedList<File>();
 		for (String dockerfile : DockerfileMapping.getDockerfileComposition(context)) {
 			userAppDockerFiles.add(new File(context.getAppDirectory(), dockerfile));
 		}
-
-		hash = IDCUtils
-				.calculateHashOfOrderedFileContents(userAppDockerFiles.toArray(new File[userAppDockerFiles.size()]));
-		return hash;
+		return userAppDockerFiles.toArray(new File[userAppDockerFiles.size()]);
 	}
 
 	public static boolean generateDockerfile(File dockerFileDestDir, IDCContext context) {
@@ -201,11 +332,38 @@ public class DockerUtils {
 		return mergedDockerfile.exists();
 	}
 
-	public static boolean handleDockerImageBuildSetup(File applicationDir, File mergedDockerfileDir) throws IOException {	
+	/**
+	 * Stage the build context of the application image in the application docker base directory: the generated
+	 * Dockerfile-idc, the IDC artifacts, the application directory, and the build output directories that the
+	 * Dockerfile copies. Only the files that have changed since the last build are copied (see StagingDirectory). The
+	 * files of the application are copied, as a hard link would share them with the staging directory, unless
+	 * 'stageWithHardLinks' is true in idc.config. The artifacts are linked to the content store of the .idc directory,
+	 * which all the applications share (see ContentStore); its files are copies that are never written to.
+	 */
+	public static boolean handleDockerImageBuildSetup(IDCContext context) {	
 		try {	
-			handleDockerfileCopyCommands(applicationDir, mergedDockerfileDir);	
+			FingerprintCache fingerprints = FingerprintCache.forDb(context.getAppDb());
+			ContentHasher hasher = ContentHasher.getConfigured();
+			StagingDirectory staging = new StagingDirectory(context.getAppDockerBase(), fingerprints, hasher);
+			staging.setHardLinks(Boolean.parseBoolean(context.getIDCConfiguration()
+					.getProperty(Constants.STAGE_WITH_HARD_LINKS_PROPERTY_KEY, "false").trim()));
+			// The artifacts are the same for every application, so they are shared through the content store
+			ContentStore store = ContentStore.forContext(context, hasher);
+			File mergedDockerfile = new File(context.getAppDockerBase(), "Dockerfile-idc");
+			staging.keep(mergedDockerfile.getName());
+			staging.stage(context.getArtifactsDirectory(), context.getArtifactsDirectory().getName(), store);
+			// As with the 'cp -rf' of earlier versions, files of the application replace any files of the same name
+			staging.stage(context.getAppDirectory(), "");
+			handleDockerfileCopyCommands(mergedDockerfile, staging);
+			staging.prune();
+			fingerprints.save();
+			Logger.info(staging.getSummary());
+			if (store != null) {
+				store.collectGarbageIfDue();
+			}
 		} catch(Exception e) {	
 			Logger.error("Could not set up Dockerfile build context", e);	
+			return false;
 		}	
 		return true;	
 	}
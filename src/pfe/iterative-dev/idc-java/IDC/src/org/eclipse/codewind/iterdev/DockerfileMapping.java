@@ -79,7 +79,7 @@ public class DockerfileMapping {
 		if (missingDockerfileCounter > 0) {
 			// send the exit code of the build
 			Logger.info("Exiting out of docker file composition with exit code 1");
-            System.exit(1);
+			throw new IllegalStateException("Unable to create Dockerfile for development, a required Dockerfile is missing");
 		}
 		
 		return dockerfileComposition;
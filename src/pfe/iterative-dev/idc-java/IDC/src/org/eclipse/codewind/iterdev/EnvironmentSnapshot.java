@@ -0,0 +1,224 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.iterdev;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The state of the container environment of an application, as seen by one IDC command: whether the application
+ * image exists, which containers are running (Docker), and the status of each pod and the deployments (Kubernetes).
+ *
+ * Each piece of state is looked up at most once per command: prefetch() starts looking it all up concurrently, and
+ * each getter waits for (or starts) the lookup of its piece. Lookups are made in the Inventory, which is shared with
+ * the other IDC processes, and only fetch the state from the environment if the inventory does not hold it. The state
+ * is kept until IDC itself changes it; the operations that remove or create images, containers and releases call
+ * invalidateImages() or invalidateContainers(), so that the next getter fetches the state again.
+ */
+public class EnvironmentSnapshot {
+
+	private static final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+		Thread t = new Thread(r, "IDC environment probe");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private final IDCContext context;
+
+	private CompletableFuture<Boolean> imagePresent = null;
+
+	private CompletableFuture<List<String>> runningContainerIds = null;
+
+	private CompletableFuture<Map<String, String>> podStatuses = null;
+
+	private CompletableFuture<List<String>> deploymentNames = null;
+
+	/** Opened on first use; null if it could not be opened, in which case the state is always fetched */
+	private Inventory inventory = null;
+
+	private boolean inventoryOpened = false;
+
+	EnvironmentSnapshot(IDCContext context) {
+		this.context = context;
+	}
+
+	/** Start fetching the state of the environment of the application, without waiting for it. */
+	public synchronized void prefetch() {
+		imagePresentFuture();
+		if (context.isK8s()) {
+			podStatusesFuture();
+		} else {
+			runningContainerIdsFuture();
+		}
+	}
+
+	/** Return true if the image of the application exists. */
+	public boolean isImagePresent() throws IOException, InterruptedException {
+		return get(imagePresentFuture());
+	}
+
+	/** Return the ids of the running containers (Docker only). */
+	public List<String> getRunningContainerIds() throws IOException, InterruptedException {
+		return get(runningContainerIdsFuture());
+	}
+
+	/** Return the status of the given pod, as shown by 'kubectl get po' (for example, Running or Terminating), or null if there is no such pod. */
+	public String getPodStatus(String pod) throws IOException, InterruptedException {
+		return get(podStatusesFuture()).get(pod);
+	}
+
+	/** Return the names of the deployments (Kubernetes only). */
+	public List<String> getDeploymentNames() throws IOException, InterruptedException {
+		return get(deploymentNamesFuture());
+	}
+
+	/** Called after IDC has built or removed an image. */
+	public synchronized void invalidateImages() {
+		imagePresent = null;
+		Inventory inv = inventory();
+		if (inv != null) {
+			inv.invalidate(Inventory.Kind.IMAGE);
+		}
+	}
+
+	/** Called after IDC has started, stopped or removed a container, pod or release. */
+	public synchronized void invalidateContainers() {
+		runningContainerIds = null;
+		podStatuses = null;
+		deploymentNames = null;
+		Inventory inv = inventory();
+		if (inv != null) {
+			inv.invalidate(Inventory.Kind.CONTAINERS, Inventory.Kind.PODS, Inventory.Kind.DEPLOYMENTS);
+		}
+	}
+
+	private synchronized CompletableFuture<Boolean> imagePresentFuture() {
+		if (imagePresent == null) {
+			String image = context.getImageName();
+			imagePresent = supply(() -> Boolean.parseBoolean(lookUp(Inventory.Kind.IMAGE, image,
+					() -> String.valueOf(DockerUtils.isImagePresent(context, image)))));
+		}
+		return imagePresent;
+	}
+
+	private synchronized CompletableFuture<List<String>> runningContainerIdsFuture() {
+		if (runningContainerIds == null) {
+			runningContainerIds = supply(() -> split(lookUp(Inventory.Kind.CONTAINERS, "running",
+					() -> String.join(" ", DockerUtils.listContainerIds(context)))));
+		}
+		return runningContainerIds;
+	}
+
+	private synchronized CompletableFuture<Map<String, String>> podStatusesFuture() {
+		if (podStatuses == null) {
+			podStatuses = supply(() -> {
+				// Held in the inventory as 'name=status name=status ...'
+				String value = lookUp(Inventory.Kind.PODS, "all", () -> {
+					List<String> pods = new ArrayList<>();
+					for (String line : KubeUtils.kubectlPs(context)) {
+						// NAME READY STATUS RESTARTS AGE
+						List<String> fields = IDCUtils.splitFieldsByMultipleSpaces(line.trim());
+						if (fields.size() >= 3 && !line.startsWith("NAME ")) {
+							pods.add(fields.get(0) + "=" + fields.get(2));
+						}
+					}
+					return String.join(" ", pods);
+				});
+				Map<String, String> statuses = new HashMap<>();
+				for (String pod : split(value)) {
+					int equals = pod.indexOf('=');
+					if (equals > 0) {
+						statuses.put(pod.substring(0, equals), pod.substring(equals + 1));
+					}
+				}
+				return Collections.unmodifiableMap(statuses);
+			});
+		}
+		return podStatuses;
+	}
+
+	private synchronized CompletableFuture<List<String>> deploymentNamesFuture() {
+		if (deploymentNames == null) {
+			deploymentNames = supply(() -> split(lookUp(Inventory.Kind.DEPLOYMENTS, "all",
+					() -> String.join(" ", KubeUtils.listDeploymentNames(context)))));
+		}
+		return deploymentNames;
+	}
+
+	private String lookUp(Inventory.Kind kind, String name, Inventory.Fetch fetch) throws IOException, InterruptedException {
+		Inventory inv = inventory();
+		return inv != null ? inv.get(kind, name, fetch) : fetch.fetch();
+	}
+
+	private synchronized Inventory inventory() {
+		if (!inventoryOpened) {
+			inventoryOpened = true;
+			try {
+				inventory = Inventory.open(context);
+			} catch (IOException | RuntimeException e) {
+				// The inventory is only an optimization, the state is fetched every time instead
+				Logger.error("Unable to open the inventory in " + context.getIDCBase().getPath(), e);
+			}
+		}
+		return inventory;
+	}
+
+	private static List<String> split(String value) {
+		List<String> result = new ArrayList<>();
+		for (String s : value.split(" ")) {
+			if (!s.isEmpty()) {
+				result.add(s);
+			}
+		}
+		return Collections.unmodifiableList(result);
+	}
+
+	private interface Probe<T> {
+		T get() throws Exception;
+	}
+
+	private static <T> CompletableFuture<T> supply(Probe<T> probe) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		executor.execute(() -> {
+			try {
+				future.complete(probe.get());
+			} catch (Throwable t) {
+				future.completeExceptionally(t);
+			}
+		});
+		return future;
+	}
+
+	private static <T> T get(CompletableFuture<T> future) throws IOException, InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof InterruptedException) {
+				throw (InterruptedException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+}
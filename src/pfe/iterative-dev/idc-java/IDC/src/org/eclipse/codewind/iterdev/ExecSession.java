@@ -0,0 +1,232 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.iterdev;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A shell that is kept running in an application container ('docker exec -i (container) /bin/sh', or the kubectl
+ * equivalent), to run the IDC scripts in the container without starting a new exec for each one.
+ *
+ * Commands are written to the stdin of the shell one at a time, with their stdin redirected from /dev/null and their
+ * stderr merged into stdout. Each command is followed by a line with a marker (unique to the session) and the exit
+ * code of the command, which marks the end of its output.
+ *
+ * Sessions are kept per container, for as long as the container (and the IDC process) is running. They are not used
+ * if a root password is set (as the exec would need to be run with sudo), or if 'containerExecSession' is set to
+ * false in idc.config; see TaskUtils.runInContainer(...).
+ *
+ * A command that does not complete within its timeout ends the session (killing the exec client and its
+ * descendants), since the shell can't be used again until the command has completed.
+ */
+public class ExecSession {
+
+	private static final Map<String, ExecSession> sessions = new ConcurrentHashMap<>();
+
+	private static final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "IDC exec session watchdog");
+		t.setDaemon(true);
+		return t;
+	});
+
+	/** The exit code of a command that did not complete within its timeout, as reported by the timeout command */
+	public static final int TIMED_OUT = 124;
+
+	private final String name;
+
+	private final Process process;
+
+	private final BufferedReader reader;
+
+	private final Writer writer;
+
+	private final String marker = "IDC-EXEC-" + UUID.randomUUID().toString();
+
+	private volatile boolean timedOut = false;
+
+	/** The amount of output written by the current command, for its metrics */
+	private long outputBytes;
+
+	private long outputLines;
+
+	private ExecSession(String name, Process process) {
+		this.name = name;
+		this.process = process;
+		this.reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+		this.writer = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8);
+	}
+
+	/** Return true if commands in the container of the given context may be run in a session. */
+	public static boolean isEnabled(IDCContext context) {
+		return !context.getRootPassword().isPresent() && Boolean.parseBoolean(
+				context.getIDCConfiguration().getProperty(Constants.EXEC_SESSION_PROPERTY_KEY, "true").trim());
+	}
+
+	/** Return the session for the container of the given context, starting it if needed, or null if it can't be started. */
+	public static ExecSession get(IDCContext context) {
+		Cmd shell = context.getContainerExecCmd(true).args("/bin/sh");
+		String name = shell.toString();
+
+		synchronized (sessions) {
+			ExecSession session = sessions.get(name);
+			if (session != null && session.process.isAlive()) {
+				return session;
+			}
+
+			session = start(shell);
+			if (session == null) {
+				return null;
+			}
+
+			sessions.put(name, session);
+			return session;
+		}
+	}
+
+	/** Start a session that runs commands with the given shell, or return null if the shell can't be started. */
+	public static ExecSession start(Cmd shell) {
+		try {
+			ProcessBuilder pb = new ProcessBuilder(shell.toArgv());
+			pb.redirectErrorStream(true);
+			ExecSession session = new ExecSession(shell.toString(), pb.start());
+
+			// Check that the shell is running (for example, that the container exists)
+			ProcessResult result = session.run(Cmd.of("true").named("exec session start"), null, false);
+			if (result == null || result.getErrorCode() != 0) {
+				session.close();
+				return null;
+			}
+			return session;
+		} catch (IOException e) {
+			Logger.info("Unable to start an exec session: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Run the given command in the container, and return its result, or null if the session has ended, in which
+	 * case the command was not run.
+	 */
+	public ProcessResult run(Cmd cmd, OutputCapture capture, boolean showOutput) throws IOException {
+		return run(cmd, capture, showOutput, 0);
+	}
+
+	/**
+	 * Run the given command in the container as run(...), ending the session if the command does not complete
+	 * within the given time (0 for no timeout), in which case the result has the exit code TIMED_OUT.
+	 */
+	public synchronized ProcessResult run(Cmd cmd, OutputCapture capture, boolean showOutput, long timeoutMillis)
+			throws IOException {
+		if (!process.isAlive()) {
+			close();
+			return null;
+		}
+
+		long startTime = System.nanoTime();
+		try {
+			writer.write(cmd.toString() + " </dev/null 2>&1; printf '\\n" + marker + " %d\\n' $?\n");
+			writer.flush();
+		} catch (IOException e) {
+			close();
+			return null;
+		}
+
+		long spawnTime = System.nanoTime() - startTime;
+
+		if (capture == null) {
+			capture = new OutputCapture();
+		}
+		outputBytes = 0;
+		outputLines = 0;
+
+		// The watchdog does not synchronize on the session, which is held until the command completes
+		timedOut = false;
+		ScheduledFuture<?> deadline = timeoutMillis <= 0 ? null : watchdog.schedule(IDCDaemon.withCurrentTarget(() -> {
+			timedOut = true;
+			Logger.error("Ending the exec session " + name + ", as the command did not complete within "
+					+ timeoutMillis + " ms: " + cmd);
+			ProcessTree.kill(process);
+		}), timeoutMillis, TimeUnit.MILLISECONDS);
+
+		ProcessResult result = null;
+		try {
+			result = readResult(cmd, capture, showOutput);
+			return result;
+		} catch (IOException e) {
+			if (timedOut) {
+				result = new ProcessResult(TIMED_OUT, capture);
+				return result;
+			}
+			throw e;
+		} finally {
+			if (deadline != null) {
+				deadline.cancel(false);
+			}
+			Metrics.record(cmd.getOperation(), spawnTime, System.nanoTime() - startTime,
+					result != null ? result.getErrorCode() : -1, outputBytes, outputLines);
+		}
+	}
+
+	private ProcessResult readResult(Cmd cmd, OutputCapture capture, boolean showOutput) throws IOException {
+		// The output is followed by a line break and the marker line; hold each line back until the next one is read,
+		// so that the added line break can be removed
+		String pending = null;
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (line.startsWith(marker + " ")) {
+				if (pending != null && !pending.isEmpty()) {
+					output(pending, capture, showOutput);
+				}
+				return new ProcessResult(Integer.parseInt(line.substring(marker.length() + 1).trim()), capture);
+			}
+			if (pending != null) {
+				output(pending, capture, showOutput);
+			}
+			pending = line;
+		}
+
+		close();
+		throw new IOException("The exec session " + name + " ended while running: " + cmd);
+	}
+
+	private void output(String line, OutputCapture capture, boolean showOutput) {
+		outputBytes += line.getBytes(StandardCharsets.UTF_8).length + 1;
+		outputLines++;
+		if (showOutput) {
+			System.out.println(line);
+		}
+		capture.append(line);
+	}
+
+	/** End the session. */
+	public synchronized void close() {
+		sessions.remove(name, this);
+		try {
+			writer.close();
+		} catch (IOException e) {
+			/* ignore */
+		}
+		process.destroy();
+	}
+}
@@ -0,0 +1,250 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.iterdev;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copies files and directory trees. The contents of each file are transferred by the kernel (FileChannel.transferTo,
+ * which uses sendfile, or copy_file_range on recent JDKs) rather than through a buffer in the JVM, the directories and
+ * files of a tree are copied in parallel, and the permissions and modification time of each are kept.
+ *
+ * If hard links are enabled, a file is linked to its source instead of being copied wherever the file system allows
+ * it (the source and target are on the same file system). A linked file shares its contents with its source, so hard
+ * links should only be used for copies that are never written to, such as the staged build context of an image.
+ */
+public class FileCopier {
+
+	/** Copies are mostly waiting on the disk, so the pool has at least a few threads even on a single processor */
+	private static final ForkJoinPool pool = new ForkJoinPool(Math.max(4, Runtime.getRuntime().availableProcessors()));
+
+	private volatile boolean hardLinks = false;
+
+	private final AtomicLong filesCopied = new AtomicLong();
+
+	private final AtomicLong filesLinked = new AtomicLong();
+
+	private final AtomicLong bytesCopied = new AtomicLong();
+
+	/** Link files to their sources rather than copying them, if possible. */
+	public void setHardLinks(boolean hardLinks) {
+		this.hardLinks = hardLinks;
+	}
+
+	/** Copy (or link) the given file, replacing the target if it exists. */
+	public void copyFile(Path source, Path target) throws IOException {
+		copy(source, Files.readAttributes(source, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS), target);
+	}
+
+	/** Copy (or link) each of the given files (target to source), in parallel, replacing the targets that exist. */
+	public void copyFiles(Map<Path, Path> sourcesByTarget) throws IOException {
+		List<RecursiveAction> tasks = new ArrayList<>();
+		for (Map.Entry<Path, Path> e : sourcesByTarget.entrySet()) {
+			tasks.add(new CopyFile(e.getValue(), e.getKey()));
+		}
+		invoke(tasks);
+	}
+
+	/**
+	 * Copy the given directory tree into the target directory, which is created if necessary, replacing any files of
+	 * the same name that are already there (like 'cp -r source/. target').
+	 */
+	public void copyTree(Path source, Path target) throws IOException {
+		List<RecursiveAction> tasks = new ArrayList<>();
+		tasks.add(new CopyDirectory(source, target));
+		invoke(tasks);
+	}
+
+	/** The files that were copied (including those linked) */
+	public long getFilesCopied() {
+		return filesCopied.get();
+	}
+
+	/** The files that were linked rather than copied */
+	public long getFilesLinked() {
+		return filesLinked.get();
+	}
+
+	/** The bytes of the files that were copied (including those linked) */
+	public long getBytesCopied() {
+		return bytesCopied.get();
+	}
+
+	private void copy(Path source, BasicFileAttributes attrs, Path target) throws IOException {
+		if (attrs.isSymbolicLink()) {
+			Files.deleteIfExists(target);
+			Files.createSymbolicLink(target, Files.readSymbolicLink(source));
+			filesCopied.incrementAndGet();
+			return;
+		}
+		if (!attrs.isRegularFile()) {
+			// Devices, pipes and sockets are not copied
+			return;
+		}
+
+		// The target is replaced rather than written to, as it may be a link to another file
+		Files.deleteIfExists(target);
+
+		if (hardLinks) {
+			try {
+				Files.createLink(target, source);
+				filesLinked.incrementAndGet();
+				filesCopied.incrementAndGet();
+				bytesCopied.addAndGet(attrs.size());
+				return;
+			} catch (UnsupportedOperationException e) {
+				// A file system without hard links, so copy the rest
+				hardLinks = false;
+			} catch (IOException e) {
+				if (isCrossDevice(e)) {
+					// The source and target are on different file systems, so copy the rest
+					hardLinks = false;
+				}
+				// Otherwise only this file is copied (for example, it has the most links the file system allows)
+			}
+		}
+
+		try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+				FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+			long size = in.size();
+			long position = 0;
+			while (position < size) {
+				long transferred = in.transferTo(position, size - position, out);
+				if (transferred <= 0) {
+					// The file was truncated while it was copied
+					break;
+				}
+				position += transferred;
+			}
+			bytesCopied.addAndGet(position);
+		}
+		copyAttributes(source, attrs, target);
+		filesCopied.incrementAndGet();
+	}
+
+	/** Return true if the given exception is for a link between file systems (EXDEV). */
+	private static boolean isCrossDevice(IOException e) {
+		if (!(e instanceof FileSystemException)) {
+			return false;
+		}
+		String reason = ((FileSystemException) e).getReason();
+		return reason != null && reason.toLowerCase(Locale.ROOT).contains("cross-device");
+	}
+
+	private static void copyAttributes(Path source, BasicFileAttributes attrs, Path target) throws IOException {
+		PosixFileAttributeView view = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+		if (view != null) {
+			view.setPermissions(Files.getPosixFilePermissions(source));
+		} else {
+			target.toFile().setExecutable(source.toFile().canExecute());
+		}
+		Files.setLastModifiedTime(target, attrs.lastModifiedTime());
+	}
+
+	private static void invoke(List<RecursiveAction> tasks) throws IOException {
+		try {
+			pool.invoke(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					invokeAll(tasks);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	private class CopyFile extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Path source;
+
+		private final Path target;
+
+		CopyFile(Path source, Path target) {
+			this.source = source;
+			this.target = target;
+		}
+
+		@Override
+		protected void compute() {
+			try {
+				copyFile(source, target);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	private class CopyDirectory extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Path source;
+
+		private final Path target;
+
+		CopyDirectory(Path source, Path target) {
+			this.source = source;
+			this.target = target;
+		}
+
+		@Override
+		protected void compute() {
+			try {
+				BasicFileAttributes attrs = Files.readAttributes(source, BasicFileAttributes.class);
+				if (Files.isSymbolicLink(target) || (Files.exists(target) && !Files.isDirectory(target))) {
+					Files.delete(target);
+				}
+				Files.createDirectories(target);
+
+				List<RecursiveAction> tasks = new ArrayList<>();
+				try (DirectoryStream<Path> entries = Files.newDirectoryStream(source)) {
+					for (Path entry : entries) {
+						Path t = target.resolve(entry.getFileName().toString());
+						if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+							tasks.add(new CopyDirectory(entry, t));
+						} else {
+							tasks.add(new CopyFile(entry, t));
+						}
+					}
+				}
+				invokeAll(tasks);
+
+				// Once the directory is complete, so that adding its entries does not change its modification time
+				copyAttributes(source, attrs, target);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+}
@@ -31,18 +31,20 @@ public class FileMonitor {
 			return null;
 		}
 		
-		String configUpdateHash = appDb.get(CONFIGUPDATE_HASH);
-
 		File configDir = new File(appPath + File.separator + DELTA_CONFIG_UPDATE);
-		File[] fileLst = configDir.listFiles(new FilenameFilter() {
-			@Override
-			public boolean accept(File dir, String name) {
-				return name.endsWith(".xml");
-			}
-		});
 
 		try {
-			String curConfigUpdateHash = IDCUtils.calculateHashOfOrderedFileContents(fileLst);
+			String curConfigUpdateHash = ProjectWatcher.getHash(new File(appPath), ProjectWatcher.Category.CONFIG,
+					ContentHasher.getConfigured().getName(), () -> {
+						File[] fileLst = configDir.listFiles(new FilenameFilter() {
+							@Override
+							public boolean accept(File dir, String name) {
+								return name.endsWith(".xml");
+							}
+						});
+						return calculateHash(appDb, CONFIGUPDATE_HASH, fileLst);
+					});
+			String configUpdateHash = appDb.get(CONFIGUPDATE_HASH);
 			// If no existing hash is available, a config update is required to force appDb contains last config update change info.
 			return (configUpdateHash != null && configUpdateHash.equals(curConfigUpdateHash)) ? null : curConfigUpdateHash;
 		} catch (IOException e) {
@@ -60,10 +62,11 @@ public class FileMonitor {
 			return null;
 		}
 		
-		String pomUpdateHashInDbCache = appDb.get(POMCHANGE_HASH);
-		File pomFile = new File(appPath + File.separator + DELTA_POM_UPDATE);
+		File[] pomFiles = new File[] { new File(appPath + File.separator + DELTA_POM_UPDATE) };
 		try {
-			String curConfigUpdateHash = IDCUtils.calculateHashOfOrderedFileContents(new File[] { pomFile });
+			String curConfigUpdateHash = ProjectWatcher.getHash(new File(appPath), ProjectWatcher.Category.POM,
+					ContentHasher.getConfigured().getName(), () -> calculateHash(appDb, POMCHANGE_HASH, pomFiles));
+			String pomUpdateHashInDbCache = appDb.get(POMCHANGE_HASH);
 			// If no existing hash is available, a fresh build is required to force appDb contains last pom change info.
 			return (pomUpdateHashInDbCache != null && pomUpdateHashInDbCache.equals(curConfigUpdateHash)) ? null : curConfigUpdateHash;
 		} catch (IOException e) {
@@ -73,4 +76,14 @@ public class FileMonitor {
 	}
 
 	
+	/** Calculate the hash of the given files, and upgrade the hash stored under the given key if it was calculated 
+	 * by a different content hasher. */
+	private static String calculateHash(DBMap appDb, String key, File[] files) throws IOException {
+		FingerprintCache fingerprints = FingerprintCache.forDb(appDb);
+		String hash = IDCUtils.calculateHashOfOrderedFileContents(files, fingerprints);
+		IDCUtils.migrateStoredHash(appDb, key, hash, files, fingerprints);
+		fingerprints.save();
+		return hash;
+	}
+
 }
@@ -0,0 +1,208 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.iterdev;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Remembers the content hash of files, along with their size, modification time and file key (inode), so that a
+ * file's contents are only read and hashed again once one of those has changed.
+ *
+ * The cache of an application is stored alongside its db, in 'db-(appid).fp', one line per file and algorithm:
+ * 'algorithm size mtime filekey hash path'. Files modified within the last few seconds are not cached: their
+ * modification time may not change if they are written again within the file system's timestamp granularity
+ * (the same 'racy' case that git guards against in its index).
+ */
+public class FingerprintCache {
+
+	public static final String EXTENSION = "fp";
+
+	/** Files modified this recently are always hashed, and not cached */
+	private static final long RACY_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+	private final File file;
+
+	private final Map<String, Entry> entries = new HashMap<>();
+
+	private boolean changed = false;
+
+	private FingerprintCache(File file) {
+		this.file = file;
+	}
+
+	/** Load the fingerprint cache of the given application db; a missing or unreadable cache is treated as empty. */
+	public static FingerprintCache forDb(DBMap appDb) {
+		FingerprintCache result = new FingerprintCache(appDb.getSidecarFile(EXTENSION));
+		if (result.file.exists()) {
+			try {
+				result.load();
+			} catch (IOException | RuntimeException e) {
+				Logger.error("Ignoring unreadable fingerprint cache " + result.file.getPath());
+				result.entries.clear();
+			}
+		}
+		return result;
+	}
+
+	/** Return the hash (hex) of the contents of the given file, reading the file only if it has changed. */
+	public String getHash(File f, ContentHasher hasher) throws IOException {
+		return getHashes(Collections.singletonList(f), hasher).get(f);
+	}
+
+	/**
+	 * Return the hash (hex) of the contents of each of the given files. Only the files that have changed are read, 
+	 * and they are read in parallel.
+	 */
+	public Map<File, String> getHashes(List<File> files, ContentHasher hasher) throws IOException {
+		String algorithm = hasher.getName();
+		Map<File, String> result = new HashMap<>();
+		List<Entry> misses = new ArrayList<>();
+
+		for (File f : files) {
+			Entry before = Entry.of(f, algorithm, null);
+			Entry cached = entries.get(algorithm + ":" + f.getAbsolutePath());
+			if (before != null && before.sameFile(cached)) {
+				result.put(f, cached.hash);
+			} else {
+				misses.add(before != null ? before : new Entry(f, algorithm, -1, -1, null, null));
+			}
+		}
+
+		List<Entry> hashed;
+		try {
+			hashed = misses.parallelStream().map(before -> {
+				try {
+					String hash = hasher.hashFile(before.file);
+					Entry after = Entry.of(before.file, algorithm, hash);
+					// Only cache the hash if the file did not change while it was read
+					return after != null && after.sameFile(before) && !after.isRacy() ? after
+							: new Entry(before.file, algorithm, -1, -1, null, hash);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}).collect(Collectors.toList());
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+
+		for (Entry e : hashed) {
+			result.put(e.file, e.hash);
+			String key = algorithm + ":" + e.file.getAbsolutePath();
+			if (e.fileKey != null) {
+				entries.put(key, e);
+				changed = true;
+			} else if (entries.remove(key) != null) {
+				changed = true;
+			}
+		}
+
+		return result;
+	}
+
+	/** Write the cache back to disk, if it has changed. */
+	public void save() {
+		if (!changed) {
+			return;
+		}
+
+		File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+		try {
+			if (!file.getParentFile().exists()) {
+				file.getParentFile().mkdirs();
+			}
+
+			try (Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), StandardCharsets.UTF_8))) {
+				for (Entry entry : entries.values()) {
+					w.write(entry.algorithm + " " + entry.size + " " + entry.lastModifiedNanos + " " + entry.fileKey + " "
+							+ entry.hash + " " + entry.file.getAbsolutePath() + "\n");
+				}
+			}
+			Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			changed = false;
+		} catch (IOException e) {
+			// The cache is only an optimization, the hashes are recalculated next time
+			Logger.error("Unable to write fingerprint cache " + file.getPath());
+		}
+	}
+
+	private void load() throws IOException {
+		List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+		for (String line : lines) {
+			// The path is last, as it may contain spaces
+			String[] fields = line.split(" ", 6);
+			if (fields.length != 6) {
+				continue;
+			}
+			entries.put(fields[0] + ":" + fields[5], new Entry(new File(fields[5]), fields[0], Long.parseLong(fields[1]),
+					Long.parseLong(fields[2]), fields[3], fields[4]));
+		}
+	}
+
+	private static class Entry {
+		final File file;
+		final String algorithm;
+		final long size;
+		final long lastModifiedNanos;
+		final String fileKey;
+		final String hash;
+
+		Entry(File file, String algorithm, long size, long lastModifiedNanos, String fileKey, String hash) {
+			this.file = file;
+			this.algorithm = algorithm;
+			this.size = size;
+			this.lastModifiedNanos = lastModifiedNanos;
+			this.fileKey = fileKey;
+			this.hash = hash;
+		}
+
+		/** Return the current stat of the file, or null if it can't be read (for example, it does not exist). */
+		static Entry of(File f, String algorithm, String hash) {
+			try {
+				BasicFileAttributes attrs = Files.readAttributes(f.toPath(), BasicFileAttributes.class);
+				// The file key is only used for comparison, and must not contain the field separator
+				String fileKey = String.valueOf(attrs.fileKey()).replace(' ', '_');
+				return new Entry(f, algorithm, attrs.size(), attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS), fileKey,
+						hash);
+			} catch (IOException e) {
+				return null;
+			}
+		}
+
+		boolean sameFile(Entry other) {
+			return other != null && fileKey != null && algorithm.equals(other.algorithm) && size == other.size
+					&& lastModifiedNanos == other.lastModifiedNanos && Objects.equals(fileKey, other.fileKey);
+		}
+
+		boolean isRacy() {
+			long now = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+			return now - lastModifiedNanos < RACY_INTERVAL_NANOS;
+		}
+	}
+}
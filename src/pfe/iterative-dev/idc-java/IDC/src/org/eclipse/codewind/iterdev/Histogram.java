@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.iterdev;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A histogram of non-negative values, in the style of HdrHistogram: each power of two is divided into 64 buckets, so
+ * that any value is recorded (and reported) with a precision of about 1.5%, however large it is. Only the buckets
+ * that have been used are stored, so an encoded histogram is small enough to be kept in a text file.
+ */
+public class Histogram {
+
+	private static final int SUB_BUCKET_BITS = 7;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+
+	/** The number of values recorded in each bucket, by bucket index */
+	private final TreeMap<Integer, Long> counts = new TreeMap<>();
+
+	private long totalCount = 0;
+
+	private long sum = 0;
+
+	private long max = 0;
+
+	public void record(long value) {
+		value = Math.max(0, value);
+		counts.merge(index(value), 1L, Long::sum);
+		totalCount++;
+		sum += value;
+		max = Math.max(max, value);
+	}
+
+	/** Add the values recorded by the given histogram to this histogram. */
+	public void add(Histogram other) {
+		for (Map.Entry<Integer, Long> e : other.counts.entrySet()) {
+			counts.merge(e.getKey(), e.getValue(), Long::sum);
+		}
+		totalCount += other.totalCount;
+		sum += other.sum;
+		max = Math.max(max, other.max);
+	}
+
+	public long getTotalCount() {
+		return totalCount;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public double getMean() {
+		return totalCount == 0 ? 0 : (double) sum / totalCount;
+	}
+
+	/** Return the value that the given percentage of the recorded values are less than or equal to. */
+	public long getValueAtPercentile(double percentile) {
+		if (totalCount == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+		long seen = 0;
+		for (Map.Entry<Integer, Long> e : counts.entrySet()) {
+			seen += e.getValue();
+			if (seen >= rank) {
+				return Math.min(highestEquivalentValue(e.getKey()), max);
+			}
+		}
+		return max;
+	}
+
+	/** Return the histogram as a single line of text, which can be read by decode(...). */
+	public String encode() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(totalCount).append(' ').append(sum).append(' ').append(max);
+		for (Map.Entry<Integer, Long> e : counts.entrySet()) {
+			sb.append(' ').append(e.getKey()).append(':').append(e.getValue());
+		}
+		return sb.toString();
+	}
+
+	/** Read a histogram encoded by encode(). */
+	public static Histogram decode(String encoded) {
+		String[] fields = encoded.trim().split(" ");
+		if (fields.length < 3) {
+			throw new IllegalArgumentException("Invalid histogram: " + encoded);
+		}
+		Histogram h = new Histogram();
+		h.totalCount = Long.parseLong(fields[0]);
+		h.sum = Long.parseLong(fields[1]);
+		h.max = Long.parseLong(fields[2]);
+		for (int i = 3; i < fields.length; i++) {
+			int colon = fields[i].indexOf(':');
+			h.counts.put(Integer.parseInt(fields[i].substring(0, colon)), Long.parseLong(fields[i].substring(colon + 1)));
+		}
+		return h;
+	}
+
+	static int index(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		// Keep the top SUB_BUCKET_BITS bits of the value
+		int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+		int subBucket = (int) (value >>> shift);
+		return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (subBucket - HALF_SUB_BUCKETS);
+	}
+
+	static long highestEquivalentValue(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+		long subBucket = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
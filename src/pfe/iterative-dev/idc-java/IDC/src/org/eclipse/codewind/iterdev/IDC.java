@@ -13,7 +13,6 @@ package org.eclipse.codewind.iterdev;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.List;
 
 import org.apache.commons.codec.digest.DigestUtils;
 import org.eclipse.codewind.iterdev.Constants.ErrorCode;
@@ -28,38 +27,63 @@ import org.eclipse.codewind.iterdev.tasks.TaskUtils;
 
 public class IDC {
 
-	private static String HOST_OS = System.getProperty(Constants.HOST_OS, "");
-	private static String LOCAL_IDC_OS = System.getProperty(Constants.LOCAL_IDC_OS, "");
-	private static String WIN_IDC_PATH = System.getProperty(Constants.WIN_IDC_PATH, "");
-	private static String CONTAINER_NAME = System.getProperty(Constants.CONTAINER_NAME, null);
-	private static String LOG_NAME = System.getProperty(Constants.LOG_NAME, null);
-	private static String PROJECT_ID = System.getProperty(Constants.PROJECT_ID, null);
-	private static String LOCAL_WORKSPACE_ORIGIN = System.getProperty(Constants.LOCAL_WORKSPACE_ORIGIN, null);
-	private static String DEPLOYMENT_REGISTRY = System.getProperty(Constants.DEPLOYMENT_REGISTRY, null);
-	private static String START_MODE = System.getProperty(Constants.START_MODE, null);
-	private static String DEBUG_PORT = System.getProperty(Constants.DEBUG_PORT, null);
-
 	private static String rootPassword = null;
 
 	public static void main(String[] args) throws IOException, InterruptedException {
 
+		// The daemon stays resident and runs each command it receives through execute(...)
+		if (args.length >= 1 && args[0].equalsIgnoreCase(Constants.OPTION_DAEMON)) {
+			IDCDaemon.run();
+			return;
+		}
+
+		int returnCode = execute(args, new File(System.getProperty("user.dir")));
+		if (returnCode != 0) {
+			System.exit(returnCode);
+		}
+	}
+
+	/**
+	 * Run a single IDC command against the application in the given directory.
+	 * @return the process exit code for the command; this method never calls System.exit(...), so that it may
+	 * also be used by the resident IDC daemon.
+	 */
+	public static int execute(String[] args, File workingDir) {
+
+		String HOST_OS = System.getProperty(Constants.HOST_OS, "");
+		String LOCAL_IDC_OS = System.getProperty(Constants.LOCAL_IDC_OS, "");
+		String WIN_IDC_PATH = System.getProperty(Constants.WIN_IDC_PATH, "");
+		String CONTAINER_NAME = System.getProperty(Constants.CONTAINER_NAME, null);
+		String LOG_NAME = System.getProperty(Constants.LOG_NAME, null);
+		String PROJECT_ID = System.getProperty(Constants.PROJECT_ID, null);
+		String LOCAL_WORKSPACE_ORIGIN = System.getProperty(Constants.LOCAL_WORKSPACE_ORIGIN, null);
+		String DEPLOYMENT_REGISTRY = System.getProperty(Constants.DEPLOYMENT_REGISTRY, null);
+		String START_MODE = System.getProperty(Constants.START_MODE, null);
+		String DEBUG_PORT = System.getProperty(Constants.DEBUG_PORT, null);
+
 		int returnCode = 0;
 
 		try {
 
 			if (args.length < 1 || args[0].equalsIgnoreCase(Constants.OPTION_HELP)) {
 				Logger.printUsage();
-				System.exit(ErrorCode.unexpectedError.ordinal());
+				return ErrorCode.unexpectedError.ordinal();
 			}
 
 			// If the 'appid' param is used, print the sha1 sum of the current dir and exit.
 			// This is a hidden command that is only used by 'docker shell' in idc.sh.
 			if (args.length >= 1 && args[0].equalsIgnoreCase("appid")) {
-				Logger.info(DigestUtils.sha1Hex(System.getProperty("user.dir").getBytes()));
-				return;
+				Logger.info(DigestUtils.sha1Hex(workingDir.getPath().getBytes()));
+				return 0;
 			}
 
 			String cmd = args[0];
+
+			// Print the execution metrics of the external commands run by IDC; does not need an application
+			if (cmd.equalsIgnoreCase(Constants.OPTION_METRICS)) {
+				Metrics.print(Metrics.getMetricsDir(), System.out);
+				return 0;
+			}
 			
 			//Handle set option
 			if (cmd.equalsIgnoreCase(Constants.OPTION_SET)) {
@@ -137,7 +161,7 @@ public class IDC {
 			if (!IDCUtils.isValidCommmand(cmd, Constants.VALID_COMMANDS)) {
 				Logger.error("'idc " + cmd +"' is not a valid command.");
 				Logger.printUsage();
-				return;
+				return 0;
 			}
 
 			// Initialize password if required
@@ -158,7 +182,7 @@ public class IDC {
 			// }
 
 			// Create the application context object -- this object contains (mostly) immutable values which are commonly used to implement command functionality across IDC  
-			IDCContext context = new IDCContext(rootPassword, LOCAL_WORKSPACE_ORIGIN, CONTAINER_NAME, PROJECT_ID, LOG_NAME, DEPLOYMENT_REGISTRY, START_MODE, DEBUG_PORT);
+			IDCContext context = new IDCContext(workingDir, rootPassword, LOCAL_WORKSPACE_ORIGIN, CONTAINER_NAME, PROJECT_ID, LOG_NAME, DEPLOYMENT_REGISTRY, START_MODE, DEBUG_PORT);
 			
 			// Set up IDC options and exit. Should not attempt to build/run container.
 			if (cmd.equalsIgnoreCase(Constants.OPTION_SET)) {
@@ -172,27 +196,27 @@ public class IDC {
 					if (file.exists() && !file.delete()) {
 						Logger.error("Failed to remove the old artifacts.tar.gz from /file-watcher/idc/artifacts before re-archiving");
 					}
-					ProcessRunner pr = TaskUtils.runCmd("tar czf /file-watcher/idc/artifacts.tar.gz -C /file-watcher/idc/artifacts .", context, true);
+					ProcessRunner pr = TaskUtils.runCmd(Cmd.of("tar", "czf", "/file-watcher/idc/artifacts.tar.gz", "-C", "/file-watcher/idc/artifacts", "."), context, true);
 					Logger.info("Archiving /file-watcher/idc/artifacts dir: " + pr.getReceived());
-					pr = TaskUtils.runCmd("mv /file-watcher/idc/artifacts.tar.gz /file-watcher/idc/artifacts/artifacts.tar.gz", context, true);
+					pr = TaskUtils.runCmd(Cmd.of("mv", "/file-watcher/idc/artifacts.tar.gz", "/file-watcher/idc/artifacts/artifacts.tar.gz"), context, true);
 					Logger.info("Moving artifacts.tar.gz to /file-watcher/idc/artifacts " + pr.getReceived());
-					pr = TaskUtils.runCmd("chmod -R +rx /file-watcher/idc/artifacts/artifacts.tar.gz", context, true);
+					pr = TaskUtils.runCmd(Cmd.of("chmod", "-R", "+rx", "/file-watcher/idc/artifacts/artifacts.tar.gz"), context, true);
 					Logger.info("Giving read and execute permissions to artifacts.tar.gz " + pr.getReceived());
 					Logger.info("Re-archived /file-watcher/idc/artifacts dir");
 				}
 				Logger.info("IDC options set.");
-				return;
+				return 0;
 			}
 			
 			// Switch to dev/prod and exit. Should not attempt to build/run container.
 			if (Constants.MODE.dev.name().equals(cmd.toLowerCase())) {
 				SwitchModeTask.execute(context, Constants.MODE.dev);
-				return;
+				return 0;
 			}
 
 			if (Constants.MODE.prod.name().equals(cmd.toLowerCase())) {
 				SwitchModeTask.execute(context, Constants.MODE.prod);
-				return;
+				return 0;
 			}
 			
 			// Handle idc commands
@@ -200,7 +224,7 @@ public class IDC {
 				boolean success = ContainerCleanTask.execute(context);
 				if(!success)
 					returnCode = ErrorCode.containerCleanupFailed.ordinal();
-				System.exit(returnCode);
+				return returnCode;
 			}
 			
 			if (cmd.equalsIgnoreCase(Constants.OPTION_CONTAINER_REMOVE)) {
@@ -214,7 +238,7 @@ public class IDC {
 					ContainerRemoveTask.deleteCorrespondingIDCContents(context.getIDCBase(), appID);
 				}
 
-				System.exit(returnCode);
+				return returnCode;
 			}
 
 			DBMap appDb = context.getAppDb();
@@ -223,30 +247,24 @@ public class IDC {
 			
 			boolean isContainerBuilt = Boolean.parseBoolean(appDb.get(Constants.DB_CONTAINER_BUILT));
 			
-			// Construct a command string for either Kubernetes or Docker
-			String curRunCmd = "";
-			if (context.isK8s()) {
-				curRunCmd = "kubectl exec " + context.getKubePodId() + " --";
-			}
-			else {
-				curRunCmd = "docker exec " + context.getContainerName();
-			}
+			// Construct a command for either Kubernetes or Docker
+			Cmd curRunCmd = context.getContainerExecCmd();
 
 			// Handle commands that should not start a build here
 			if (cmd.equalsIgnoreCase(Constants.OPTION_STATUS_TRACKER)) {
 				if (!isContainerBuilt) {
 					Logger.error("Container " + context.getContainerName() + " is not running.");
-					return;
+					return 0;
 				}
 
 				Logger.info("Starting the status tracker");
 
-				ProcessRunner runner = TaskUtils.createRunnerForCmd(curRunCmd + " /home/default/artifacts/status_tracker.sh",
+				ProcessRunner runner = TaskUtils.createRunnerForCmd(curRunCmd.args("/home/default/artifacts/status_tracker.sh"),
 						context, false);
 				StatusTracker tracker = new StatusTracker(context, runner);
 				tracker.start();
 				
-				return;
+				return 0;
 			}
 
 			boolean containerBuildRequired = false;
@@ -254,101 +272,117 @@ public class IDC {
 			File appDir = context.getAppDirectory();
 			if (!(new File(appDir, "pom.xml").exists())) {
 				Logger.error("A pom.xml file is required in this directory, in order to start the container.");
-				return;
+				return 0;
 			}
 
-			if (appDb.get(Constants.DB_VERSION) == null) {
-				appDb.put(Constants.DB_VERSION, "0.1");
-			}
-			
-			// The SHA1 hash of the contents of the 'Dockerfile-build' and 'Dockerfile-lang' files, 
+			// Fetch the state of the image and container while the project is checked
+			context.getEnvironment().prefetch();
+
+			// The hash of the contents of the 'Dockerfile-build' and 'Dockerfile-lang' files, 
 			// or null if one or both of these files don't exist 
 			boolean isRequireImageRebuild = false;
 			String hashOfAppMasterDockerFiles = null;
-			{
-				hashOfAppMasterDockerFiles = DockerUtils.calculateHashOfAppDirMasterDockerFiles(context);
 
-				// Determine if the user has modified the app directory dockerfiles from since when the container was last built
-				String expectedDockerFileHash = appDb.get(Constants.DB_MASTER_DOCKER_FILE_HASH);
-				if (expectedDockerFileHash != null) {
+			// The version and hash updates below are written to the app db in a single commit, once the
+			// container build decision has been made. The commit is in a finally block, as a container refresh
+			// below removes the container and image, and its updates to the app db must be stored even if a
+			// later check fails.
+			appDb.begin();
+			try {
+				if (appDb.get(Constants.DB_VERSION) == null) {
+					appDb.put(Constants.DB_VERSION, "0.1");
+				}
+
+				{
+					hashOfAppMasterDockerFiles = DockerUtils.calculateHashOfAppDirMasterDockerFiles(context);
+					DockerUtils.migrateMasterDockerFileHash(context, hashOfAppMasterDockerFiles);
 
-					if (hashOfAppMasterDockerFiles != null && !hashOfAppMasterDockerFiles.equals(expectedDockerFileHash)
-							&& !cmd.equalsIgnoreCase(Constants.OPTION_CONTAINER_REFRESH)) {
-						
-						isRequireImageRebuild = true;
-						ContainerRefreshTask.execute(context);
-					}
-				} else {
-					
-					// Since there's no Dockerfile hash, we can expect this to
-					// be the first idc run.
-					// Delete any existing stale app container and image
-					// since we're not sure of their state as .idc was deleted.
-					
-					if(!context.isK8s()) {
-						if(DockerUtils.checkForContainerImage(context)) {
-							Logger.info("Erasing any stale app container/image.");
-							
-							// Erase the container
-							TaskUtils.runCmd("docker rm -f " + context.getContainerName(), context, true);
-							
-							// Erase the container image
-							TaskUtils.runCmd("docker rmi -f " + context.getImageName(), context, true);
+					// Determine if the user has modified the app directory dockerfiles from since when the container was last built
+					String expectedDockerFileHash = appDb.get(Constants.DB_MASTER_DOCKER_FILE_HASH);
+					if (expectedDockerFileHash != null) {
+
+						if (hashOfAppMasterDockerFiles != null && !hashOfAppMasterDockerFiles.equals(expectedDockerFileHash)
+								&& !cmd.equalsIgnoreCase(Constants.OPTION_CONTAINER_REFRESH)) {
+
+							isRequireImageRebuild = true;
+							ContainerRefreshTask.execute(context);
+						}
+					} else {
+
+						// Since there's no Dockerfile hash, we can expect this to
+						// be the first idc run.
+						// Delete any existing stale app container and image
+						// since we're not sure of their state as .idc was deleted.
+
+						if(!context.isK8s()) {
+							if(DockerUtils.checkForContainerImage(context)) {
+								Logger.info("Erasing any stale app container/image.");
+
+								// Erase the container
+								DockerUtils.removeContainer(context, context.getContainerName(), true, true);
+
+								// Erase the container image
+								DockerUtils.removeImage(context, context.getImageName(), true, true);
+							}
+						}
+
+						// There is not a hash in the database yet, so add one
+						if (hashOfAppMasterDockerFiles != null) {
+							appDb.put(Constants.DB_MASTER_DOCKER_FILE_HASH, hashOfAppMasterDockerFiles);
 						}
-					}
-					
-					// There is not a hash in the database yet, so add one
-					if (hashOfAppMasterDockerFiles != null) {
-						appDb.put(Constants.DB_MASTER_DOCKER_FILE_HASH, hashOfAppMasterDockerFiles);
 					}
 				}
-			}
-			
-			// Determine if the user has modified any *.yaml files in the chart subdirectory 
-			// and trigger container build as necessary for ICP scenarios
-			{
-				if ( context.isK8s() && new File(appDir, "chart").exists() ) {
-					String chartDir = appDir.getAbsolutePath() + "/chart";
-					String calchHashCmd = "find " + chartDir + " -type f -name \"*.yaml\" -exec sha256sum {} + | awk '{print $1}' | sort | sha256sum";
-					ProcessRunner pr = TaskUtils.runCmd(calchHashCmd, context, false);
-					String hashOfChartDir = pr.getReceived().split("\\r?\\n")[0];
-					String expectedHashofChartDir = appDb.get(Constants.DB_CHARTDIR_HASH);
-				
-					// Only flag image build required if previous hash exists (i.e. not first time idc being run), 
-					// and if current hash is different, and if container not already refreshed above, etc
-					if ( !isRequireImageRebuild &&
-						 expectedHashofChartDir != null && 
-						 hashOfChartDir != null && 
-						 !hashOfChartDir.equals(expectedHashofChartDir) && 
-						 !cmd.equalsIgnoreCase(Constants.OPTION_CONTAINER_REFRESH)) {
-						isRequireImageRebuild = true;
-						ContainerRefreshTask.execute(context);
+
+				// Determine if the user has modified any *.yaml files in the chart subdirectory 
+				// and trigger container build as necessary for ICP scenarios
+				{
+					if ( context.isK8s() && new File(appDir, "chart").exists() ) {
+						String hashOfChartDir = ProjectWatcher.getHash(appDir, ProjectWatcher.Category.CHART, ContentHasher.SHA256, () -> {
+							FingerprintCache fingerprints = FingerprintCache.forDb(appDb);
+							String hash = KubeUtils.calculateChartDirHash(new File(appDir, "chart"), fingerprints);
+							fingerprints.save();
+							return hash;
+						});
+						String expectedHashofChartDir = appDb.get(Constants.DB_CHARTDIR_HASH);
+
+						// Only flag image build required if previous hash exists (i.e. not first time idc being run), 
+						// and if current hash is different, and if container not already refreshed above, etc
+						if ( !isRequireImageRebuild &&
+							 expectedHashofChartDir != null && 
+							 hashOfChartDir != null && 
+							 !hashOfChartDir.equals(expectedHashofChartDir) && 
+							 !cmd.equalsIgnoreCase(Constants.OPTION_CONTAINER_REFRESH)) {
+							isRequireImageRebuild = true;
+							ContainerRefreshTask.execute(context);
+						}
+
+						// update chart dir hash
+						if ( hashOfChartDir != null )
+							appDb.put(Constants.DB_CHARTDIR_HASH, hashOfChartDir);
 					}
-				
-					// update chart dir hash
-					if ( hashOfChartDir != null )
-						appDb.put(Constants.DB_CHARTDIR_HASH, hashOfChartDir);
 				}
-			}
-			
 
-			if (!isContainerBuilt || isRequireImageRebuild || !DockerUtils.checkForContainerImage(context)) {
-				if (cmd.equalsIgnoreCase(Constants.OPTION_BUILD)) {
-					Logger.info("* Container build is required.");
-					containerBuildRequired = true;
-					// Update hash
-					if (hashOfAppMasterDockerFiles != null) {
-						appDb.put(Constants.DB_MASTER_DOCKER_FILE_HASH, hashOfAppMasterDockerFiles);
-					}
-					String curNewPomUpdateHash = FileMonitor.getNewPomUpdateHash(appDb, appDir.getAbsolutePath());
-					if (curNewPomUpdateHash != null) {
-						appDb.put(FileMonitor.POMCHANGE_HASH, curNewPomUpdateHash);
-					}
-					String curNewConfigUpdateHash = FileMonitor.getNewConfigUpdateHash(appDb, appDir.getAbsolutePath());
-					if (curNewConfigUpdateHash != null) {
-						appDb.put(FileMonitor.CONFIGUPDATE_HASH, curNewConfigUpdateHash);
+
+				if (!isContainerBuilt || isRequireImageRebuild || !DockerUtils.checkForContainerImage(context)) {
+					if (cmd.equalsIgnoreCase(Constants.OPTION_BUILD)) {
+						Logger.info("* Container build is required.");
+						containerBuildRequired = true;
+						// Update hash
+						if (hashOfAppMasterDockerFiles != null) {
+							appDb.put(Constants.DB_MASTER_DOCKER_FILE_HASH, hashOfAppMasterDockerFiles);
+						}
+						String curNewPomUpdateHash = FileMonitor.getNewPomUpdateHash(appDb, appDir.getAbsolutePath());
+						if (curNewPomUpdateHash != null) {
+							appDb.put(FileMonitor.POMCHANGE_HASH, curNewPomUpdateHash);
+						}
+						String curNewConfigUpdateHash = FileMonitor.getNewConfigUpdateHash(appDb, appDir.getAbsolutePath());
+						if (curNewConfigUpdateHash != null) {
+							appDb.put(FileMonitor.CONFIGUPDATE_HASH, curNewConfigUpdateHash);
+						}
 					}
 				}
+			} finally {
+				appDb.commit();
 			}
 
 			if (containerBuildRequired) {
@@ -357,14 +391,14 @@ public class IDC {
 
 				if (!appDockerBase.exists() && !appDockerBase.mkdirs()) {
 					Logger.error("Error creating docker database dir: " + appDockerBase.getPath());
-					return;
+					return 0;
 				}
 
 				boolean result = ContainerBuildTask.execute(context);
 
 				if (!result) {
 					Logger.error(ErrorCode.containerBuildFailed.message());
-					System.exit(ErrorCode.containerBuildFailed.ordinal());
+					return ErrorCode.containerBuildFailed.ordinal();
 				}
 
 				isContainerBuilt = true;
@@ -391,11 +425,7 @@ public class IDC {
 						// If for some reason, a pod is in a terminating 
 						// state, isPodRunning will be false and the code
 						// will proceed to run a new one.
-						for (String line : KubeUtils.kubectlPs(context)) {
-							if (line.contains(context.getKubePodId()) && line.contains("Running")) {
-								isPodRunning = true;
-							}
-						}
+						isPodRunning = "Running".equals(context.getEnvironment().getPodStatus(context.getKubePodId()));
 						if(!isPodRunning) {
 							containerStartRequired = true;
 						}
@@ -408,13 +438,7 @@ public class IDC {
 					// The container needs to be started if we can't find its ID in the list of started containers 
 					if (lastContainerId != null) {
 
-						boolean matched = false;
-						for (List<String> line : DockerUtils.dockerPs(context)) {
-							if (line.contains(lastContainerId)) {
-								matched = true;
-								break;
-							}
-						}
+						boolean matched = context.getEnvironment().getRunningContainerIds().contains(lastContainerId);
 
 						if (!matched) {
 							Logger.info(
@@ -434,25 +458,20 @@ public class IDC {
 				String id = ContainerRunTask.execute(context);
 				if (id == null) {
 					Logger.error(ErrorCode.containerStartFailed.message());
-					System.exit(ErrorCode.containerStartFailed.ordinal());
+					return ErrorCode.containerStartFailed.ordinal();
 				} else if(id == "registryError") {
 					Logger.error(ErrorCode.invalidDeploymentRegistry.message());
-					System.exit(ErrorCode.invalidDeploymentRegistry.ordinal());
+					return ErrorCode.invalidDeploymentRegistry.ordinal();
 				}
 			}
 			
 			// Recalculate the run command since ContainerRunTask may
 			// have been called which could have created a new Kube Pod Id
-			if (context.isK8s()) {
-				curRunCmd = "kubectl exec " + context.getKubePodId() + " --";
-			}
-			else {
-				curRunCmd = "docker exec " + context.getContainerName();
-			}
+			curRunCmd = context.getContainerExecCmd();
 			
 			if (cmd.equalsIgnoreCase(Constants.OPTION_CONTAINER_REFRESH)) {
 				ContainerRefreshTask.execute(context);
-				return;
+				return 0;
 			}
 
 			else if (cmd.equalsIgnoreCase(Constants.OPTION_BUILD)) {
@@ -460,7 +479,7 @@ public class IDC {
 				
 				if (!result) {
 					Logger.error(ErrorCode.applicationBuildFailed.message());
-					System.exit(ErrorCode.applicationBuildFailed.ordinal());
+					return ErrorCode.applicationBuildFailed.ordinal();
 				}
 
 				// Container and application builds are complete now
@@ -470,53 +489,53 @@ public class IDC {
 				 * Always call the start server script, it will check if the server is running and start if not.
 				 * Especially important in K8 when pods are auto restarted when the cluster is restarted, the server within the container is not started.
 				 */
-				startServer(context, curRunCmd, appDb);
+				startServer(context, appDb);
 				
-				return;
+				return 0;
 			}
 
 			else if (cmd.equalsIgnoreCase(Constants.OPTION_SHELL)) {
 				Logger.error("Not currently supported.");
-				return;
+				return 0;
 			}
 			
 			else if (cmd.equalsIgnoreCase(Constants.OPTION_START)) {
-				startServer(context, curRunCmd, appDb);
-				return;
+				startServer(context, appDb);
+				return 0;
 			}
 
 			else if (cmd.equalsIgnoreCase(Constants.OPTION_STOP)) {
 
 				if (!isContainerBuilt) {
 					Logger.info("Container " + context.getContainerName() + " is not running.");
-					return;
+					return 0;
 				}
 
 				StatusTracker.updateProjectState(context, "app", "stopping", null, null);
 
-				TaskUtils.runCmd(curRunCmd + " /home/default/artifacts/stop_server.sh",
-						context, true);
+				TaskUtils.runInContainer(Cmd.of("/home/default/artifacts/stop_server.sh"),
+						context, null, true);
 
-				return;
+				return 0;
 			}
 
 			else if (cmd.equalsIgnoreCase(Constants.OPTION_TAIL)) {
 				if (!isContainerBuilt) {
 					Logger.error("Container " + context.getContainerName() + " is not running.");
-					return;
+					return 0;
 				}
 
-				TaskUtils.runCmd(curRunCmd + " /home/default/artifacts/tail_server.sh",
+				TaskUtils.runCmd(curRunCmd.args("/home/default/artifacts/tail_server.sh"),
 						context, true);
 
-				return;
+				return 0;
 
 			}
 
 			else if (cmd.equalsIgnoreCase(Constants.OPTION_CLEAN)) {
 				if (!isContainerBuilt) {
 					Logger.error("Container " + context.getContainerName() + " is not running.");
-					return;
+					return 0;
 				}
 				
 				String logFileName = context.getLogFileName();
@@ -524,19 +543,26 @@ public class IDC {
 				String libertyEnv = context.getIDCConfiguration().getProperty("libertyEnv");
 				String libertyEnvValue = libertyEnv == null ? "default" : libertyEnv;
 				
-				TaskUtils.runCmd(curRunCmd + " /home/default/artifacts/clean_server.sh" + " "
-						+ logFileName + " " + libertyEnvValue, context, true);
+				TaskUtils.runInContainer(Cmd.of("/home/default/artifacts/clean_server.sh",
+						logFileName, libertyEnvValue), context, null, true);
+
+				// The build output is gone, so the next build must not be skipped
+				WorkspaceSnapshot.delete(appDb);
 
-				return;
+				return 0;
 			}
 
 		} catch (Exception e) {
 			Logger.error(ErrorCode.unexpectedError.message(), e);
-			System.exit(ErrorCode.unexpectedError.ordinal());
+			return ErrorCode.unexpectedError.ordinal();
+		} finally {
+			Metrics.flush();
 		}
+
+		return returnCode;
 	}
 
-	private static void startServer(IDCContext context, String curRunCmd, DBMap appDb) throws Exception {
+	private static void startServer(IDCContext context, DBMap appDb) throws Exception {
 		Logger.info("Starting server in start mode: " + context.getStartMode());
 		StatusTracker.updateProjectState(context, "app", "starting", null, null);
 
@@ -544,16 +570,16 @@ public class IDC {
 		Logger.info("Triggering log file event for: application messages log");
 		StatusTracker.newLogFileAvailable(context, "app");
 			 
-		ProcessRunner pr;
+		ProcessResult pr;
 		if (Constants.START_MODE_DEBUG.equals(context.getStartMode())) {
-			pr = TaskUtils.runCmd(curRunCmd + " /home/default/artifacts/debug_server.sh",
-							context, true);
+			pr = TaskUtils.runInContainer(Cmd.of("/home/default/artifacts/debug_server.sh"),
+							context, null, true);
 		} else {
-			pr = TaskUtils.runCmd(curRunCmd + " /home/default/artifacts/start_server.sh",
-							context, true);
+			pr = TaskUtils.runInContainer(Cmd.of("/home/default/artifacts/start_server.sh"),
+							context, null, true);
 		}
 
-		if (pr.getErrorCode().orElse(0) != 0){
+		if (pr.getErrorCode() != 0){
 			appDb.put(Constants.DB_SERVER_START, "false");
 			StatusTracker.updateProjectState(context, "app", "stopped", "projectStatusController.serverNotStarted",  null);
 		} else {
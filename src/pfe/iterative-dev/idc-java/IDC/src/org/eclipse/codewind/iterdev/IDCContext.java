@@ -58,75 +58,76 @@ public class IDCContext {
 	private final boolean isWin;
 
 	private final String imageCommand;
+
+	private final EnvironmentSnapshot environment = new EnvironmentSnapshot(this);
+
+	private static Properties cachedConfig = null;
+
+	private static long cachedConfigLastModified = 0;
 	
-	public IDCContext(String rootPassword, String localWorkspaceOrigin, String containerName, String projectID, String logName, String deploymentRegistry, String startMode, String debugPort) throws IOException {
+	public IDCContext(File appDirectory, String rootPassword, String localWorkspaceOrigin, String containerName, String projectID, String logName, String deploymentRegistry, String startMode, String debugPort) throws IOException {
 
 		this.rootPassword = rootPassword;
 
 		this.idcConfig = loadIDCConfigPropertiesFromFile();
-		// Set the idc base path
-		String idcBasePath = idcConfig.getProperty(Constants.BASE_PATH_PROPERTY_KEY);
 
-		// Default idc base path is the user home directory
-		if (idcBasePath == null)
-			idcBasePath = System.getProperty("user.home");
-
-		// Append idc base folder (.idc) to the base path
-		if (!idcBasePath.endsWith(Constants.SLASH))
-			idcBasePath += Constants.SLASH;
-		idcBasePath += Constants.IDC_DIR;
-
-		this.idcBase = new File(idcBasePath);
+		this.idcBase = resolveIDCBase(idcConfig);
 
 		/** app id is a hash of the path */
-		this.appId = DigestUtils.sha1Hex(System.getProperty("user.dir").getBytes());
+		this.appId = DigestUtils.sha1Hex(appDirectory.getPath().getBytes());
 
 		this.appDb = new DBMap(appId, idcBase);
 		
-		this.localWorkspaceOrigin = localWorkspaceOrigin;
-		if (appDb.get(Constants.DB_WORKSPACE_ORIGIN) == null && this.localWorkspaceOrigin != null) {
-			appDb.put(Constants.DB_WORKSPACE_ORIGIN, this.localWorkspaceOrigin);
-		}
+		// Record the command line values in the app db with a single write
+		appDb.begin();
+		try {
+			this.localWorkspaceOrigin = localWorkspaceOrigin;
+			if (appDb.get(Constants.DB_WORKSPACE_ORIGIN) == null && this.localWorkspaceOrigin != null) {
+				appDb.put(Constants.DB_WORKSPACE_ORIGIN, this.localWorkspaceOrigin);
+			}
 		
-		// Store the container/image name in the appdb for future access
-		this.containerName = containerName;
-		if (appDb.get(Constants.DB_CONTAINER_NAME) == null && this.containerName != null) {
-			appDb.put(Constants.DB_CONTAINER_NAME, this.containerName);
-		}
+			// Store the container/image name in the appdb for future access
+			this.containerName = containerName;
+			if (appDb.get(Constants.DB_CONTAINER_NAME) == null && this.containerName != null) {
+				appDb.put(Constants.DB_CONTAINER_NAME, this.containerName);
+			}
 		
-		// Store the app log name in the appdb for future access
-		this.logName = logName;
-		if (appDb.get(Constants.DB_LOG_NAME) == null && this.logName != null) {
-			appDb.put(Constants.DB_LOG_NAME, this.logName);
-		}
+			// Store the app log name in the appdb for future access
+			this.logName = logName;
+			if (appDb.get(Constants.DB_LOG_NAME) == null && this.logName != null) {
+				appDb.put(Constants.DB_LOG_NAME, this.logName);
+			}
 		
-		this.projectID = projectID;
-		if (appDb.get(Constants.DB_PROJECT_ID) == null && this.projectID != null) {
-			appDb.put(Constants.DB_PROJECT_ID, this.projectID);
-		}
+			this.projectID = projectID;
+			if (appDb.get(Constants.DB_PROJECT_ID) == null && this.projectID != null) {
+				appDb.put(Constants.DB_PROJECT_ID, this.projectID);
+			}
 
-		this.deploymentRegistry = deploymentRegistry;
-		if (this.deploymentRegistry != null) {
-			appDb.put(Constants.DB_DEPLOYMENT_REGISTRY, this.deploymentRegistry);
-		}
+			this.deploymentRegistry = deploymentRegistry;
+			if (this.deploymentRegistry != null) {
+				appDb.put(Constants.DB_DEPLOYMENT_REGISTRY, this.deploymentRegistry);
+			}
 
-		this.startMode = startMode;
-		if (this.startMode != null) {
-			appDb.put(Constants.DB_START_MODE, this.startMode);
-		}
+			this.startMode = startMode;
+			if (this.startMode != null) {
+				appDb.put(Constants.DB_START_MODE, this.startMode);
+			}
 
-		this.debugPort = debugPort;
-		if (this.debugPort != null) {
-			appDb.put(Constants.DB_DEBUG_PORT, this.debugPort);
+			this.debugPort = debugPort;
+			if (this.debugPort != null) {
+				appDb.put(Constants.DB_DEBUG_PORT, this.debugPort);
+			}
+		} finally {
+			appDb.commit();
 		}
 
 		this.artifactsDirectory = getArtifactsFromInstallDir();
 
-		this.appDirectory = new File(System.getProperty("user.dir"));
+		this.appDirectory = appDirectory;
 
 		this.appName = this.appDirectory.getName();
 
-		this.globalDb = new DBMap("global", idcBase);
+		this.globalDb = new SharedDBMap("global", idcBase);
 		
 		String hostOS = System.getenv("HOST_OS");
 		if(hostOS != null) {
@@ -155,6 +156,11 @@ public class IDCContext {
 		return appDb;
 	}
 
+	/** The state of the containers and images of the application, as fetched for this command */
+	public EnvironmentSnapshot getEnvironment() {
+		return environment;
+	}
+
 	public String getAppName() {
 		return appName;
 	}
@@ -253,15 +259,58 @@ public class IDCContext {
 		return idcJar.getParentFile();
 	}
 
+	/** Return the .idc directory, which is located under the configured base path (or the user home directory) */
+	public static File resolveIDCBase(Properties idcConfig) {
+		// Set the idc base path
+		String idcBasePath = idcConfig.getProperty(Constants.BASE_PATH_PROPERTY_KEY);
+
+		// Default idc base path is the user home directory
+		if (idcBasePath == null)
+			idcBasePath = System.getProperty("user.home");
+
+		// Append idc base folder (.idc) to the base path
+		if (!idcBasePath.endsWith(Constants.SLASH))
+			idcBasePath += Constants.SLASH;
+		idcBasePath += Constants.IDC_DIR;
+
+		return new File(idcBasePath);
+	}
+
 	private Properties loadIDCConfigPropertiesFromFile() {
-		Properties props = new Properties();
+		Properties props = readIDCConfig();
+
+		if (!props.isEmpty()) {
+			Logger.info("Configuration file detected: ");
+			props.entrySet().stream().forEach(e -> Logger.info(e.getKey() + " : " + e.getValue())); // print properties
+		}
+
+		return props;
+	}
+
+	/** Read the idc.config file from the IDC jar directory. The parsed properties are kept for as long as the file
+	 * is unchanged, so that a resident IDC process does not re-read it for every command. */
+	public static Properties readIDCConfig() {
+		File idcConfig = new File(IDCContext.getIDCJarDir(), Constants.SLASH + Constants.IDC_CONFIG_FILE);
+		long lastModified = idcConfig.lastModified();
 
-		File idcJarDir = IDCContext.getIDCJarDir();
+		synchronized (IDCContext.class) {
+			if (cachedConfig == null || cachedConfigLastModified != lastModified) {
+				cachedConfig = loadProperties(idcConfig);
+				cachedConfigLastModified = lastModified;
+			}
+
+			Properties props = new Properties();
+			props.putAll(cachedConfig);
+			return props;
+		}
+	}
+
+	private static Properties loadProperties(File idcConfig) {
+		Properties props = new Properties();
 
-		File idcConfig = new File(idcJarDir, Constants.SLASH + Constants.IDC_CONFIG_FILE);
 		if (idcConfig.exists()) {
-			try {
-				props.load(new FileInputStream(idcConfig));
+			try (FileInputStream fis = new FileInputStream(idcConfig)) {
+				props.load(fis);
 			} catch (FileNotFoundException e) {
 				// The idc config file is optional
 			} catch (IOException e) {
@@ -269,10 +318,6 @@ public class IDCContext {
 				e.printStackTrace();
 			}
 		}
-		if (!props.isEmpty()) {
-			Logger.info("Configuration file detected: ");
-			props.entrySet().stream().forEach(e -> Logger.info(e.getKey() + " : " + e.getValue())); // print properties
-		}
 
 		return props;
 	}
@@ -331,6 +376,20 @@ public class IDCContext {
 	public String getKubePodId() {
 		return this.appDb.get(Constants.DB_POD_ID);
 	}
+
+	/** Return the command that runs a command in the application container (add the command with Cmd.args(...)). */
+	public Cmd getContainerExecCmd() {
+		return getContainerExecCmd(false);
+	}
+
+	/** As getContainerExecCmd(), but if interactive is true, the stdin of the exec is passed to the command. */
+	public Cmd getContainerExecCmd(boolean interactive) {
+		Cmd exec = isK8s() ? Cmd.of("kubectl", "exec") : Cmd.of("docker", "exec");
+		if (interactive) {
+			exec = exec.args("-i");
+		}
+		return isK8s() ? exec.args(getKubePodId(), "--") : exec.args(getContainerName());
+	}
 	
 	public boolean isK8s() {
 		return this.isK8s;
@@ -0,0 +1,344 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.iterdev;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * Resident IDC process: accepts IDC commands from the 'idc' shell wrapper over a local socket and runs them in this
+ * JVM, which avoids paying JVM startup, class loading and db parsing costs for every command.
+ *
+ * The daemon listens on the loopback interface only, and clients must present the token that is written (owner
+ * readable only) to the endpoint file under .idc/daemon. Java 8 has no support for Unix domain sockets, so a loopback
+ * TCP socket plus token is used instead; the wrapper talks to it using bash's /dev/tcp.
+ *
+ * Request (each value terminated by a NUL byte, so values can contain newlines): token, working directory, argument
+ * count, arguments. Response: "s accepted" once the request has been read, before the command is run, then one line
+ * per line of output, prefixed with "1 " (stdout) or "2 " (stderr), followed by "x <exit code>". The wrapper only runs
+ * the command in a new JVM instead if the daemon did not accept it, so a command is never run twice, whatever its exit
+ * code.
+ *
+ * Output written to System.out and System.err is routed to the client of the request that the writing thread is
+ * serving. The routing is not inherited by new threads, as pooled threads outlive the request that created them;
+ * work done for a request on another thread is wrapped with withCurrentTarget(...) instead.
+ */
+public class IDCDaemon {
+
+	private static final int MAX_ARGS = 256;
+
+	private static final int MAX_VALUE_LENGTH = 64 * 1024;
+
+	/** Commands for the same application directory are run one at a time; different applications run in parallel. */
+	private static final Map<String, Object> appDirLocks = new ConcurrentHashMap<>();
+
+	private static final PrintStream console = System.out;
+
+	private static final RoutedOutputStream routedOut = new RoutedOutputStream(System.out);
+
+	private static final RoutedOutputStream routedErr = new RoutedOutputStream(System.err);
+
+	public static void run() throws IOException {
+
+		File daemonDir = new File(IDCContext.resolveIDCBase(IDCContext.readIDCConfig()), Constants.DAEMON_DIR);
+		if (!daemonDir.exists() && !daemonDir.mkdirs()) {
+			throw new IOException("Unable to create the daemon directory: " + daemonDir.getPath());
+		}
+
+		byte[] tokenBytes = new byte[32];
+		new SecureRandom().nextBytes(tokenBytes);
+		final String token = Hex.encodeHexString(tokenBytes);
+
+		ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+
+		File endpointFile = new File(daemonDir, Constants.DAEMON_ENDPOINT_FILE);
+		final String endpoint = serverSocket.getLocalPort() + " " + token + "\n";
+		writeEndpointFile(endpointFile, endpoint);
+
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try {
+				// Only remove the endpoint file if another daemon has not replaced it
+				if (endpoint.equals(new String(Files.readAllBytes(endpointFile.toPath()), StandardCharsets.UTF_8))) {
+					Files.delete(endpointFile.toPath());
+				}
+			} catch (IOException e) {
+				/* ignore */
+			}
+		}));
+
+		DBMap.setCacheEnabled(true);
+		ProjectWatcher.setEnabled(true);
+		Inventory.setWatchingEnabled(true);
+
+		System.setOut(new PrintStream(routedOut, true));
+		System.setErr(new PrintStream(routedErr, true));
+
+		Logger.info("IDC daemon listening on " + serverSocket.getInetAddress().getHostAddress() + ":"
+				+ serverSocket.getLocalPort());
+
+		ExecutorService executor = Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "IDC daemon request");
+			t.setDaemon(true);
+			return t;
+		});
+
+		while (true) {
+			final Socket socket = serverSocket.accept();
+			executor.execute(() -> handleRequest(socket, token));
+		}
+	}
+
+	private static void handleRequest(Socket socket, String token) {
+		try (Socket s = socket) {
+			InputStream is = new BufferedInputStream(s.getInputStream());
+			OutputStream os = new BufferedOutputStream(s.getOutputStream());
+
+			String clientToken = readValue(is);
+			if (clientToken == null || !MessageDigest.isEqual(clientToken.getBytes(StandardCharsets.UTF_8),
+					token.getBytes(StandardCharsets.UTF_8))) {
+				Logger.error("Rejected an IDC daemon request with an invalid token");
+				return;
+			}
+
+			String workingDir = readValue(is);
+			String argCount = readValue(is);
+			if (workingDir == null || argCount == null) {
+				return;
+			}
+
+			int numArgs = Integer.parseInt(argCount.trim());
+			if (numArgs < 0 || numArgs > MAX_ARGS) {
+				throw new IOException("Invalid argument count: " + numArgs);
+			}
+
+			String[] args = new String[numArgs];
+			for (int x = 0; x < numArgs; x++) {
+				args[x] = readValue(is);
+				if (args[x] == null) {
+					throw new IOException("Unexpected end of request");
+				}
+			}
+
+			File appDir = new File(workingDir);
+
+			// From here on, the command is run by the daemon, whatever happens
+			synchronized (os) {
+				os.write("s accepted\n".getBytes(StandardCharsets.UTF_8));
+				os.flush();
+			}
+
+			FramedOutputStream out = new FramedOutputStream(os, '1');
+			FramedOutputStream err = new FramedOutputStream(os, '2');
+
+			int exitCode;
+			synchronized (appDirLocks.computeIfAbsent(appDir.getPath(), k -> new Object())) {
+				routedOut.setTarget(new PrintStream(out, true));
+				routedErr.setTarget(new PrintStream(err, true));
+				try {
+					exitCode = IDC.execute(args, appDir);
+				} finally {
+					routedOut.setTarget(null);
+					routedErr.setTarget(null);
+					out.close();
+					err.close();
+				}
+			}
+
+			synchronized (os) {
+				os.write(("x " + exitCode + "\n").getBytes(StandardCharsets.UTF_8));
+				os.flush();
+			}
+
+		} catch (Exception e) {
+			Logger.error("Error while processing IDC daemon request", e);
+		}
+	}
+
+	/** Read a NUL terminated value of a request; return null at the end of the request. */
+	private static String readValue(InputStream is) throws IOException {
+		ByteArrayOutputStream value = new ByteArrayOutputStream();
+		int b;
+		while ((b = is.read()) != 0) {
+			if (b == -1) {
+				return null;
+			}
+			if (value.size() >= MAX_VALUE_LENGTH) {
+				throw new IOException("Request value is too long");
+			}
+			value.write(b);
+		}
+		return new String(value.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Return the given task wrapped so that, on whatever thread it runs, its output goes where the output of the current
+	 * thread goes: to the client of the request that the current thread is serving, if any.
+	 */
+	public static Runnable withCurrentTarget(Runnable task) {
+		PrintStream out = routedOut.target.get();
+		PrintStream err = routedErr.target.get();
+		if (out == null && err == null) {
+			return task;
+		}
+		return () -> {
+			PrintStream previousOut = routedOut.target.get();
+			PrintStream previousErr = routedErr.target.get();
+			routedOut.setTarget(out);
+			routedErr.setTarget(err);
+			try {
+				task.run();
+			} finally {
+				routedOut.setTarget(previousOut);
+				routedErr.setTarget(previousErr);
+			}
+		};
+	}
+
+	private static void writeEndpointFile(File endpointFile, String contents) throws IOException {
+		File tmpFile = new File(endpointFile.getParentFile(), endpointFile.getName() + ".tmp");
+		Files.deleteIfExists(tmpFile.toPath());
+		try {
+			// The token must only be readable by the owner, so create the file with those permissions up front
+			Files.createFile(tmpFile.toPath(),
+					PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+		} catch (UnsupportedOperationException e) {
+			/* ignore, not a POSIX file system */
+		}
+		Files.write(tmpFile.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+		Files.move(tmpFile.toPath(), endpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Sends output to the stream of the request that the current thread is serving, or to the daemon's own console
+	 * otherwise.
+	 */
+	private static class RoutedOutputStream extends OutputStream {
+
+		private final OutputStream defaultTarget;
+
+		private final ThreadLocal<PrintStream> target = new ThreadLocal<>();
+
+		RoutedOutputStream(OutputStream defaultTarget) {
+			this.defaultTarget = defaultTarget;
+		}
+
+		void setTarget(PrintStream ps) {
+			if (ps != null) {
+				target.set(ps);
+			} else {
+				target.remove();
+			}
+		}
+
+		private OutputStream current() {
+			OutputStream os = target.get();
+			return os != null ? os : defaultTarget;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			current().write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			current().write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			current().flush();
+		}
+	}
+
+	/** Writes each line of output to the client, prefixed with the stream identifier. */
+	private static class FramedOutputStream extends OutputStream {
+
+		private final OutputStream os;
+
+		private final char streamId;
+
+		private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+		private boolean closed = false;
+
+		FramedOutputStream(OutputStream os, char streamId) {
+			this.os = os;
+			this.streamId = streamId;
+		}
+
+		@Override
+		public synchronized void write(int b) throws IOException {
+			if (b == '\n') {
+				writeLine();
+			} else {
+				line.write(b);
+			}
+		}
+
+		@Override
+		public synchronized void write(byte[] b, int off, int len) throws IOException {
+			for (int x = off; x < off + len; x++) {
+				write(b[x]);
+			}
+		}
+
+		private void writeLine() throws IOException {
+			byte[] bytes = line.toByteArray();
+			line.reset();
+
+			if (closed) {
+				// The request has completed (for example, a late line from a process reader), so log it locally
+				console.println(new String(bytes, StandardCharsets.UTF_8));
+				return;
+			}
+
+			synchronized (os) {
+				os.write(streamId);
+				os.write(' ');
+				os.write(bytes);
+				os.write('\n');
+				os.flush();
+			}
+		}
+
+		@Override
+		public synchronized void close() throws IOException {
+			if (line.size() > 0) {
+				writeLine();
+			}
+			closed = true;
+		}
+	}
+}
@@ -11,18 +11,17 @@
 
 package org.eclipse.codewind.iterdev;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import org.apache.commons.codec.digest.DigestUtils;
@@ -33,34 +32,10 @@ public class IDCUtils {
 	// Copy the a binary/text file (source file) to the target file.
 	//
 	public static void copyFile(String sourceFilename, String targetFilename) throws IOException {
-		FileInputStream fin = null;
-		FileOutputStream fout = null;
-		BufferedInputStream bin = null;
-		BufferedOutputStream bout = null;
-		File fpSource = null;
-
 		try {
-			fin = new FileInputStream(sourceFilename);
-			fout = new FileOutputStream(targetFilename);
-			bin = new BufferedInputStream(fin);
-			bout = new BufferedOutputStream(fout);
-
-			byte byteBuff[] = new byte[1024];
-			int length;
-			while ((length = bin.read(byteBuff)) > 0)
-				bout.write(byteBuff, 0, length);
-		} catch (FileNotFoundException e1) {
-			throw new IOException(sourceFilename + " does not exist!", e1);
-		} finally {
-			try {
-				if (bin != null)
-					bin.close();
-
-				if (bout != null)
-					bout.close();
-			} catch (IOException e3) {
-				// ignore
-			}
+			new FileCopier().copyFile(Paths.get(sourceFilename), Paths.get(targetFilename));
+		} catch (NoSuchFileException e) {
+			throw new IOException(sourceFilename + " does not exist!", e);
 		}
 	}
 
@@ -70,27 +45,9 @@ public class IDCUtils {
 	// does not exist, it will try to create the directory.
 	//
 	public static void copyDir(String sourceDirectory, String targetDirectory) throws IOException {
-		char separatorChar = File.separatorChar;
-
 		File srcFp = new File(sourceDirectory);
 		if (srcFp.exists() && srcFp.isDirectory()) {
-			// Create the target directory if necessary.
-			makeDir(targetDirectory);
-			File[] srcFileLst = srcFp.listFiles();
-			File curFp = null;
-			for (int i = 0; i < srcFileLst.length; i++) {
-				curFp = srcFileLst[i];
-				if (curFp != null) {
-					String curFpName = curFp.getName();
-					if (curFp.isDirectory()) {
-						copyDir(sourceDirectory + separatorChar + curFpName,
-								targetDirectory + separatorChar + curFpName);
-					} else {
-						copyFile(sourceDirectory + separatorChar + curFpName,
-								targetDirectory + separatorChar + curFpName);
-					}
-				}
-			}
+			new FileCopier().copyTree(srcFp.toPath(), Paths.get(targetDirectory));
 		} else {
 			throw new IOException("The source directory " + sourceDirectory + " does not exist");
 		}
@@ -196,6 +153,57 @@ public class IDCUtils {
 		return currHash;
 		
 	}
+	
+	/** Same as calculateHashOfOrderedFileContents(File[]), but using the content hasher set in idc.config, and only 
+	 * reading the files that have changed since their hash was stored in the given fingerprint cache. The hash is 
+	 * returned in the form stored in the app db (see ContentHasher). */
+	public static String calculateHashOfOrderedFileContents(File[] files, FingerprintCache cache) throws IOException {
+		return calculateHashOfOrderedFileContents(files, cache, ContentHasher.getConfigured());
+	}
+	
+	public static String calculateHashOfOrderedFileContents(File[] files, FingerprintCache cache, ContentHasher hasher) throws IOException {
+		
+		String currHash = null;
+		
+		for(File f : files) {
+			
+			// As above, a file that doesn't exist is an error
+			if(!f.exists())
+				throw new FileNotFoundException(f.getPath());
+			
+			String fileHash = cache.getHash(f, hasher);
+			
+			if(currHash == null) {
+				currHash = fileHash; 
+			} else {
+				currHash = hasher.hashString(fileHash+currHash);
+			}
+			
+		}
+		
+		return currHash != null ? hasher.toStoredHash(currHash) : null;
+		
+	}
+	
+	/** If the hash stored in the app db under the given key was calculated by a different content hasher than 
+	 * currentHash (for example, it was stored by an earlier version of IDC), and still matches the files, replace it 
+	 * with currentHash. Changing the content hasher therefore does not cause the files to be treated as changed. */
+	public static void migrateStoredHash(DBMap appDb, String key, String currentHash, File[] files, FingerprintCache cache) throws IOException {
+		String storedHash = appDb.get(key);
+		if(storedHash == null || currentHash == null || storedHash.equals(currentHash)) {
+			return;
+		}
+		
+		ContentHasher storedHasher = ContentHasher.forStoredHash(storedHash);
+		if(storedHasher == null || storedHasher == ContentHasher.forStoredHash(currentHash)) {
+			return;
+		}
+		
+		if(storedHash.equals(calculateHashOfOrderedFileContents(files, cache, storedHasher))) {
+			Logger.info("Upgrading the stored " + key + " to the " + ContentHasher.forStoredHash(currentHash).getName() + " content hasher.");
+			appDb.put(key, currentHash);
+		}
+	}
 
 	public static void updateEnvvarsScript(File envVarsScriptFile, String HOST_OS) {
 
@@ -0,0 +1,336 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.iterdev;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.codewind.iterdev.tasks.TaskUtils;
+
+/**
+ * Cache of the state of the container environment (images, running containers, pods and deployments) that is shared
+ * by every IDC process using the same .idc directory, so that commands run in quick succession don't each list the
+ * containers, pods and images again.
+ *
+ * The inventory is a SharedDBMap (db-inventory). Each entry holds the value fetched for one piece of state along with
+ * the time it was fetched, and is used for up to the time to live of its kind: 'inventoryTtl.(kind)' in idc.config,
+ * in seconds, where 0 disables caching of that kind. When IDC changes the environment, it invalidates the kinds that
+ * it changed, which makes the entries of those kinds fetched before then stale in every process.
+ *
+ * In the resident IDC process (see IDCDaemon), the environment is also watched, with 'docker events' (Docker) or
+ * 'kubectl get --watch-only' (pods and deployments), and each change invalidates its kind. While a kind is watched,
+ * its entries are used until they are invalidated, whatever their age, so a build of an unchanged application lists
+ * nothing at all.
+ */
+public class Inventory {
+
+	public enum Kind {
+		IMAGE(60), CONTAINERS(10), PODS(10), DEPLOYMENTS(10);
+
+		private final long defaultTtlSeconds;
+
+		private Kind(long defaultTtlSeconds) {
+			this.defaultTtlSeconds = defaultTtlSeconds;
+		}
+
+		public String getName() {
+			return name().toLowerCase(Locale.ROOT);
+		}
+	}
+
+	/** Fetches the current value of an entry from the environment */
+	public interface Fetch {
+		public String fetch() throws IOException, InterruptedException;
+	}
+
+	public static final String INVENTORY_ID = "inventory";
+
+	/** Key (under each scope and kind) of the time the kind was last invalidated */
+	private static final String INVALIDATED_KEY = "#invalidated";
+
+	/** Watchers that fail are started again after this delay, which doubles (up to the maximum) until one succeeds */
+	private static final long MIN_RESTART_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+	private static final long MAX_RESTART_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+	/** Only the last few lines of the output of a watcher are kept */
+	private static final int WATCHER_CAPTURE_LIMIT = 16 * 1024;
+
+	private static volatile boolean watchingEnabled = false;
+
+	/** The watchers started by this process, by .idc directory and scope */
+	private static final Map<String, List<Watcher>> watchers = new ConcurrentHashMap<>();
+
+	/** The kinds (as 'idc base|scope/kind') whose watcher is running in this process */
+	private static final Set<String> watched = ConcurrentHashMap.newKeySet();
+
+	private final SharedDBMap db;
+
+	private final File idcBase;
+
+	/** The environment the entries describe: 'docker', 'buildah' or 'k8s' */
+	private final String scope;
+
+	private final Properties config;
+
+	private Inventory(SharedDBMap db, File idcBase, String scope, Properties config) {
+		this.db = db;
+		this.idcBase = idcBase;
+		this.scope = scope;
+		this.config = config;
+	}
+
+	/** Open the inventory of the environment of the given context, and start watching the environment if enabled. */
+	public static Inventory open(IDCContext context) throws IOException {
+		String scope = context.isK8s() ? "k8s" : context.getImageCommand();
+		Inventory inventory = new Inventory(new SharedDBMap(INVENTORY_ID, context.getIDCBase()), context.getIDCBase(),
+				scope, context.getIDCConfiguration());
+		if (watchingEnabled) {
+			watch(context, inventory);
+		}
+		return inventory;
+	}
+
+	/**
+	 * Return the value of the given entry, which is fetched (and stored) if the inventory does not hold a value that is
+	 * still fresh.
+	 */
+	public String get(Kind kind, String name, Fetch fetch) throws IOException, InterruptedException {
+		String key = getKey(kind, name);
+		long ttlMillis = getTtlMillis(kind);
+		long start = System.currentTimeMillis();
+
+		if (ttlMillis > 0) {
+			synchronized (db) {
+				String entry = db.get(key);
+				int space = entry != null ? entry.indexOf(' ') : -1;
+				if (space > 0) {
+					long fetched = parseTime(entry.substring(0, space));
+					if (fetched > getInvalidated(kind) && (isWatched(kind) || start - fetched < ttlMillis)) {
+						return entry.substring(space + 1);
+					}
+				}
+			}
+		}
+
+		String value = fetch.fetch();
+
+		if (ttlMillis > 0) {
+			synchronized (db) {
+				// A value fetched while the kind was being invalidated may already be out of date
+				if (getInvalidated(kind) < start) {
+					db.put(key, start + " " + value);
+				}
+			}
+		}
+		return value;
+	}
+
+	/** Called when the environment has changed: the entries of the given kinds are fetched again the next time. */
+	public void invalidate(Kind... kinds) {
+		synchronized (db) {
+			db.begin();
+			try {
+				long now = System.currentTimeMillis();
+				for (Kind kind : kinds) {
+					String prefix = getKey(kind, "");
+					for (String key : new ArrayList<>(db.getMap().keySet())) {
+						if (key.startsWith(prefix)) {
+							db.remove(key);
+						}
+					}
+					db.put(getKey(kind, INVALIDATED_KEY), String.valueOf(now));
+				}
+			} catch (RuntimeException e) {
+				db.rollback();
+				throw e;
+			}
+			db.commit();
+		}
+	}
+
+	/** Start (or stop) watching the environment of each inventory that is opened by this process. */
+	public static synchronized void setWatchingEnabled(boolean enable) {
+		watchingEnabled = enable;
+		if (!enable) {
+			for (List<Watcher> list : watchers.values()) {
+				for (Watcher watcher : list) {
+					watcher.interrupt();
+				}
+			}
+			watchers.clear();
+		}
+	}
+
+	/** Return true if the given kind is being watched by this process. */
+	public boolean isWatched(Kind kind) {
+		return watched.contains(getWatchKey(kind));
+	}
+
+	private static void watch(IDCContext context, Inventory inventory) {
+		watchers.computeIfAbsent(inventory.idcBase.getAbsolutePath() + "|" + inventory.scope, k -> {
+			List<Watcher> result = new ArrayList<>();
+			if (inventory.scope.equals("docker")) {
+				// Only the events that change the running containers or the images
+				result.add(new Watcher(context, inventory, Cmd.of("docker", "events", "--filter", "type=container",
+						"--filter", "type=image", "--filter", "event=start", "--filter", "event=die", "--filter",
+						"event=destroy", "--filter", "event=tag", "--filter", "event=untag", "--filter", "event=delete",
+						"--filter", "event=pull", "--filter", "event=load", "--filter", "event=import", "--format",
+						"{{.Type}}").named("inventory watch"), Arrays.asList(Kind.CONTAINERS, Kind.IMAGE)));
+			} else if (inventory.scope.equals("k8s")) {
+				result.add(new Watcher(context, inventory, Cmd.of("kubectl", "get", "pods", "--watch-only", "--no-headers")
+						.named("inventory watch pods"), Collections.singletonList(Kind.PODS)));
+				result.add(new Watcher(context, inventory, Cmd.of("kubectl", "get", "deployments", "--watch-only",
+						"--no-headers").named("inventory watch deployments"), Collections.singletonList(Kind.DEPLOYMENTS)));
+			}
+			for (Watcher watcher : result) {
+				watcher.start();
+			}
+			return result;
+		});
+	}
+
+	private String getKey(Kind kind, String name) {
+		return scope + "/" + kind.getName() + "/" + name;
+	}
+
+	private String getWatchKey(Kind kind) {
+		return idcBase.getAbsolutePath() + "|" + scope + "/" + kind.getName();
+	}
+
+	private long getInvalidated(Kind kind) {
+		return parseTime(db.get(getKey(kind, INVALIDATED_KEY)));
+	}
+
+	private long getTtlMillis(Kind kind) {
+		String value = config.getProperty(Constants.INVENTORY_TTL_PROPERTY_PREFIX + kind.getName());
+		if (value != null) {
+			try {
+				return TimeUnit.SECONDS.toMillis(Long.parseLong(value.trim()));
+			} catch (NumberFormatException e) {
+				Logger.error("Invalid inventory time to live for " + kind.getName() + " in " + Constants.IDC_CONFIG_FILE
+						+ ": " + value);
+			}
+		}
+		return TimeUnit.SECONDS.toMillis(kind.defaultTtlSeconds);
+	}
+
+	private static long parseTime(String value) {
+		try {
+			return value != null ? Long.parseLong(value) : 0;
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Runs a command that prints a line for each change to the environment (for example, 'docker events'), and
+	 * invalidates the kinds of state that the change affects, for as long as watching is enabled.
+	 */
+	private static class Watcher extends Thread {
+
+		private final IDCContext context;
+
+		private final Inventory inventory;
+
+		private final Cmd cmd;
+
+		/** The kinds that the command watches; for Docker, the first word of each line is the type of the event */
+		private final List<Kind> kinds;
+
+		Watcher(IDCContext context, Inventory inventory, Cmd cmd, List<Kind> kinds) {
+			super("IDC inventory watcher");
+			this.context = context;
+			this.inventory = inventory;
+			this.cmd = cmd;
+			this.kinds = kinds;
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			long delay = MIN_RESTART_DELAY_MILLIS;
+			while (watchingEnabled && !isInterrupted()) {
+				long started = System.currentTimeMillis();
+				try {
+					ProcessRunner pr = TaskUtils.createRunnerForCmd(cmd, context, false);
+					// The watcher outlives the command that started it, and the directory of its application
+					pr.setWorkingDirectory(null);
+					pr.setCapture(new OutputCapture(WATCHER_CAPTURE_LIMIT, false));
+					pr.addListener(line -> {
+						Kind kind = getKind(line.trim());
+						if (kind != null) {
+							inventory.invalidate(kind);
+						}
+					});
+					CompletableFuture<ProcessResult> result = pr.start();
+
+					// Changes made before the watcher started were not seen
+					inventory.invalidate(kinds.toArray(new Kind[kinds.size()]));
+					for (Kind kind : kinds) {
+						watched.add(inventory.getWatchKey(kind));
+					}
+					try {
+						ProcessRunner.waitFor(result);
+					} finally {
+						for (Kind kind : kinds) {
+							watched.remove(inventory.getWatchKey(kind));
+						}
+					}
+					Logger.error("The inventory watcher '" + String.join(" ", cmd.getArgs()) + "' exited with code "
+							+ pr.getErrorCode().orElse(-1));
+				} catch (InterruptedException e) {
+					return;
+				} catch (IOException | RuntimeException e) {
+					Logger.error("Unable to watch the environment with '" + String.join(" ", cmd.getArgs()) + "'", e);
+				}
+
+				// Restart promptly after a watcher that ran for a while, and back off from one that keeps failing
+				if (System.currentTimeMillis() - started > MAX_RESTART_DELAY_MILLIS) {
+					delay = MIN_RESTART_DELAY_MILLIS;
+				}
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException e) {
+					return;
+				}
+				delay = Math.min(delay * 2, MAX_RESTART_DELAY_MILLIS);
+			}
+		}
+
+		private Kind getKind(String line) {
+			if (line.isEmpty()) {
+				return null;
+			}
+			if (kinds.size() == 1) {
+				return kinds.get(0);
+			}
+			if (line.startsWith("container")) {
+				return Kind.CONTAINERS;
+			} else if (line.startsWith("image")) {
+				return Kind.IMAGE;
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,220 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.iterdev;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal JSON decoder, for the responses of the Docker Engine API (see DockerClient). Objects are decoded as
+ * Maps, arrays as Lists, numbers as Doubles, and true, false and null as Booleans and null.
+ */
+public class Json {
+
+	private final String text;
+
+	private int pos = 0;
+
+	private Json(String text) {
+		this.text = text;
+	}
+
+	/** Decode the given JSON text; throws IllegalArgumentException if it is not valid JSON. */
+	public static Object parse(String text) {
+		Json json = new Json(text);
+		Object value = json.value();
+		json.skipWhitespace();
+		if (json.pos != text.length()) {
+			throw json.error("Unexpected text after the value");
+		}
+		return value;
+	}
+
+	/** Return the given value of a decoded object as a string, or null if it is missing or is not a string. */
+	public static String getString(Object object, String key) {
+		Object value = object instanceof Map ? ((Map<?, ?>) object).get(key) : null;
+		return value instanceof String ? (String) value : null;
+	}
+
+	/** Return the given value of a decoded object as a list, or an empty list if it is missing or is not an array. */
+	public static List<?> getList(Object object, String key) {
+		Object value = object instanceof Map ? ((Map<?, ?>) object).get(key) : null;
+		return value instanceof List ? (List<?>) value : new ArrayList<>();
+	}
+
+	private Object value() {
+		skipWhitespace();
+		if (pos >= text.length()) {
+			throw error("Unexpected end of text");
+		}
+		char c = text.charAt(pos);
+		switch (c) {
+		case '{':
+			return object();
+		case '[':
+			return array();
+		case '"':
+			return string();
+		case 't':
+			return literal("true", Boolean.TRUE);
+		case 'f':
+			return literal("false", Boolean.FALSE);
+		case 'n':
+			return literal("null", null);
+		default:
+			return number();
+		}
+	}
+
+	private Map<String, Object> object() {
+		Map<String, Object> map = new LinkedHashMap<>();
+		pos++;
+		skipWhitespace();
+		if (peek() == '}') {
+			pos++;
+			return map;
+		}
+		while (true) {
+			skipWhitespace();
+			if (peek() != '"') {
+				throw error("Expected a string");
+			}
+			String key = string();
+			skipWhitespace();
+			expect(':');
+			map.put(key, value());
+			skipWhitespace();
+			if (peek() == ',') {
+				pos++;
+			} else {
+				expect('}');
+				return map;
+			}
+		}
+	}
+
+	private List<Object> array() {
+		List<Object> list = new ArrayList<>();
+		pos++;
+		skipWhitespace();
+		if (peek() == ']') {
+			pos++;
+			return list;
+		}
+		while (true) {
+			list.add(value());
+			skipWhitespace();
+			if (peek() == ',') {
+				pos++;
+			} else {
+				expect(']');
+				return list;
+			}
+		}
+	}
+
+	private String string() {
+		StringBuilder sb = new StringBuilder();
+		pos++;
+		while (true) {
+			if (pos >= text.length()) {
+				throw error("Unterminated string");
+			}
+			char c = text.charAt(pos++);
+			if (c == '"') {
+				return sb.toString();
+			}
+			if (c != '\\') {
+				sb.append(c);
+				continue;
+			}
+			if (pos >= text.length()) {
+				throw error("Unterminated string");
+			}
+			char e = text.charAt(pos++);
+			switch (e) {
+			case 'b':
+				sb.append('\b');
+				break;
+			case 'f':
+				sb.append('\f');
+				break;
+			case 'n':
+				sb.append('\n');
+				break;
+			case 'r':
+				sb.append('\r');
+				break;
+			case 't':
+				sb.append('\t');
+				break;
+			case 'u':
+				if (pos + 4 > text.length()) {
+					throw error("Invalid unicode escape");
+				}
+				try {
+					sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+				} catch (NumberFormatException ex) {
+					throw error("Invalid unicode escape");
+				}
+				pos += 4;
+				break;
+			default:
+				sb.append(e);
+			}
+		}
+	}
+
+	private Double number() {
+		int start = pos;
+		while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+			pos++;
+		}
+		try {
+			return Double.valueOf(text.substring(start, pos));
+		} catch (NumberFormatException e) {
+			pos = start;
+			throw error("Unexpected character");
+		}
+	}
+
+	private Object literal(String literal, Object value) {
+		if (!text.startsWith(literal, pos)) {
+			throw error("Unexpected character");
+		}
+		pos += literal.length();
+		return value;
+	}
+
+	private char peek() {
+		return pos < text.length() ? text.charAt(pos) : 0;
+	}
+
+	private void expect(char c) {
+		if (peek() != c) {
+			throw error("Expected '" + c + "'");
+		}
+		pos++;
+	}
+
+	private void skipWhitespace() {
+		while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+			pos++;
+		}
+	}
+
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException(message + " at position " + pos + " of JSON text");
+	}
+}
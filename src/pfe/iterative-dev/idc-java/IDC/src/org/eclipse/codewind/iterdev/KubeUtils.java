@@ -11,16 +11,105 @@
 
 package org.eclipse.codewind.iterdev;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.eclipse.codewind.iterdev.tasks.TaskUtils;
 
 public class KubeUtils {
     public static String[] kubectlPs(IDCContext context) throws IOException, InterruptedException {
 		String[] result;
 
-		ProcessRunner pr = TaskUtils.runCmd("kubectl get po", context, false);
+		ProcessRunner pr = TaskUtils.runCmd(Cmd.of("kubectl", "get", "po"), context, false);
 		result = pr.getReceived().split("\\r?\\n");
 		return result;
 	}
+
+	/** Return the names of the deployments. */
+	public static List<String> listDeploymentNames(IDCContext context) throws IOException, InterruptedException {
+		ProcessRunner pr = TaskUtils.runCmd(Cmd.of("kubectl", "get", "deployments", "--no-headers=true",
+				"-o=custom-columns=NAME:.metadata.name"), context, false);
+		List<String> result = new ArrayList<>();
+		for (String str : pr.getReceived().split("\\r?\\n")) {
+			if (!str.trim().isEmpty()) {
+				result.add(str.trim());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Wait until there are no pods with the given label selector, for up to the given time. Rather than polling, this
+	 * uses 'kubectl wait --for=delete', which watches the pods and returns as soon as the last one is deleted.
+	 * @return true if there are no pods with the selector; false if some remain, or if they could not be listed
+	 */
+	public static boolean waitForPodsDeleted(IDCContext context, String selector, long timeoutSeconds)
+			throws IOException, InterruptedException {
+		ProcessRunner pr = TaskUtils.runCmd(Cmd.of("kubectl", "get", "pods", "-l", selector, "-o", "name"), context, false);
+		if (pr.getErrorCode().orElse(0) != 0) {
+			Logger.error("Error getting K8 pods with selector " + selector + ". Error code: " + pr.getErrorCode());
+			return false;
+		}
+		if (pr.getReceived().trim().isEmpty()) {
+			return true;
+		}
+
+		pr = TaskUtils.runCmd(Cmd.of("kubectl", "wait", "--for=delete", "pod", "-l", selector, "--timeout=" + timeoutSeconds + "s"),
+				context, false);
+		if (pr.getErrorCode().orElse(0) == 0) {
+			return true;
+		}
+
+		// kubectl wait also fails if the pods were deleted before it started watching them
+		pr = TaskUtils.runCmd(Cmd.of("kubectl", "get", "pods", "-l", selector, "-o", "name"), context, false);
+		return pr.getErrorCode().orElse(0) == 0 && pr.getReceived().trim().isEmpty();
+	}
+
+	/**
+	 * Return the hash of the *.yaml files in the given chart directory, in the same form as the output of:
+	 * find (chartDir) -type f -name "*.yaml" -exec sha256sum {} + | awk '{print $1}' | sort | sha256sum
+	 * 
+	 * That is, the SHA-256 of the sorted list of the SHA-256 hashes of each file, followed by "  -". Hashes stored in
+	 * the app db by earlier versions of IDC, which ran that command, are therefore still valid.
+	 */
+	public static String calculateChartDirHash(File chartDir, FingerprintCache fingerprints) throws IOException {
+		final List<File> yamlFiles = new ArrayList<File>();
+
+		// Like find, symbolic links are not followed, and only regular files are included
+		Files.walkFileTree(chartDir.toPath(), new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				if (attrs.isRegularFile() && file.getFileName().toString().endsWith(".yaml")) {
+					yamlFiles.add(file.toFile());
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException e) {
+				Logger.error("Unable to read " + file + " while calculating the chart hash");
+				return FileVisitResult.CONTINUE;
+			}
+		});
+
+		List<String> fileHashes = new ArrayList<String>(fingerprints.getHashes(yamlFiles, ContentHasher.get(ContentHasher.SHA256)).values());
+		Collections.sort(fileHashes);
+
+		StringBuilder sb = new StringBuilder();
+		for (String fileHash : fileHashes) {
+			sb.append(fileHash).append("\n");
+		}
+
+		return DigestUtils.sha256Hex(sb.toString().getBytes(StandardCharsets.US_ASCII)) + "  -";
+	}
 }
\ No newline at end of file
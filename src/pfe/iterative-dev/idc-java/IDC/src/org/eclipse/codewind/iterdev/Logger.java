@@ -44,6 +44,7 @@ public class Logger {
 		System.out.println();
 		printIDCCmd(Constants.OPTION_SYSTEM_CLEANUP);
 		printIDCCmd(Constants.OPTION_SHELL);
+		printIDCCmd(Constants.OPTION_METRICS);
 	}
 
 	private static void printIDCCmd(String cmd){
@@ -0,0 +1,270 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.iterdev;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Execution metrics of the external commands run by IDC, by operation (see Cmd.getOperation()): the time taken to
+ * start each command, the time until it completed, whether it failed, and the amount of output it wrote.
+ *
+ * Metrics are recorded in memory (by ProcessRunner and ExecSession), and added to the histograms kept in the
+ * .idc/metrics directory, one file per operation, when an IDC command completes; 'idc metrics' prints them.
+ */
+public class Metrics {
+
+	private static final String SUFFIX = ".metrics";
+
+	private static final String LOCK_FILE = ".lock";
+
+	/** The metrics of one operation */
+	public static class OperationMetrics {
+
+		final String operation;
+
+		long count = 0;
+
+		long failures = 0;
+
+		/** In microseconds */
+		final Histogram spawnTime = new Histogram();
+
+		/** In microseconds */
+		final Histogram wallTime = new Histogram();
+
+		final Histogram bytes = new Histogram();
+
+		final Histogram lines = new Histogram();
+
+		OperationMetrics(String operation) {
+			this.operation = operation;
+		}
+
+		void add(OperationMetrics other) {
+			count += other.count;
+			failures += other.failures;
+			spawnTime.add(other.spawnTime);
+			wallTime.add(other.wallTime);
+			bytes.add(other.bytes);
+			lines.add(other.lines);
+		}
+
+		public String getOperation() {
+			return operation;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getFailures() {
+			return failures;
+		}
+
+		public Histogram getSpawnTime() {
+			return spawnTime;
+		}
+
+		public Histogram getWallTime() {
+			return wallTime;
+		}
+
+		public Histogram getBytes() {
+			return bytes;
+		}
+
+		public Histogram getLines() {
+			return lines;
+		}
+	}
+
+	/** Metrics that have been recorded since the last flush */
+	private static final Map<String, OperationMetrics> pending = new TreeMap<>();
+
+	/**
+	 * Record a run of a command.
+	 * @param operation The operation the command was run for
+	 * @param spawnNanos The time taken to start the command
+	 * @param wallNanos The time from starting the command until it completed and its output was read
+	 * @param exitCode The exit code of the command
+	 * @param bytes The number of bytes of output written by the command
+	 * @param lines The number of lines of output written by the command
+	 */
+	public static void record(String operation, long spawnNanos, long wallNanos, int exitCode, long bytes, long lines) {
+		synchronized (pending) {
+			OperationMetrics m = pending.computeIfAbsent(operation, OperationMetrics::new);
+			m.count++;
+			if (exitCode != 0) {
+				m.failures++;
+			}
+			m.spawnTime.record(TimeUnit.NANOSECONDS.toMicros(spawnNanos));
+			m.wallTime.record(TimeUnit.NANOSECONDS.toMicros(wallNanos));
+			m.bytes.record(bytes);
+			m.lines.record(lines);
+		}
+	}
+
+	/** Return the directory the metrics are kept in. */
+	public static File getMetricsDir() {
+		return new File(IDCContext.resolveIDCBase(IDCContext.readIDCConfig()), Constants.METRICS_DIR);
+	}
+
+	/** Add the metrics recorded since the last flush to the metrics kept in the metrics directory. */
+	public static void flush() {
+		synchronized (pending) {
+			if (pending.isEmpty()) {
+				return;
+			}
+		}
+		try {
+			flush(getMetricsDir());
+		} catch (RuntimeException e) {
+			Logger.error("Unable to save metrics: " + e.getMessage());
+		}
+	}
+
+	/** Add the metrics recorded since the last flush to the metrics kept in the given directory. */
+	public static void flush(File metricsDir) {
+		Map<String, OperationMetrics> recorded;
+		synchronized (pending) {
+			if (pending.isEmpty()) {
+				return;
+			}
+			recorded = new TreeMap<>(pending);
+			pending.clear();
+		}
+
+		if (!metricsDir.exists() && !metricsDir.mkdirs()) {
+			Logger.error("Unable to create the metrics directory " + metricsDir);
+			return;
+		}
+
+		// Other IDC processes may be flushing their metrics at the same time
+		try (RandomAccessFile lockFile = new RandomAccessFile(new File(metricsDir, LOCK_FILE), "rw")) {
+			FileLock lock = lockFile.getChannel().lock();
+			try {
+				for (OperationMetrics m : recorded.values()) {
+					File file = new File(metricsDir, getFileName(m.operation));
+					OperationMetrics stored = file.exists() ? read(file) : null;
+					if (stored != null && stored.operation.equals(m.operation)) {
+						m.add(stored);
+					}
+					write(m, file);
+				}
+			} finally {
+				lock.release();
+			}
+		} catch (IOException e) {
+			Logger.error("Unable to save metrics to " + metricsDir, e);
+		}
+	}
+
+	/** Return the metrics kept in the given directory, by operation. */
+	public static Map<String, OperationMetrics> load(File metricsDir) {
+		Map<String, OperationMetrics> result = new TreeMap<>();
+		File[] files = metricsDir.listFiles((dir, name) -> name.endsWith(SUFFIX));
+		if (files == null) {
+			return result;
+		}
+		for (File file : files) {
+			OperationMetrics m = read(file);
+			if (m != null) {
+				result.put(m.operation, m);
+			}
+		}
+		return result;
+	}
+
+	/** Print the percentiles of the metrics kept in the given directory, for 'idc metrics'. */
+	public static void print(File metricsDir, PrintStream out) {
+		Map<String, OperationMetrics> metrics = load(metricsDir);
+		if (metrics.isEmpty()) {
+			out.println("No metrics have been recorded in " + metricsDir);
+			return;
+		}
+
+		out.println(String.format("%-24s %7s %6s %27s %27s %20s", "OPERATION", "COUNT", "FAILED",
+				"TIME p50/p95/p99 (ms)", "START p50/p95/p99 (ms)", "OUTPUT p50/p99 (KB)"));
+		for (OperationMetrics m : metrics.values()) {
+			out.println(String.format("%-24s %7d %6d %27s %27s %20s", m.operation, m.count, m.failures,
+					percentiles(m.wallTime, 1000.0, 50, 95, 99), percentiles(m.spawnTime, 1000.0, 50, 95, 99),
+					percentiles(m.bytes, 1024.0, 50, 99)));
+		}
+	}
+
+	private static String percentiles(Histogram h, double scale, double... percentiles) {
+		StringBuilder sb = new StringBuilder();
+		for (double p : percentiles) {
+			if (sb.length() > 0) {
+				sb.append('/');
+			}
+			sb.append(String.format("%.1f", h.getValueAtPercentile(p) / scale));
+		}
+		return sb.toString();
+	}
+
+	/** Operations may contain spaces (for example, 'docker ps'); the name of the file is only used to find it. */
+	private static String getFileName(String operation) {
+		return operation.replaceAll("[^\\w.-]", "_") + "-" + Integer.toHexString(operation.hashCode()) + SUFFIX;
+	}
+
+	private static OperationMetrics read(File file) {
+		try (BufferedReader br = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			Map<String, String> values = new TreeMap<>();
+			String line;
+			while ((line = br.readLine()) != null) {
+				int space = line.indexOf(' ');
+				if (space > 0) {
+					values.put(line.substring(0, space), line.substring(space + 1));
+				}
+			}
+
+			OperationMetrics m = new OperationMetrics(values.get("operation"));
+			m.count = Long.parseLong(values.get("count"));
+			m.failures = Long.parseLong(values.get("failures"));
+			m.spawnTime.add(Histogram.decode(values.get("spawnTime")));
+			m.wallTime.add(Histogram.decode(values.get("wallTime")));
+			m.bytes.add(Histogram.decode(values.get("bytes")));
+			m.lines.add(Histogram.decode(values.get("lines")));
+			return m.operation != null ? m : null;
+		} catch (IOException | RuntimeException e) {
+			Logger.error("Ignoring unreadable metrics file " + file + ": " + e);
+			return null;
+		}
+	}
+
+	private static void write(OperationMetrics m, File file) throws IOException {
+		File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+		try (Writer w = Files.newBufferedWriter(tmpFile.toPath(), StandardCharsets.UTF_8)) {
+			w.write("operation " + m.operation + "\n");
+			w.write("count " + m.count + "\n");
+			w.write("failures " + m.failures + "\n");
+			w.write("spawnTime " + m.spawnTime.encode() + "\n");
+			w.write("wallTime " + m.wallTime.encode() + "\n");
+			w.write("bytes " + m.bytes.encode() + "\n");
+			w.write("lines " + m.lines.encode() + "\n");
+		}
+		Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
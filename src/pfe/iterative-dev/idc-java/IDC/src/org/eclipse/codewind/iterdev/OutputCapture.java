@@ -0,0 +1,202 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.iterdev;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The output lines of a process (see ProcessRunner), held in memory. By default all of the output is held; a capture
+ * can instead be given a limit, for processes whose output may be too large to hold (such as builds). Once the limit
+ * is reached, the oldest lines are dropped, so only the end of the output is kept, unless spilling is enabled, in which
+ * case all of the output is written to a temporary file, which is read back by iterator().
+ *
+ * A capture that may spill should be closed once its output has been read, to delete the temporary file.
+ */
+public class OutputCapture implements Iterable<String>, Closeable {
+
+	private final long limit;
+
+	private final boolean spill;
+
+	private final ArrayDeque<String> lines = new ArrayDeque<>();
+
+	/** Characters held in memory, including line separators */
+	private long size = 0;
+
+	/** True if lines were dropped, and are not in the spill file */
+	private boolean truncated = false;
+
+	private File spillFile;
+
+	private Writer spillWriter;
+
+	/** Capture all of the output, without a limit. */
+	public OutputCapture() {
+		this.limit = Long.MAX_VALUE;
+		this.spill = false;
+	}
+
+	/**
+	 * @param limit Maximum number of characters of output to hold in memory
+	 * @param spill Whether to write the output to a temporary file once the limit is reached, rather than dropping it
+	 */
+	public OutputCapture(int limit, boolean spill) {
+		this.limit = limit;
+		this.spill = spill;
+	}
+
+	public synchronized void append(String line) {
+		if (spillWriter != null) {
+			try {
+				spillWriter.write(line);
+				spillWriter.write('\n');
+			} catch (IOException e) {
+				Logger.error("Unable to write process output to " + spillFile.getPath() + ", the output will be truncated: "
+						+ e.getMessage());
+				stopSpilling();
+			}
+		}
+
+		lines.addLast(line);
+		size += line.length() + 1;
+		while (size > limit && lines.size() > 1) {
+			if (spill && spillWriter == null && spillFile == null) {
+				startSpilling();
+			}
+			String removed = lines.removeFirst();
+			size -= removed.length() + 1;
+			if (spillWriter == null) {
+				truncated = true;
+			}
+		}
+	}
+
+	/** True if some of the output was dropped, because it was over the limit and could not be spilled. */
+	public synchronized boolean isTruncated() {
+		return truncated;
+	}
+
+	/** Iterate over the captured lines, reading them back from the spill file if the output was spilled. */
+	@Override
+	public synchronized Iterator<String> iterator() {
+		if (spillWriter == null) {
+			return new ArrayList<>(lines).iterator();
+		}
+
+		try {
+			spillWriter.flush();
+			return new LineIterator(
+					new BufferedReader(new InputStreamReader(new FileInputStream(spillFile), StandardCharsets.UTF_8)));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/** Return all of the captured lines, each followed by a line separator. */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (String line : this) {
+			sb.append(line).append('\n');
+		}
+		return sb.toString();
+	}
+
+	/** Delete the spill file, if any. */
+	@Override
+	public synchronized void close() {
+		stopSpilling();
+	}
+
+	private void startSpilling() {
+		try {
+			spillFile = File.createTempFile("idc-output", ".log");
+			spillFile.deleteOnExit();
+			spillWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(spillFile), StandardCharsets.UTF_8));
+			for (String line : lines) {
+				spillWriter.write(line);
+				spillWriter.write('\n');
+			}
+		} catch (IOException e) {
+			Logger.error("Unable to create a file for process output, the output will be truncated: " + e.getMessage());
+			stopSpilling();
+		}
+	}
+
+	private void stopSpilling() {
+		if (spillWriter != null) {
+			try {
+				spillWriter.close();
+			} catch (IOException e) {
+				/* ignore */
+			}
+			spillWriter = null;
+			// The lines before the ones in memory are lost along with the file
+			truncated = true;
+		}
+		if (spillFile != null) {
+			spillFile.delete();
+		}
+	}
+
+	/** Reads lines from a reader, closing it at the end. */
+	private static class LineIterator implements Iterator<String> {
+		private final BufferedReader reader;
+		private String next;
+
+		LineIterator(BufferedReader reader) throws IOException {
+			this.reader = reader;
+			advance();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public String next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			String result = next;
+			try {
+				advance();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return result;
+		}
+
+		private void advance() throws IOException {
+			next = reader.readLine();
+			if (next == null) {
+				reader.close();
+			}
+		}
+	}
+}
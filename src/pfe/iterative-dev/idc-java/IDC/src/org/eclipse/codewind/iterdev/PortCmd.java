@@ -88,7 +88,7 @@ public class PortCmd {
 			System.out.println("* Stopping container "+context.getContainerName());
 			
 			// stop the old container id
-			ProcessRunner pr = TaskUtils.runCmd("docker stop "+context.getContainerName(), context, true);
+			ProcessRunner pr = TaskUtils.runCmd(Cmd.of("docker", "stop", context.getContainerName()), context, true);
 			if(0 != pr.getErrorCode().orElseThrow( () -> new IllegalStateException()) ) {
 				Logger.error("Unable to stop container.");
 				return;
@@ -97,7 +97,7 @@ public class PortCmd {
 			System.out.println("* Removing container "+context.getContainerName());
 			
 			// delete the old container id
-			pr = TaskUtils.runCmd("docker rm  "+context.getContainerName(), context, true);
+			pr = TaskUtils.runCmd(Cmd.of("docker", "rm", context.getContainerName()), context, true);
 			if(0 != pr.getErrorCode().orElseThrow( () -> new IllegalStateException()) ) {
 				Logger.error("Unable to stop container.");
 				return;
@@ -108,7 +108,10 @@ public class PortCmd {
 			// Remove old ports from DB
 			PortMapUtil.removePortMapping(context, PortMapUtil.HTTP_PORT);
 			PortMapUtil.removePortMapping(context, PortMapUtil.HTTPS_PORT);
-			PortMapUtil.reservePortsInDatabase(context, newPorts);
+			if(!PortMapUtil.reservePortsInDatabase(context, newPorts)) {
+				Logger.error("Unable to reserve ports, they have been reserved by another application.");
+				return;
+			}
 			
 			
 			System.out.println("* Run a new container "+context.getContainerName());
@@ -112,12 +112,37 @@ public class PortMapUtil {
 		
 	}
 	
-	public static void reservePortsInDatabase(IDCContext context, Map<String, Integer> ports) {
+	/** Reserve the given ports for this application, unless another application has reserved any of them since they
+	 * were returned by getPortsForApplication(...), in which case nothing is reserved and false is returned. The check 
+	 * and the reservation are made in a single transaction on the global database, so concurrent IDC processes are 
+	 * unable to reserve the same port. */
+	public static boolean reservePortsInDatabase(IDCContext context, Map<String, Integer> ports) {
 		
-		ports.entrySet().stream().forEach( e -> {
-			putPortMapping(context, e.getKey(), e.getValue());
-		});
+		DBMap globalDb = context.getGlobalDb();
+		
+		globalDb.begin();
+		try {
+			boolean portInUse = getPortMappingsFromDatabase(globalDb).values().stream()
+					.filter(e -> !e.getAppId().equals(context.getAppId()))
+					.flatMap(e -> e.getMap().values().stream())
+					.anyMatch(port -> ports.containsValue(port));
+			
+			if(portInUse) {
+				globalDb.rollback();
+				return false;
+			}
+			
+			ports.entrySet().stream().forEach( e -> {
+				putPortMapping(context, e.getKey(), e.getValue());
+			});
+			
+		} catch(RuntimeException e) {
+			globalDb.rollback();
+			throw e;
+		}
+		globalDb.commit();
 		
+		return true;
 	}
 	
 	
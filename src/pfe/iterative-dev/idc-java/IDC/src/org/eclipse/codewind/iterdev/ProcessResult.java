@@ -0,0 +1,39 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.iterdev;
+
+/** The result of a process started by ProcessRunner.start(), once it has exited and all of its output has been read. */
+public class ProcessResult {
+
+	private final int errorCode;
+
+	private final OutputCapture received;
+
+	public ProcessResult(int errorCode, OutputCapture received) {
+		this.errorCode = errorCode;
+		this.received = received;
+	}
+
+	public int getErrorCode() {
+		return errorCode;
+	}
+
+	/** The output (stdout and stderr) of the process */
+	public String getReceived() {
+		return received.toString();
+	}
+
+	/** The output of the process, which can be read a line at a time. */
+	public OutputCapture getCapture() {
+		return received;
+	}
+}
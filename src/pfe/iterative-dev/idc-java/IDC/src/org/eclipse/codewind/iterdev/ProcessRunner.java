@@ -12,6 +12,8 @@
 package org.eclipse.codewind.iterdev;
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -22,11 +24,33 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ProcessRunner {
 	
 	public static enum ConsoleStream {ERR, OUT }; 
 
+	/** Kills processes that have run for longer than their timeout */
+	private static final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "IDC process watchdog");
+		t.setDaemon(true);
+		return t;
+	});
+
+	/**
+	 * How long the standard error of a process that has exited is read for; a background process started by the process
+	 * (for example, a server started by a script) may hold it open indefinitely.
+	 */
+	private static final long STDERR_DRAIN_MILLIS = 1000;
 
 	private final String[] args;
 	
@@ -36,14 +60,26 @@ public class ProcessRunner {
 	
 	private final List<IListener> listeners = new ArrayList<>();
 	
-	private final StringBuilder received = new StringBuilder();
+	private OutputCapture received = new OutputCapture();
 	
 	private final boolean echoOutput;
 	
-	private Optional<Integer> errorCode = Optional.empty();
+	private volatile Optional<Integer> errorCode = Optional.empty();
 	
 	private final Map<String, String> envVars = new HashMap<String, String>();
 	
+	private File workingDirectory = null;
+	
+	private String input = null;
+	
+	private long timeoutMillis = 0;
+	
+	private volatile Process process = null;
+	
+	private volatile boolean timedOut = false;
+	
+	private String operation = null;
+	
 	public ProcessRunner(String[] args) {
 		this.args = args;
 		this.echoOutput = true;
@@ -56,31 +92,154 @@ public class ProcessRunner {
 	}
 	
 	public int startAndWaitForTermination() throws IOException, InterruptedException {
+		return waitFor(start()).getErrorCode();
+	}
+
+	/**
+	 * Start the process, and return a future that is completed when the process has exited and all of its output
+	 * (stdout and stderr) has been read.
+	 *
+	 * Cancelling the future kills the process and its descendants (see ProcessTree), as does the timeout, if one is
+	 * set; the future of a process that has timed out is completed with the (non-zero) exit code of the killed process.
+	 */
+	public CompletableFuture<ProcessResult> start() throws IOException {
 		
 		ProcessBuilder pb = new ProcessBuilder(args);
 		
+		if(workingDirectory != null) {
+			pb.directory(workingDirectory);
+		}
+		
 		envVars.entrySet().stream().forEach( e -> {
 			pb.environment().put(e.getKey(), e.getValue());
 		});
 		
 		
+		long startTime = System.nanoTime();
 		Process p = pb.start();
+		long spawnTime = System.nanoTime() - startTime;
+		process = p;
 		
 		os = p.getOutputStream();
 		
+		if(input != null) {
+			try {
+				os.write(input.getBytes());
+			} finally {
+				os.close();
+			}
+		}
+		
 		ReadThread input = new ReadThread(p.getInputStream(), echoOutput ? System.out : null, ConsoleStream.OUT);
 		input.start();
 		
 		ReadThread err = new ReadThread(p.getErrorStream(), echoOutput ? System.err : null, ConsoleStream.ERR);
 		err.start();
 
-		errorCode = Optional.of(p.waitFor());
+		// Completed once the process has exited and its standard output has been read; the rest of its standard error is
+		// then read for a short while only
+		CompletableFuture<ProcessResult> result = input.finished.thenApply(v -> {
+			try {
+				errorCode = Optional.of(p.waitFor());
+				err.finished.get(STDERR_DRAIN_MILLIS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				ProcessTree.kill(p);
+				throw new CompletionException(e);
+			} catch (TimeoutException | ExecutionException e) {
+				/* the reader carries on in the background */
+			}
+			return new ProcessResult(errorCode.get(), received);
+		});
 
-		while(!input.isFinished) {
-			Thread.sleep(200);
+		ScheduledFuture<?> deadline = null;
+		if (timeoutMillis > 0) {
+			deadline = watchdog.schedule(IDCDaemon.withCurrentTarget(() -> {
+				if (p.isAlive()) {
+					timedOut = true;
+					Logger.error("Killing process that did not complete within " + timeoutMillis + " ms: " + String.join(" ", args));
+					ProcessTree.kill(p);
+				}
+			}), timeoutMillis, TimeUnit.MILLISECONDS);
 		}
-		
-		return errorCode.get();
+
+		ScheduledFuture<?> scheduled = deadline;
+		result.whenComplete((r, t) -> {
+			if (scheduled != null) {
+				scheduled.cancel(false);
+			}
+			if (t instanceof CancellationException) {
+				ProcessTree.kill(p);
+			}
+			Metrics.record(getOperation(), spawnTime, System.nanoTime() - startTime, r != null ? r.getErrorCode() : -1,
+					input.bytes.get() + err.bytes.get(), input.lines.get() + err.lines.get());
+		});
+		return result;
+	}
+
+	/** Kill the process, and any processes it has started; the process must have been started. */
+	public void cancel() {
+		Process p = process;
+		if (p != null && p.isAlive()) {
+			ProcessTree.kill(p);
+		}
+	}
+
+	/**
+	 * Wait for the result of a process started with start(); if the waiting thread is interrupted, the process is
+	 * killed.
+	 */
+	public static ProcessResult waitFor(CompletableFuture<ProcessResult> future) throws IOException, InterruptedException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			throw e;
+		} catch (CancellationException e) {
+			throw new InterruptedException("The process was cancelled.");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof InterruptedException) {
+				throw (InterruptedException) cause;
+			} else if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+	
+	/** The directory to start the process in; by default the process inherits the working directory of IDC. */
+	public void setWorkingDirectory(File workingDirectory) {
+		this.workingDirectory = workingDirectory;
+	}
+	
+	/** Text to write to the standard input of the process once it has started; stdin is closed afterwards. */
+	public void setInput(String input) {
+		this.input = input;
+	}
+	
+	/**
+	 * Kill the process (and its descendants) if it has not exited within the given time after it was started; 0 (the
+	 * default) for no timeout. Must be called before the process is started.
+	 */
+	public void setTimeout(long timeoutMillis) {
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/** The operation to record the metrics of the process under; by default, the name of the program. */
+	public void setOperation(String operation) {
+		this.operation = operation;
+	}
+
+	public String getOperation() {
+		if (operation != null) {
+			return operation;
+		}
+		return args.length == 0 ? "" : new File(args[0]).getName();
+	}
+
+	/** Return true if the process was killed because it did not exit within its timeout. */
+	public boolean isTimedOut() {
+		return timedOut;
 	}
 	
 	public Map<String, String> getEnvVars() {
@@ -91,6 +250,17 @@ public class ProcessRunner {
 		return received.toString();
 	}
 
+	/** The captured output of the process, which can be read a line at a time. */
+	public OutputCapture getCapture() {
+		return received;
+	}
+
+	/** Set how the output of the process is captured (all of it is held in memory unless a capture with a limit is
+	 * set); must be called before the process is started. */
+	public void setCapture(OutputCapture capture) {
+		this.received = capture;
+	}
+
 	public void addListener(IListener listener) {
 		synchronized (listeners) {
 			listeners.add(listener);	
@@ -116,10 +286,34 @@ public class ProcessRunner {
 		final InputStream is;
 		final PrintStream ps;
 		final ConsoleStream cs;
-		private boolean isFinished = false;
+		final CompletableFuture<Void> finished = new CompletableFuture<>();
+		final AtomicLong bytes = new AtomicLong();
+		final AtomicLong lines = new AtomicLong();
+
+		/** The output of the process goes to the client of the daemon request (if any) that started it */
+		final Runnable reader = IDCDaemon.withCurrentTarget(this::read);
 		
 		public ReadThread(InputStream is, PrintStream ps, ConsoleStream cs) {
-			this.is = is;
+			// Count the bytes written by the process, before they are decoded into lines
+			this.is = new FilterInputStream(is) {
+				@Override
+				public int read() throws IOException {
+					int b = super.read();
+					if (b >= 0) {
+						bytes.incrementAndGet();
+					}
+					return b;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					int n = super.read(b, off, len);
+					if (n > 0) {
+						bytes.addAndGet(n);
+					}
+					return n;
+				}
+			};
 			this.ps = ps;
 			this.cs = cs;
 			setDaemon(true);
@@ -127,7 +321,10 @@ public class ProcessRunner {
 		
 		@Override
 		public void run() {
-			
+			reader.run();
+		}
+
+		private void read() {
 			BufferedReader br = new BufferedReader(new InputStreamReader(is));
 			
 			String str;
@@ -145,9 +342,8 @@ public class ProcessRunner {
 						ps.append(str+"\n");
 					}
 					
-					synchronized(received) {
-						received.append(str+"\n");
-					}
+					received.append(str);
+					lines.incrementAndGet();
 					
 					
 					for(IListener listener : listeners) {
@@ -155,9 +351,10 @@ public class ProcessRunner {
 					}
 					
 				}
-				isFinished = true;
 			} catch (IOException e) {
 				e.printStackTrace();
+			} finally {
+				finished.complete(null);
 			}
 			
 		}
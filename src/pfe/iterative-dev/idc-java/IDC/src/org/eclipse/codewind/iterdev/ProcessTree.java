@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.iterdev;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Kills a process along with all of its descendants (for example, the docker client started by a script that was
+ * started by bash), which Process.destroy() does not do.
+ *
+ * The descendants are found from the parent process ids in /proc/(pid)/stat. To stop the tree from growing while it
+ * is being killed, each process found is first stopped (SIGSTOP), and the tree is searched again until no new
+ * processes are found; then they are all killed (SIGKILL). Where there is no /proc (or the process id is not
+ * available), only the process itself is killed.
+ */
+public class ProcessTree {
+
+	private static final File PROC = new File("/proc");
+
+	/** Kill the given process and its descendants. */
+	public static void kill(Process process) {
+		long pid = getPid(process);
+		if (pid <= 0 || !PROC.isDirectory()) {
+			process.destroyForcibly();
+			return;
+		}
+
+		Set<Long> tree = new LinkedHashSet<>();
+		tree.add(pid);
+		signal("STOP", tree);
+		while (true) {
+			Set<Long> found = new LinkedHashSet<>(descendants(tree));
+			found.removeAll(tree);
+			if (found.isEmpty()) {
+				break;
+			}
+			signal("STOP", found);
+			tree.addAll(found);
+		}
+		signal("KILL", tree);
+		process.destroyForcibly();
+	}
+
+	/** Return the processes whose parent is one of the given processes, or one of their descendants. */
+	public static Set<Long> descendants(Set<Long> pids) {
+		Map<Long, List<Long>> children = new HashMap<>();
+		File[] entries = PROC.listFiles();
+		if (entries == null) {
+			return new LinkedHashSet<>();
+		}
+
+		for (File entry : entries) {
+			String name = entry.getName();
+			if (name.isEmpty() || !Character.isDigit(name.charAt(0))) {
+				continue;
+			}
+			try {
+				String stat = new String(Files.readAllBytes(new File(entry, "stat").toPath()), StandardCharsets.UTF_8);
+				// pid (comm) state ppid ...; the command name may contain spaces and parentheses
+				String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+				long ppid = Long.parseLong(fields[1]);
+				children.computeIfAbsent(ppid, k -> new ArrayList<>()).add(Long.parseLong(name));
+			} catch (IOException | RuntimeException e) {
+				// The process has exited
+			}
+		}
+
+		Set<Long> result = new LinkedHashSet<>();
+		List<Long> queue = new ArrayList<>(pids);
+		for (int i = 0; i < queue.size(); i++) {
+			for (Long child : children.getOrDefault(queue.get(i), new ArrayList<>())) {
+				if (result.add(child)) {
+					queue.add(child);
+				}
+			}
+		}
+		return result;
+	}
+
+	/** Return the process id of the given process, or -1 if it is not available. */
+	public static long getPid(Process process) {
+		try {
+			// Java 9 and later
+			Method pid = Process.class.getMethod("pid");
+			return (Long) pid.invoke(process);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			/* fall through */
+		}
+		try {
+			// Java 8 on Unixes (java.lang.UNIXProcess)
+			Field pid = process.getClass().getDeclaredField("pid");
+			pid.setAccessible(true);
+			return pid.getInt(process);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return -1;
+		}
+	}
+
+	private static void signal(String signal, Set<Long> pids) {
+		List<String> args = new ArrayList<>();
+		args.add("kill");
+		args.add("-" + signal);
+		for (Long pid : pids) {
+			args.add(pid.toString());
+		}
+		try {
+			Process kill = new ProcessBuilder(args).redirectErrorStream(true).start();
+			kill.getInputStream().close();
+			kill.waitFor(10, TimeUnit.SECONDS);
+		} catch (IOException e) {
+			Logger.error("Unable to send SIG" + signal + " to processes " + pids + ": " + e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,319 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.iterdev;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Watches the files of each project that a resident IDC process (see IDCDaemon) builds, and keeps track of which
+ * kinds of files (pom, Liberty config, Dockerfiles, chart, other source) have changed.
+ *
+ * Each kind of file has a generation number, which is incremented by every change to a file of that kind. The hashes
+ * that decide what to rebuild (for example, the pom.xml hash) are remembered along with the generation they were
+ * calculated in, and are only calculated again once the generation changes, so for an unchanged project they are
+ * looked up rather than recalculated.
+ *
+ * Watching is only enabled in the resident IDC process, and only on Linux, where the WatchService is backed by
+ * inotify (on other platforms, the JDK polls for changes, so a change may not be seen before the next build). If the
+ * project can't be watched (for example, the inotify watch limit is reached), the hashes are always calculated.
+ */
+public class ProjectWatcher {
+
+	public enum Category {
+		POM, CONFIG, DOCKERFILE, CHART, SOURCE
+	}
+
+	public interface HashCalculation {
+		public String calculate() throws IOException;
+	}
+
+	private static final String CONFIG_DIR = "src/main/liberty/config";
+
+	private static final String CHART_DIR = "chart";
+
+	/** Build output, which changes during every build and does not affect the decisions */
+	private static final String TARGET_DIR = "target";
+
+	/** Version control, IDE and IDC metadata at the top of the project, which does not affect the build (unlike other
+	 * hidden directories, such as .mvn) */
+	private static final List<String> METADATA_DIRS = Arrays.asList(".git", ".svn", ".hg", ".idc", ".idea", ".vscode",
+			".settings");
+
+	private static volatile boolean enabled = false;
+
+	private static final Map<File, ProjectWatcher> watchers = new ConcurrentHashMap<>();
+
+	private static final Map<WatchKey, ProjectWatcher> watchKeys = new ConcurrentHashMap<>();
+
+	private static WatchService watchService;
+
+	private final Path root;
+
+	private final AtomicLongArray generations = new AtomicLongArray(Category.values().length);
+
+	private final Map<String, Memo> memos = new ConcurrentHashMap<>();
+
+	/** False if some directories of the project could not be watched */
+	private volatile boolean reliable = true;
+
+	/** Becomes invalid if the project directory is deleted (or replaced) */
+	private WatchKey rootKey;
+
+	private ProjectWatcher(Path root) {
+		this.root = root;
+	}
+
+	/** Start (or stop) watching projects, if the platform supports it. */
+	public static synchronized void setEnabled(boolean enable) {
+		if (enable == enabled) {
+			return;
+		}
+
+		if (!enable) {
+			enabled = false;
+			try {
+				watchService.close();
+			} catch (IOException e) {
+				/* ignore */
+			}
+			watchers.clear();
+			watchKeys.clear();
+			return;
+		}
+
+		if (!System.getProperty("os.name", "").toLowerCase().startsWith("linux")) {
+			Logger.info("Project file watching is only supported on Linux");
+			return;
+		}
+
+		try {
+			watchService = FileSystems.getDefault().newWatchService();
+		} catch (IOException e) {
+			Logger.error("Unable to watch project files", e);
+			return;
+		}
+
+		final WatchService ws = watchService;
+		Thread t = new Thread(() -> {
+			try {
+				while (true) {
+					WatchKey key = ws.take();
+					synchronized (ProjectWatcher.class) {
+						processKey(key);
+					}
+				}
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				/* ignore, watching has stopped */
+			}
+		}, "IDC project watcher");
+		t.setDaemon(true);
+		t.start();
+
+		enabled = true;
+	}
+
+	/**
+	 * Return the hash calculated by the given calculation, which must only depend on files of the given category in
+	 * the given project (and on the variant, for example the name of the content hasher). If the project is watched,
+	 * and no files of that category have changed since the hash was last calculated, the hash is returned without
+	 * calling the calculation.
+	 */
+	public static String getHash(File appDir, Category category, String variant, HashCalculation calculation)
+			throws IOException {
+		if (!enabled) {
+			return calculation.calculate();
+		}
+
+		ProjectWatcher watcher;
+		synchronized (ProjectWatcher.class) {
+			appDir = appDir.getAbsoluteFile();
+			watcher = watchers.get(appDir);
+			if (watcher == null || watcher.rootKey == null || !watcher.rootKey.isValid()) {
+				watcher = new ProjectWatcher(appDir.toPath());
+				watcher.registerAll(watcher.root);
+				watchers.put(appDir, watcher);
+			}
+
+			// Apply any changes that the watcher thread has not processed yet
+			WatchKey key;
+			while ((key = watchService.poll()) != null) {
+				processKey(key);
+			}
+		}
+
+		return watcher.getHash(category, variant, calculation);
+	}
+
+	private String getHash(Category category, String variant, HashCalculation calculation) throws IOException {
+		if (!reliable) {
+			return calculation.calculate();
+		}
+
+		String memoKey = category + ":" + variant;
+
+		// Read the generation before calculating, so that a change made during the calculation invalidates the result
+		long generation = generations.get(category.ordinal());
+		Memo memo = memos.get(memoKey);
+		if (memo != null && memo.generation == generation) {
+			return memo.hash;
+		}
+
+		String hash = calculation.calculate();
+		memos.put(memoKey, new Memo(generation, hash));
+		return hash;
+	}
+
+	private static void processKey(WatchKey key) {
+		ProjectWatcher watcher = watchKeys.get(key);
+		if (watcher == null) {
+			key.cancel();
+			return;
+		}
+
+		Path dir = (Path) key.watchable();
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				// Events were lost, so treat everything as changed
+				for (Category c : Category.values()) {
+					watcher.changed(c);
+				}
+				continue;
+			}
+
+			Path path = dir.resolve((Path) event.context());
+			watcher.changed(watcher.classify(path));
+
+			if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+					&& Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS) && !watcher.isIgnored(path)) {
+				watcher.registerAll(path);
+				// Files may have been created in the directory before it was registered
+				watcher.changedAll(path);
+			}
+		}
+
+		if (!key.reset()) {
+			// The directory was deleted
+			watchKeys.remove(key);
+		}
+	}
+
+	private void changed(Category category) {
+		generations.incrementAndGet(category.ordinal());
+	}
+
+	private void changedAll(Path dir) {
+		try {
+			Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) {
+					changed(classify(d));
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+					changed(classify(file));
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException e) {
+			for (Category c : Category.values()) {
+				changed(c);
+			}
+		}
+	}
+
+	private Category classify(Path path) {
+		return classify(root.relativize(path).toString().replace(File.separatorChar, '/'));
+	}
+
+	/** Return the category of the file or directory with the given path, relative to the project directory and
+	 * separated by '/'. */
+	public static Category classify(String relativePath) {
+		if (relativePath.equals("pom.xml")) {
+			return Category.POM;
+		} else if (relativePath.startsWith(CONFIG_DIR + "/") || relativePath.equals(CONFIG_DIR)) {
+			return Category.CONFIG;
+		} else if (relativePath.startsWith(CHART_DIR + "/") || relativePath.equals(CHART_DIR)) {
+			return Category.CHART;
+		} else if (relativePath.indexOf('/') == -1 && relativePath.startsWith("Dockerfile")) {
+			return Category.DOCKERFILE;
+		}
+		return Category.SOURCE;
+	}
+
+	private boolean isIgnored(Path dir) {
+		return isIgnoredDirectory(root.relativize(dir).toString().replace(File.separatorChar, '/'));
+	}
+
+	/** Return true for directories whose contents do not affect the build: the build output (target) and metadata
+	 * directories (such as .git) at the top of the project. */
+	public static boolean isIgnoredDirectory(String relativePath) {
+		if (relativePath.isEmpty()) {
+			return false;
+		}
+		int index = relativePath.indexOf('/');
+		String first = index == -1 ? relativePath : relativePath.substring(0, index);
+		return first.equals(TARGET_DIR) || METADATA_DIRS.contains(first);
+	}
+
+	private void registerAll(Path dir) {
+		try {
+			Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+					if (isIgnored(d)) {
+						return FileVisitResult.SKIP_SUBTREE;
+					}
+					WatchKey key = d.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+							StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+					watchKeys.put(key, ProjectWatcher.this);
+					if (d.equals(root)) {
+						rootKey = key;
+					}
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException e) {
+			Logger.error("Unable to watch " + dir + ", changes to the project will be detected by hashing: " + e.getMessage());
+			reliable = false;
+		}
+	}
+
+	private static class Memo {
+		final long generation;
+		final String hash;
+
+		Memo(long generation, String hash) {
+			this.generation = generation;
+			this.hash = hash;
+		}
+	}
+}
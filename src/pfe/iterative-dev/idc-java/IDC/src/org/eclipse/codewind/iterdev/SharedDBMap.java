@@ -0,0 +1,366 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.iterdev;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * DBMap for a db that is read and written by many IDC processes at once (the global db, which holds the port
+ * mappings of every application).
+ *
+ * Each db has a lock file alongside it ('db-(id).lock'), which is memory-mapped and holds a version number that is
+ * incremented on every change to the db. All reads of the db file and all writes happen while holding a FileChannel
+ * lock on the lock file, so one process never sees (or truncates) another's partially written entry. Readers compare
+ * the mapped version with the version they last loaded, and only read the db file again when another process has
+ * changed it; within a process, the contents last read for a version are shared, so they are only parsed once.
+ *
+ * Between begin() and commit(), the lock is held and the contents are those of the latest version, so a transaction
+ * can check the current values and update them without another process changing them in between (a compare-and-swap).
+ */
+public class SharedDBMap extends DBMap {
+
+	private static final String LOCK_SUFFIX = ".lock";
+
+	/** Shared by all of the SharedDBMaps for the same db in this process. */
+	private static final Map<File, SharedFile> sharedFiles = new ConcurrentHashMap<>();
+
+	private final SharedFile shared;
+
+	/** Version of the db contents held by this map, or -1 if not yet loaded */
+	private long loadedVersion = -1;
+
+	/** The SharedFile generation (opening of the lock file) that loadedVersion was read from */
+	private long loadedGeneration = -1;
+
+	public SharedDBMap(String id, File idcBase) throws IOException {
+		super(id, idcBase, false);
+
+		try {
+			shared = sharedFiles.computeIfAbsent(getFile(), f -> {
+				try {
+					return new SharedFile(new File(f.getParentFile(), f.getName() + LOCK_SUFFIX));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+
+		lock();
+		try {
+			refresh();
+		} finally {
+			unlock();
+		}
+	}
+
+	/** Start a transaction; the lock is held, and other processes are unable to read or write the db, until the
+	 * matching commit() or rollback(). */
+	@Override
+	public void begin() {
+		lockUnchecked();
+		try {
+			refresh();
+		} catch (IOException e) {
+			unlock();
+			throw new UncheckedIOException(e);
+		}
+		super.begin();
+	}
+
+	@Override
+	public void commit() {
+		if (!shared.lock.isHeldByCurrentThread()) {
+			// No transaction is open, let DBMap report it
+			super.commit();
+			return;
+		}
+		try {
+			update(() -> super.commit());
+		} finally {
+			unlock();
+		}
+	}
+
+	@Override
+	public void rollback() {
+		if (!shared.lock.isHeldByCurrentThread()) {
+			super.rollback();
+			return;
+		}
+		try {
+			super.rollback();
+		} finally {
+			unlock();
+		}
+	}
+
+	@Override
+	public String get(String key) {
+		refreshIfStale();
+		return super.get(key);
+	}
+
+	@Override
+	public Map<String, String> getMap() {
+		refreshIfStale();
+		return super.getMap();
+	}
+
+	@Override
+	public void put(String key, String value) {
+		lockedUpdate(() -> super.put(key, value));
+	}
+
+	@Override
+	public void remove(String key) {
+		lockedUpdate(() -> super.remove(key));
+	}
+
+	private void lockedUpdate(Runnable r) {
+		lockUnchecked();
+		try {
+			refresh();
+			update(r);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			unlock();
+		}
+	}
+
+	/** Run the given change to the map, and publish a new version if it wrote to the db file. */
+	private void update(Runnable r) {
+		long writes = getWrites();
+		r.run();
+		if (getWrites() != writes) {
+			loadedVersion = shared.incrementVersion();
+			shared.setContents(loadedVersion, new HashMap<>(super.getMap()), getJournalLines());
+		}
+	}
+
+	private void refreshIfStale() {
+		if (shared.lock.isHeldByCurrentThread()
+				|| (shared.getVersion() == loadedVersion && shared.generation == loadedGeneration && shared.isCurrent())) {
+			return;
+		}
+		lockUnchecked();
+		try {
+			refresh();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			unlock();
+		}
+	}
+
+	/** Bring the map up to date with the latest version; the lock must be held. */
+	private void refresh() throws IOException {
+		long version = shared.getVersion();
+		if (version == loadedVersion && shared.generation == loadedGeneration) {
+			return;
+		}
+
+		SharedContents contents = shared.contents;
+		if (contents != null && contents.version == version) {
+			reload(contents.map, contents.journalLines);
+		} else {
+			reload();
+			shared.setContents(version, new HashMap<>(super.getMap()), getJournalLines());
+		}
+		loadedVersion = version;
+		loadedGeneration = shared.generation;
+	}
+
+	private void lockUnchecked() {
+		try {
+			lock();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void lock() throws IOException {
+		shared.lock.lock();
+		if (shared.lock.getHoldCount() == 1) {
+			try {
+				if (!shared.isCurrent()) {
+					// The lock file was deleted or replaced (for example, by removing the .idc directory), or released
+					shared.open();
+				}
+				shared.fileLock = shared.channel.lock();
+			} catch (IOException | RuntimeException e) {
+				shared.lock.unlock();
+				throw e;
+			}
+		}
+	}
+
+	private void unlock() {
+		try {
+			if (shared.lock.getHoldCount() == 1 && shared.fileLock != null) {
+				shared.fileLock.release();
+				shared.fileLock = null;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			shared.lock.unlock();
+		}
+	}
+
+	/**
+	 * Close the lock file of the given db, if it is open, as the db has been deleted. SharedDBMaps for the db that are
+	 * used afterwards open the lock file again.
+	 */
+	public static void release(File dbFile) {
+		SharedFile shared = sharedFiles.get(dbFile);
+		if (shared == null) {
+			return;
+		}
+		shared.lock.lock();
+		try {
+			if (shared.lock.getHoldCount() == 1) {
+				shared.close();
+			}
+		} finally {
+			shared.lock.unlock();
+		}
+	}
+
+	private static class SharedContents {
+		final long version;
+		final Map<String, String> map;
+		final int journalLines;
+
+		SharedContents(long version, Map<String, String> map, int journalLines) {
+			this.version = version;
+			this.map = map;
+			this.journalLines = journalLines;
+		}
+	}
+
+	/**
+	 * The lock file of a db, and the latest contents read from the db by this process. The lock file is kept open for
+	 * as long as it is the file at its path; if it is deleted or replaced, it is opened again on the next lock().
+	 */
+	private static class SharedFile {
+
+		/** File locks are held by the whole process, so threads must also take turns holding it */
+		final ReentrantLock lock = new ReentrantLock();
+
+		final File lockFile;
+
+		/** The channel and version are only replaced with the lock held, but are read without it */
+		volatile FileChannel channel;
+
+		volatile MappedByteBuffer version;
+
+		/** Identifies the open lock file (its inode), or null if it is closed */
+		volatile Object fileKey;
+
+		/** Incremented each time the lock file is opened, as the versions of a new lock file start again from 0 */
+		volatile long generation = 0;
+
+		FileLock fileLock;
+
+		volatile SharedContents contents;
+
+		SharedFile(File lockFile) throws IOException {
+			this.lockFile = lockFile;
+			open();
+		}
+
+		/** (Re)open the lock file; must be called with the lock held, or by the constructor. */
+		void open() throws IOException {
+			if (!lockFile.getParentFile().exists()) {
+				lockFile.getParentFile().mkdirs();
+			}
+			FileChannel newChannel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.READ, StandardOpenOption.WRITE);
+			try {
+				MappedByteBuffer newVersion = newChannel.map(FileChannel.MapMode.READ_WRITE, 0, Long.BYTES);
+				Object newFileKey = readFileKey();
+				close();
+				channel = newChannel;
+				version = newVersion;
+				fileKey = newFileKey != null ? newFileKey : lockFile;
+				contents = null;
+				generation++;
+			} catch (IOException | RuntimeException e) {
+				newChannel.close();
+				throw e;
+			}
+		}
+
+		/** Return true if the open lock file is still the file at its path. */
+		boolean isCurrent() {
+			Object key = fileKey;
+			if (key == null) {
+				return false;
+			}
+			try {
+				Object current = readFileKey();
+				// Without file keys (on Windows), only a missing lock file is detected
+				return current == null || current.equals(key);
+			} catch (IOException e) {
+				return false;
+			}
+		}
+
+		/** Close the lock file; must be called with the lock held, and no file lock. */
+		void close() {
+			fileKey = null;
+			if (channel != null) {
+				try {
+					// The mapping of the version is released once it is no longer referenced
+					channel.close();
+				} catch (IOException e) {
+					Logger.error("Unable to close " + lockFile, e);
+				}
+			}
+		}
+
+		private Object readFileKey() throws IOException {
+			return Files.readAttributes(lockFile.toPath(), BasicFileAttributes.class).fileKey();
+		}
+
+		long getVersion() {
+			return version.getLong(0);
+		}
+
+		/** Must be called with the lock held. */
+		long incrementVersion() {
+			long result = version.getLong(0) + 1;
+			version.putLong(0, result);
+			return result;
+		}
+
+		void setContents(long version, Map<String, String> map, int journalLines) {
+			contents = new SharedContents(version, Collections.unmodifiableMap(map), journalLines);
+		}
+	}
+}
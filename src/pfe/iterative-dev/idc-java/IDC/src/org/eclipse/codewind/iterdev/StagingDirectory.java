@@ -0,0 +1,333 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.iterdev;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A directory (the build context directory of an application image) that is brought up to date with its sources
+ * incrementally, like 'rsync --archive --delete', rather than copied again in full for every build.
+ *
+ * A staged file is left as is if it has the same size and modification time as its source; if only the modification
+ * time differs, the contents are compared by hash (using the fingerprint cache, so unchanged files are not read again),
+ * and only the modification time is updated if they are the same. Files are otherwise copied (see FileCopier) along
+ * with their attributes, so the next build sees them as unchanged. Once everything has been staged, prune() deletes
+ * whatever is left in the directory from earlier builds that was not staged this time.
+ *
+ * Files that are the same for every application, such as the IDC artifacts, can instead be staged as links to a
+ * ContentStore, so they are stored once however many staging directories there are; such a file is left as is if it
+ * is already a link to the stored file with the hash of its source.
+ */
+public class StagingDirectory {
+
+	private final Path root;
+
+	private final FingerprintCache fingerprints;
+
+	private final ContentHasher hasher;
+
+	/** Everything (files and directories) staged so far, which prune() keeps */
+	private final Set<Path> staged = new HashSet<>();
+
+	/** The files written to the staging directory by other means, which are never replaced by a staged file */
+	private final Set<Path> kept = new HashSet<>();
+
+	private final FileCopier copier = new FileCopier();
+
+	/** The files (target to source) to copy once the directory has been walked, so they are copied in parallel */
+	private final Map<Path, Path> pendingCopies = new LinkedHashMap<>();
+
+	private long filesCopied = 0;
+
+	private long bytesCopied = 0;
+
+	private long filesUnchanged = 0;
+
+	private long bytesAvoided = 0;
+
+	private long filesDeleted = 0;
+
+	private long filesShared = 0;
+
+	public StagingDirectory(File root, FingerprintCache fingerprints, ContentHasher hasher) {
+		this.root = root.toPath().toAbsolutePath().normalize();
+		this.fingerprints = fingerprints;
+		this.hasher = hasher;
+	}
+
+	/** Stage files as hard links to their sources, if possible (see FileCopier). A linked file is the source file, so a
+	 * change to either is a change to both; files are copied unless this is enabled. */
+	public void setHardLinks(boolean hardLinks) {
+		copier.setHardLinks(hardLinks);
+	}
+
+	/** Stage the given file, or directory tree, under the given name ("" for the root of the staging directory). */
+	public void stage(File source, String name) throws IOException {
+		stage(source, name, null);
+	}
+
+	/** Stage the given file, or directory tree, under the given name, as links to the given store (if not null). */
+	public void stage(File source, String name, ContentStore store) throws IOException {
+		final Path sourcePath = source.toPath();
+		final Path target = resolve(name);
+		markParents(target);
+		if (target.getParent() != null) {
+			Files.createDirectories(target.getParent());
+		}
+
+		Files.walkFileTree(sourcePath, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				Path t = target.resolve(sourcePath.relativize(dir).toString());
+				BasicFileAttributes existing = readAttributes(t);
+				if (existing != null && !existing.isDirectory()) {
+					delete(t);
+				}
+				Files.createDirectories(t);
+				staged.add(t);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path f, BasicFileAttributes attrs) throws IOException {
+				String relative = sourcePath.relativize(f).toString();
+				stageFile(f, attrs, relative.isEmpty() ? target : target.resolve(relative), store);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path f, IOException e) {
+				Logger.error("Unable to read " + f + " while staging the build context");
+				return FileVisitResult.CONTINUE;
+			}
+		});
+
+		copier.copyFiles(pendingCopies);
+		pendingCopies.clear();
+	}
+
+	/** Create the given (empty) directory, if it does not exist, and keep it. */
+	public void mkdirs(String name) throws IOException {
+		Path dir = resolve(name);
+		BasicFileAttributes existing = readAttributes(dir);
+		if (existing != null && !existing.isDirectory()) {
+			delete(dir);
+		}
+		Files.createDirectories(dir);
+		markParents(dir);
+		staged.add(dir);
+	}
+
+	/** Keep the given file, which was written to the staging directory by other means (for example, Dockerfile-idc). */
+	public void keep(String name) {
+		Path p = resolve(name);
+		markParents(p);
+		staged.add(p);
+		kept.add(p);
+	}
+
+	/** Delete everything in the staging directory that has not been staged or kept. */
+	public void prune() throws IOException {
+		if (!Files.isDirectory(root)) {
+			return;
+		}
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				if (!dir.equals(root) && !staged.contains(dir)) {
+					delete(dir);
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path f, BasicFileAttributes attrs) throws IOException {
+				if (!staged.contains(f)) {
+					delete(f);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	public long getFilesCopied() {
+		return filesCopied;
+	}
+
+	public long getBytesCopied() {
+		return bytesCopied;
+	}
+
+	public long getFilesUnchanged() {
+		return filesUnchanged;
+	}
+
+	/** The bytes that were not copied because the staged file was already up to date */
+	public long getBytesAvoided() {
+		return bytesAvoided;
+	}
+
+	public long getFilesDeleted() {
+		return filesDeleted;
+	}
+
+	/** The files that were linked to a file that was already in the content store */
+	public long getFilesShared() {
+		return filesShared;
+	}
+
+	public String getSummary() {
+		return "Staged " + root + ": copied " + filesCopied + " files (" + bytesCopied + " bytes, "
+				+ copier.getFilesLinked() + " files linked), " + filesUnchanged
+				+ " files were unchanged or shared (" + filesShared + " shared, " + bytesAvoided + " bytes not copied), deleted "
+				+ filesDeleted + " files";
+	}
+
+	private void stageFile(Path source, BasicFileAttributes attrs, Path target, ContentStore store) throws IOException {
+		if (kept.contains(target)) {
+			return;
+		}
+		BasicFileAttributes existing = readAttributes(target);
+		staged.add(target);
+
+		if (attrs.isSymbolicLink()) {
+			Path link = Files.readSymbolicLink(source);
+			if (existing != null && existing.isSymbolicLink() && Files.readSymbolicLink(target).equals(link)) {
+				filesUnchanged++;
+				return;
+			}
+			if (existing != null) {
+				delete(target);
+			}
+			Files.createSymbolicLink(target, link);
+			filesCopied++;
+			return;
+		}
+
+		if (!attrs.isRegularFile()) {
+			// Devices, pipes and sockets are not part of a build context
+			return;
+		}
+
+		if (store != null) {
+			// The hash of the source is usually in the fingerprint cache, so this does not read it either
+			stageStoredFile(source, attrs, target, existing, store);
+			return;
+		}
+
+		boolean sameSize = existing != null && existing.isRegularFile() && existing.size() == attrs.size();
+		if (sameSize && existing.lastModifiedTime().toMillis() == attrs.lastModifiedTime().toMillis()) {
+			filesUnchanged++;
+			bytesAvoided += attrs.size();
+			return;
+		}
+
+		if (sameSize) {
+			Map<File, String> hashes = fingerprints.getHashes(Arrays.asList(source.toFile(), target.toFile()), hasher);
+			if (hashes.get(source.toFile()).equals(hashes.get(target.toFile()))) {
+				Files.setLastModifiedTime(target, attrs.lastModifiedTime());
+				filesUnchanged++;
+				bytesAvoided += attrs.size();
+				return;
+			}
+		}
+
+		if (existing != null && !existing.isRegularFile()) {
+			delete(target);
+		}
+		pendingCopies.put(target, source);
+		filesCopied++;
+		bytesCopied += attrs.size();
+	}
+
+	private void stageStoredFile(Path source, BasicFileAttributes attrs, Path target, BasicFileAttributes existing,
+			ContentStore store) throws IOException {
+		String hash = fingerprints.getHash(source.toFile(), store.getHasher());
+		Path stored = store.getStoredPath(source, attrs, hash);
+
+		// The modification time of a stored file is that of the source it was first added from, which may differ
+		if (existing != null && existing.isRegularFile() && Files.exists(stored) && Files.isSameFile(stored, target)) {
+			filesUnchanged++;
+			bytesAvoided += attrs.size();
+			return;
+		}
+
+		if (existing != null && !existing.isRegularFile()) {
+			delete(target);
+		}
+		if (store.add(source, stored)) {
+			filesCopied++;
+			bytesCopied += attrs.size();
+		} else {
+			filesShared++;
+			bytesAvoided += attrs.size();
+		}
+		store.link(source, stored, target);
+	}
+
+	private Path resolve(String name) {
+		Path p = root.resolve(name.replace('\\', '/').replaceAll("^/+", "")).normalize();
+		if (!p.startsWith(root)) {
+			throw new IllegalArgumentException("Outside of the staging directory: " + name);
+		}
+		return p;
+	}
+
+	private void markParents(Path p) {
+		for (Path parent = p.getParent(); parent != null && parent.startsWith(root) && !parent.equals(root);
+				parent = parent.getParent()) {
+			staged.add(parent);
+		}
+	}
+
+	/** Delete the given file, or directory tree, counting the files deleted */
+	private void delete(Path p) throws IOException {
+		Files.walkFileTree(p, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path f, BasicFileAttributes attrs) throws IOException {
+				Files.delete(f);
+				filesDeleted++;
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+				if (e != null) {
+					throw e;
+				}
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private static BasicFileAttributes readAttributes(Path p) {
+		try {
+			return Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,285 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.iterdev;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Merkle tree of the files in an application directory: each file is identified by the hash of its contents, and
+ * each directory by the hash of the names and hashes of its children, so two snapshots with the same root hash have
+ * the same contents, and comparing two snapshots only descends into the directories that differ.
+ *
+ * The snapshot taken before the last successful application build is stored alongside the app db, in
+ * 'db-(appid).tree' (one line per file and directory: 'hash path', with '/' at the end of directory paths), along
+ * with the name of the content hasher and a tag that identifies the container and build options the build ran with.
+ * The build output (target) and hidden directories at the top of the project are not included (see ProjectWatcher).
+ */
+public class WorkspaceSnapshot {
+
+	public static final String EXTENSION = "tree";
+
+	private static final String HEADER_PREFIX = "#";
+
+	private final String hasherName;
+
+	private final Node root;
+
+	private String tag;
+
+	private WorkspaceSnapshot(String hasherName, Node root, String tag) {
+		this.hasherName = hasherName;
+		this.root = root;
+		this.tag = tag;
+	}
+
+	/** Take a snapshot of the given application directory; only the files that have changed since their hash was
+	 * stored in the fingerprint cache are read. */
+	public static WorkspaceSnapshot create(File appDir, FingerprintCache fingerprints, ContentHasher hasher)
+			throws IOException {
+		final Path rootPath = appDir.toPath();
+		final Map<String, Node> dirs = new HashMap<>();
+		final Map<File, Node> files = new HashMap<>();
+		final Node root = new Node("", true);
+		dirs.put("", root);
+
+		Files.walkFileTree(rootPath, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+				String path = relativePath(rootPath, dir);
+				if (path.isEmpty()) {
+					return FileVisitResult.CONTINUE;
+				}
+				if (ProjectWatcher.isIgnoredDirectory(path)) {
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				Node node = new Node(path, true);
+				dirs.get(parentOf(path)).children.put(node.name(), node);
+				dirs.put(path, node);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				String path = relativePath(rootPath, file);
+				Node node = new Node(path, false);
+				dirs.get(parentOf(path)).children.put(node.name(), node);
+				if (attrs.isSymbolicLink()) {
+					node.hash = hasher.hashString("link:" + Files.readSymbolicLink(file));
+				} else if (attrs.isRegularFile()) {
+					files.put(file.toFile(), node);
+				} else {
+					node.hash = hasher.hashString("other");
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+				throw e;
+			}
+		});
+
+		Map<File, String> hashes = fingerprints.getHashes(new ArrayList<>(files.keySet()), hasher);
+		for (Map.Entry<File, Node> e : files.entrySet()) {
+			e.getValue().hash = hashes.get(e.getKey());
+		}
+
+		root.computeHash(hasher);
+		return new WorkspaceSnapshot(hasher.getName(), root, null);
+	}
+
+	/** Return the snapshot stored for the given app db, or null if there is none (or it can't be read). */
+	public static WorkspaceSnapshot load(DBMap appDb) {
+		File file = appDb.getSidecarFile(EXTENSION);
+		if (!file.exists()) {
+			return null;
+		}
+
+		try {
+			List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+			if (lines.size() < 3) {
+				return null;
+			}
+			String hasherName = lines.get(0).substring(HEADER_PREFIX.length());
+			String tag = lines.get(1).substring(HEADER_PREFIX.length());
+
+			Map<String, Node> dirs = new HashMap<>();
+			Node root = null;
+			for (String line : lines.subList(2, lines.size())) {
+				int index = line.indexOf(' ');
+				String hash = line.substring(0, index);
+				String path = line.substring(index + 1);
+				boolean isDir = path.endsWith("/");
+				if (isDir) {
+					path = path.substring(0, path.length() - 1);
+				}
+
+				Node node = new Node(path, isDir);
+				node.hash = hash;
+				if (path.isEmpty()) {
+					root = node;
+				} else {
+					dirs.get(parentOf(path)).children.put(node.name(), node);
+				}
+				if (isDir) {
+					dirs.put(path, node);
+				}
+			}
+			return root != null ? new WorkspaceSnapshot(hasherName, root, tag) : null;
+
+		} catch (IOException | RuntimeException e) {
+			Logger.error("Ignoring unreadable workspace snapshot " + file.getPath());
+			return null;
+		}
+	}
+
+	/** Remove the snapshot stored for the given app db. */
+	public static void delete(DBMap appDb) {
+		File file = appDb.getSidecarFile(EXTENSION);
+		if (file.exists() && !file.delete()) {
+			Logger.error("Unable to delete workspace snapshot " + file.getPath());
+		}
+	}
+
+	/** Store this snapshot for the given app db, with the given tag. */
+	public void save(DBMap appDb, String tag) throws IOException {
+		this.tag = tag;
+		File file = appDb.getSidecarFile(EXTENSION);
+		File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+		if (!file.getParentFile().exists()) {
+			file.getParentFile().mkdirs();
+		}
+		try (Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), StandardCharsets.UTF_8))) {
+			w.write(HEADER_PREFIX + hasherName + "\n");
+			w.write(HEADER_PREFIX + tag + "\n");
+			root.write(w);
+		}
+		Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	public String getRootHash() {
+		return root.hash;
+	}
+
+	public String getTag() {
+		return tag;
+	}
+
+	/**
+	 * Return the smallest set of paths that contain every difference between this snapshot and the given one: a file
+	 * that was added, removed or changed, or a directory that was added or removed. Returns null if the snapshots
+	 * can't be compared (the previous snapshot is null, or was calculated with a different content hasher).
+	 */
+	public Set<String> diff(WorkspaceSnapshot previous) {
+		if (previous == null || !previous.hasherName.equals(hasherName)) {
+			return null;
+		}
+		Set<String> result = new TreeSet<>();
+		diff(root, previous.root, result);
+		return result;
+	}
+
+	private static void diff(Node current, Node previous, Set<String> result) {
+		if (current.hash.equals(previous.hash)) {
+			return;
+		}
+
+		Set<String> names = new TreeSet<>(current.children.keySet());
+		names.addAll(previous.children.keySet());
+		for (String name : names) {
+			Node c = current.children.get(name);
+			Node p = previous.children.get(name);
+			if (c == null || p == null || c.isDir != p.isDir || (!c.isDir && !c.hash.equals(p.hash))) {
+				result.add(c != null ? c.path : p.path);
+			} else if (c.isDir) {
+				diff(c, p, result);
+			}
+		}
+	}
+
+	/** Return the given changed paths, grouped by the category of their files. */
+	public static Map<ProjectWatcher.Category, List<String>> categorize(Set<String> changes) {
+		Map<ProjectWatcher.Category, List<String>> result = new TreeMap<>();
+		for (String path : changes) {
+			// A new or deleted directory that contains the liberty config directory also changes the config
+			if ("src/main/liberty/config".startsWith(path + "/")) {
+				result.computeIfAbsent(ProjectWatcher.Category.CONFIG, k -> new ArrayList<>()).add(path);
+			}
+			result.computeIfAbsent(ProjectWatcher.classify(path), k -> new ArrayList<>()).add(path);
+		}
+		return result;
+	}
+
+	private static String relativePath(Path root, Path path) {
+		return root.relativize(path).toString().replace(File.separatorChar, '/');
+	}
+
+	private static String parentOf(String path) {
+		int index = path.lastIndexOf('/');
+		return index == -1 ? "" : path.substring(0, index);
+	}
+
+	private static class Node {
+		final String path;
+		final boolean isDir;
+		final Map<String, Node> children = new TreeMap<>();
+		String hash;
+
+		Node(String path, boolean isDir) {
+			this.path = path;
+			this.isDir = isDir;
+		}
+
+		String name() {
+			return path.substring(path.lastIndexOf('/') + 1);
+		}
+
+		String computeHash(ContentHasher hasher) {
+			if (!isDir) {
+				return hash;
+			}
+			StringBuilder sb = new StringBuilder();
+			for (Node child : children.values()) {
+				sb.append(child.isDir ? "d " : "f ").append(child.computeHash(hasher)).append(' ').append(child.name())
+						.append('\n');
+			}
+			hash = hasher.hashString(sb.toString());
+			return hash;
+		}
+
+		void write(Writer w) throws IOException {
+			w.write(hash + " " + path + (isDir ? "/" : "") + "\n");
+			for (Node child : children.values()) {
+				child.write(w);
+			}
+		}
+	}
+}
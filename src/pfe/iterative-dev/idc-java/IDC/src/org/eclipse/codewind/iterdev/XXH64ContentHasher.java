@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.iterdev;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * ContentHasher for XXH64 (seed 0), a fast non-cryptographic 64-bit hash, which is all that is needed to detect
+ * changes to files. Files are read with a FileChannel into a direct buffer that is reused by each thread.
+ */
+public class XXH64ContentHasher implements ContentHasher {
+
+	private static final long PRIME1 = 0x9E3779B185EBCA87L;
+	private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+	private static final long PRIME3 = 0x165667B19E3779F9L;
+	private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+	private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final ThreadLocal<ByteBuffer> buffers = ThreadLocal
+			.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN));
+
+	@Override
+	public String getName() {
+		return XXH64;
+	}
+
+	@Override
+	public String hashFile(File f) throws IOException {
+		ByteBuffer buffer = buffers.get();
+		buffer.clear();
+
+		State state = new State();
+		try (FileChannel fc = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+			while (fc.read(buffer) != -1) {
+				buffer.flip();
+				state.update(buffer);
+				// Keep the bytes of an incomplete stripe for the next read
+				buffer.compact();
+			}
+		}
+		buffer.flip();
+		return toHex(state.digest(buffer));
+	}
+
+	@Override
+	public String hashString(String s) {
+		ByteBuffer buffer = ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8)).order(ByteOrder.LITTLE_ENDIAN);
+		State state = new State();
+		state.update(buffer);
+		return toHex(state.digest(buffer));
+	}
+
+	private static String toHex(long hash) {
+		String hex = Long.toHexString(hash);
+		return "0000000000000000".substring(hex.length()) + hex;
+	}
+
+	/** Hash state, updated 32 bytes (one stripe) at a time. */
+	private static class State {
+		long v1 = PRIME1 + PRIME2;
+		long v2 = PRIME2;
+		long v3 = 0;
+		long v4 = -PRIME1;
+		long totalLength = 0;
+
+		/** Consume all of the complete stripes in the buffer, leaving the remaining bytes (fewer than 32). */
+		void update(ByteBuffer buffer) {
+			while (buffer.remaining() >= 32) {
+				v1 = round(v1, buffer.getLong());
+				v2 = round(v2, buffer.getLong());
+				v3 = round(v3, buffer.getLong());
+				v4 = round(v4, buffer.getLong());
+				totalLength += 32;
+			}
+		}
+
+		/** Return the hash, given the remaining bytes of the input (fewer than 32). */
+		long digest(ByteBuffer buffer) {
+			long h;
+			if (totalLength >= 32) {
+				h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+				h = mergeRound(h, v1);
+				h = mergeRound(h, v2);
+				h = mergeRound(h, v3);
+				h = mergeRound(h, v4);
+			} else {
+				h = PRIME5;
+			}
+
+			h += totalLength + buffer.remaining();
+
+			while (buffer.remaining() >= 8) {
+				h ^= round(0, buffer.getLong());
+				h = Long.rotateLeft(h, 27) * PRIME1 + PRIME4;
+			}
+			if (buffer.remaining() >= 4) {
+				h ^= (buffer.getInt() & 0xFFFFFFFFL) * PRIME1;
+				h = Long.rotateLeft(h, 23) * PRIME2 + PRIME3;
+			}
+			while (buffer.hasRemaining()) {
+				h ^= (buffer.get() & 0xFFL) * PRIME5;
+				h = Long.rotateLeft(h, 11) * PRIME1;
+			}
+
+			h ^= h >>> 33;
+			h *= PRIME2;
+			h ^= h >>> 29;
+			h *= PRIME3;
+			h ^= h >>> 32;
+			return h;
+		}
+
+		private static long round(long acc, long input) {
+			acc += input * PRIME2;
+			acc = Long.rotateLeft(acc, 31);
+			return acc * PRIME1;
+		}
+
+		private static long mergeRound(long acc, long val) {
+			acc ^= round(0, val);
+			return acc * PRIME1 + PRIME4;
+		}
+	}
+}
@@ -11,16 +11,29 @@
 
 package org.eclipse.codewind.iterdev.tasks;
 
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.codewind.iterdev.Cmd;
 import org.eclipse.codewind.iterdev.Constants;
+import org.eclipse.codewind.iterdev.ContentHasher;
 import org.eclipse.codewind.iterdev.DBMap;
 import org.eclipse.codewind.iterdev.FileMonitor;
+import org.eclipse.codewind.iterdev.FingerprintCache;
 import org.eclipse.codewind.iterdev.IDCContext;
 import org.eclipse.codewind.iterdev.Logger;
-import org.eclipse.codewind.iterdev.ProcessRunner;
+import org.eclipse.codewind.iterdev.OutputCapture;
+import org.eclipse.codewind.iterdev.ProcessResult;
+import org.eclipse.codewind.iterdev.ProjectWatcher;
 import org.eclipse.codewind.iterdev.StatusTracker;
+import org.eclipse.codewind.iterdev.WorkspaceSnapshot;
 
 public class BuildApplicationTask {
 
+	/** Characters of build output to hold in memory */
+	private static final int BUILD_OUTPUT_LIMIT = 64 * 1024;
+
 	public static boolean execute(IDCContext context, String[] args) throws Exception {
 		String logFileName = context.getLogFileName();
 		String MAVEN_SETTINGS = System.getProperty(Constants.MAVEN_SETTINGS, "");
@@ -31,14 +44,6 @@ public class BuildApplicationTask {
 		int errorCode;
 		Logger.info("Log file name for build: " + logFileName);
 
-		String cmdTemplate = "";
-		if (context.isK8s()) {
-			cmdTemplate = "kubectl exec " + context.getKubePodId() + " --";
-		}
-		else {
-			cmdTemplate = "docker exec " + context.getContainerName();
-			
-		}
 
 		if (args.length > 1) {
 			for (int i = 1; i < args.length; i++) {
@@ -53,17 +58,29 @@ public class BuildApplicationTask {
 			Logger.info("The application will run with the following custom Maven profiles: " + MAVEN_SETTINGS);
 		}
 
-		String curRunCmd = cmdTemplate + " /home/default/artifacts/build_server.sh" + " "
-		+ logFileName + " " + libertyEnvValue + " " + null + " \"" + MAVEN_SETTINGS + "\"";
+		Cmd curRunCmd = Cmd.of("/home/default/artifacts/build_server.sh",
+				logFileName, libertyEnvValue, "null", MAVEN_SETTINGS);
 
 		DBMap appDb = context.getAppDb();
 
-		if(appDb.get(Constants.DB_SERVER_START)!= null && !Boolean.parseBoolean(appDb.get(Constants.DB_SERVER_START))) {
+		boolean serverStopped = appDb.get(Constants.DB_SERVER_START) != null
+				&& !Boolean.parseBoolean(appDb.get(Constants.DB_SERVER_START));
+		if(serverStopped) {
 			Logger.info("Server is not started. Running clean_build_server to build the project and start the server.");
-			curRunCmd = cmdTemplate + " /home/default/artifacts/clean_build_server.sh" + " "
-			+ logFileName + " " + libertyEnvValue + " \"" + MAVEN_SETTINGS + "\"";
+			curRunCmd = Cmd.of("/home/default/artifacts/clean_build_server.sh",
+					logFileName, libertyEnvValue, MAVEN_SETTINGS);
 		}
 
+		// Compare the project files with the snapshot taken before the last successful build. The stored snapshot is
+		// removed until this build succeeds, so that a failed build is never skipped.
+		WorkspaceSnapshot snapshot = takeSnapshot(context);
+		WorkspaceSnapshot lastSnapshot = WorkspaceSnapshot.load(appDb);
+		WorkspaceSnapshot.delete(appDb);
+		String snapshotTag = (context.isK8s() ? context.getKubePodId() : appDb.get(Constants.DB_LAST_CONTAINER_ID))
+				+ " " + libertyEnvValue + " " + MAVEN_SETTINGS;
+		Set<String> changes = snapshot != null ? snapshot.diff(lastSnapshot) : null;
+		logChanges(context, changes);
+
 		String curNewPomUpdateHash = FileMonitor.getNewPomUpdateHash(appDb,
 				context.getAppDirectory().getAbsolutePath());
 		if (curNewPomUpdateHash != null) {
@@ -95,12 +112,13 @@ public class BuildApplicationTask {
 				appDb.put(FileMonitor.CONFIGUPDATE_HASH, curNewConfigUpdateHash);
 			}
 			
-			ProcessRunner pr = TaskUtils.runCmd(cmdTemplate + " /home/default/artifacts/clean_build_server.sh"
-							+ " " + logFileName + " " + libertyEnvValue + " \"" + MAVEN_SETTINGS + "\"", context, true);
-			errorCode = pr.getErrorCode().orElseThrow(() -> new IllegalStateException("Build process did not complete."));
-			result = (errorCode == 0 && (!isBuildFailed(cmdTemplate,logFileName, context)));
+			ProcessResult pr = TaskUtils.runInContainer(Cmd.of("/home/default/artifacts/clean_build_server.sh",
+							logFileName, libertyEnvValue, MAVEN_SETTINGS), context, buildOutputCapture(), true);
+			errorCode = pr.getErrorCode();
+			result = (errorCode == 0 && (!isBuildFailed(logFileName, context)));
 			if (result) {
 				Logger.info("Clean build completed for project " + context.getAppName());
+				saveSnapshot(appDb, snapshot, snapshotTag);
 				return true;
 			}
 			else {
@@ -111,7 +129,7 @@ public class BuildApplicationTask {
 			}
 		} else if (commandContainsOption(args, Constants.OPTION_PROD)) {
 			Logger.info("Building production image...");
-			curRunCmd = curRunCmd + " " + Constants.OPTION_PROD;
+			curRunCmd = curRunCmd.args(Constants.OPTION_PROD);
 		} else {
 			// Check if server config files has been changed.
 			String curNewConfigUpdateHash = FileMonitor.getNewConfigUpdateHash(appDb,
@@ -120,16 +138,17 @@ public class BuildApplicationTask {
 				statusMsg="buildApplicationTask.configChangeDetected";
 				Logger.info("Server config file change detected, running application build.");
 				StatusTracker.updateProjectState(context, "build", "inProgress", statusMsg, null);
-				curRunCmd = curRunCmd + " " + Constants.BUILD_OPTION_CONFIG;
+				curRunCmd = curRunCmd.args(Constants.BUILD_OPTION_CONFIG);
 				appDb.put(FileMonitor.CONFIGUPDATE_HASH, curNewConfigUpdateHash);
 				
-				ProcessRunner pr = TaskUtils.runCmd(cmdTemplate + " /home/default/artifacts/build_and_update_features.sh"
-								+ " " + logFileName + " " + libertyEnvValue + " \"" + MAVEN_SETTINGS + "\"", context, true);
-				errorCode = pr.getErrorCode().orElseThrow(() -> new IllegalStateException("Build process did not complete."));
-				result = (errorCode == 0 && (!isBuildFailed(cmdTemplate,logFileName, context)));
+				ProcessResult pr = TaskUtils.runInContainer(Cmd.of("/home/default/artifacts/build_and_update_features.sh",
+								logFileName, libertyEnvValue, MAVEN_SETTINGS), context, buildOutputCapture(), true);
+				errorCode = pr.getErrorCode();
+				result = (errorCode == 0 && (!isBuildFailed(logFileName, context)));
 				if (result) {
 					statusMsg = "Application build for server config change completed for project " + context.getAppName(); // :NLS
 					Logger.info("Application build for server config change completed for project " + context.getAppName());
+					saveSnapshot(appDb, snapshot, snapshotTag);
 					return true;
 				}
 				else {
@@ -141,19 +160,30 @@ public class BuildApplicationTask {
 				}
 
 			}
+
+			// Nothing the application build depends on has changed since the last successful build
+			if (!serverStopped && changes != null && changes.isEmpty() && lastSnapshot != null
+					&& snapshotTag.equals(lastSnapshot.getTag())) {
+				Logger.info("No changes to project " + context.getAppName() + " since the last build, skipping the application build.");
+				saveSnapshot(appDb, snapshot, snapshotTag);
+				return true;
+			}
 		}
 		statusMsg = "buildApplicationTask.compileApplication";
 		Logger.info("Compiling application for project " + context.getAppName());
 		StatusTracker.updateProjectState(context, "build", "inProgress", statusMsg, null);
-		ProcessRunner pr = TaskUtils.runCmd(curRunCmd, context, true);
+		ProcessResult pr = TaskUtils.runInContainer(curRunCmd, context, buildOutputCapture(), true);
 		
 		Logger.info("Triggering log file event for: maven build log");
 		StatusTracker.newLogFileAvailable(context, "build");
 
-		errorCode = pr.getErrorCode().orElseThrow(() -> new IllegalStateException("Build process did not complete."));
-		result = (errorCode == 0 && (!isBuildFailed(cmdTemplate,logFileName, context)));
+		errorCode = pr.getErrorCode();
+		result = (errorCode == 0 && (!isBuildFailed(logFileName, context)));
 		if (result) {
 			Logger.info("Application build completed for project " + context.getAppName());
+			if (!commandContainsOption(args, Constants.OPTION_PROD)) {
+				saveSnapshot(appDb, snapshot, snapshotTag);
+			}
 			return true;
 		}
 		else {
@@ -165,6 +195,62 @@ public class BuildApplicationTask {
 		}
 	}
 
+	/** Only the end of the build output is kept; the build log is read from the container by isBuildFailed(...) */
+	private static OutputCapture buildOutputCapture() {
+		return new OutputCapture(BUILD_OUTPUT_LIMIT, false);
+	}
+
+	private static WorkspaceSnapshot takeSnapshot(IDCContext context) {
+		FingerprintCache fingerprints = FingerprintCache.forDb(context.getAppDb());
+		try {
+			return WorkspaceSnapshot.create(context.getAppDirectory(), fingerprints, ContentHasher.getConfigured());
+		} catch (Exception e) {
+			Logger.error("Unable to take a snapshot of the project files, the application will always be built: " + e.getMessage());
+			return null;
+		} finally {
+			fingerprints.save();
+		}
+	}
+
+	private static void saveSnapshot(DBMap appDb, WorkspaceSnapshot snapshot, String tag) {
+		if (snapshot == null) {
+			return;
+		}
+		try {
+			snapshot.save(appDb, tag);
+		} catch (Exception e) {
+			Logger.error("Unable to save the snapshot of the project files: " + e.getMessage());
+		}
+	}
+
+	/** Log the changed parts of the project, and the build step each of them affects. */
+	private static void logChanges(IDCContext context, Set<String> changes) {
+		if (changes == null) {
+			Logger.info("No earlier snapshot of project " + context.getAppName() + " to compare with.");
+			return;
+		}
+		for (Map.Entry<ProjectWatcher.Category, List<String>> e : WorkspaceSnapshot.categorize(changes).entrySet()) {
+			String action;
+			switch (e.getKey()) {
+			case POM:
+				action = "clean build";
+				break;
+			case CONFIG:
+				action = "server config update";
+				break;
+			case DOCKERFILE:
+				action = "container build";
+				break;
+			case CHART:
+				action = "deployment update";
+				break;
+			default:
+				action = "application build";
+			}
+			Logger.info("Changed since the last build (" + action + "): " + String.join(", ", e.getValue()));
+		}
+	}
+
 	private static boolean commandContainsOption(String args[], String curOption) {
 		if (curOption == null || curOption.isEmpty()) {
 			return false;
@@ -182,20 +268,21 @@ public class BuildApplicationTask {
 		return false;
 	}
 
-	private static boolean isBuildFailed(String cmdTemplate, String logFileName, IDCContext context) throws Exception {
+	private static boolean isBuildFailed(String logFileName, IDCContext context) throws Exception {
 		String logFilePath = "/home/default/logs/" + "maven.build.log";
-		String curRunCmd;
-		if (context.isK8s())
-			curRunCmd = "kubectl exec " + context.getKubePodId() + " cat "+ logFilePath;
-		else
-			curRunCmd = cmdTemplate + " cat "+ logFilePath;
-		ProcessRunner pr = TaskUtils.runCmd(curRunCmd, context, true);
-		String buildOutput = pr.getReceived();
-
-		// If build log does not exist
-		if(buildOutput.contains("No such file or directory"))
-			Logger.info("Build log " + logFilePath + " does not exist for project " + context.getAppName());
-
-		return !buildOutput.contains("BUILD SUCCESS");
+		Cmd curRunCmd = Cmd.of("cat", logFilePath);
+		// The build log can be large, so scan it a line at a time rather than holding it in memory
+		try (OutputCapture buildOutput = new OutputCapture(BUILD_OUTPUT_LIMIT, true)) {
+			TaskUtils.runInContainer(curRunCmd, context, buildOutput, true);
+			boolean success = false;
+			for (String line : buildOutput) {
+				// If build log does not exist
+				if (line.contains("No such file or directory"))
+					Logger.info("Build log " + logFilePath + " does not exist for project " + context.getAppName());
+				if (line.contains("BUILD SUCCESS"))
+					success = true;
+			}
+			return !success;
+		}
 	}
 }
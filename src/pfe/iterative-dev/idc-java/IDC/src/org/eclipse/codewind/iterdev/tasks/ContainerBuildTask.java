@@ -14,10 +14,11 @@ package org.eclipse.codewind.iterdev.tasks;
 import java.io.File;
 import java.io.IOException;
 
+import org.eclipse.codewind.iterdev.BuildContext;
+import org.eclipse.codewind.iterdev.Cmd;
 import org.eclipse.codewind.iterdev.Constants;
 import org.eclipse.codewind.iterdev.DockerUtils;
 import org.eclipse.codewind.iterdev.IDCContext;
-import org.eclipse.codewind.iterdev.IDCUtils;
 import org.eclipse.codewind.iterdev.Logger;
 import org.eclipse.codewind.iterdev.ProcessRunner;
 import org.eclipse.codewind.iterdev.StatusTracker;
@@ -36,16 +37,10 @@ public class ContainerBuildTask {
             return false;
         }
 
-       result = DockerUtils.handleDockerImageBuildSetup(context.getAppDirectory(), context.getAppDockerBase());	
-        	
-        if (!result) {	
-            statusMsg = "containerBuildTask.containerBuildFailDockerfileSetup";	
-            Logger.error("Container image failed to build: failed on Dockerfile setup");	
-            StatusTracker.updateProjectState(context, "build", "failed", statusMsg, null);	
-            return false;	
-        }
+        // The build context is streamed to the image builder if possible, and otherwise staged in the docker base dir
+        boolean streamContext = BuildContext.isStreamingSupported(context);
 
-		boolean isContainerImagePresent = DockerUtils.checkForContainerImage(context);
+        boolean isContainerImagePresent = DockerUtils.checkForContainerImage(context);
 
         if (isContainerImagePresent) {
             statusMsg = "containerBuildTask.containerBuildFailImageExist";
@@ -56,16 +51,17 @@ public class ContainerBuildTask {
 
         String logFileName = context.getLogFileName();
         
-        String buildCmd = "/file-watcher/idc/artifacts/build_docker_image.sh " + 
-            "\"" + context.getAppDirectory().getAbsolutePath() + "\" " +
-            context.getImageName() + " " +
-            context.getAppDockerBase().getAbsolutePath() + " " + 
-            logFileName + " " +
-            "\"" + context.getAppName() + "-" + context.getprojectID() + "\" " +
-            context.getprojectID();
+        Cmd buildCmd = Cmd.of("/file-watcher/idc/artifacts/build_docker_image.sh",
+            context.getAppDirectory().getAbsolutePath(),
+            context.getImageName(),
+            streamContext ? "-" : context.getAppDockerBase().getAbsolutePath(),
+            logFileName,
+            context.getAppName() + "-" + context.getprojectID(),
+            context.getprojectID(),
+            streamContext ? "streamed" : "staged");
         Logger.info("*** Build Command " + buildCmd);
         
-        // Copy artifacts that are needed by the application image into the same location as the Dockerfile
+        // The artifacts that are needed by the application image are part of the build context
         File artifactsDir = context.getArtifactsDirectory();
         if (!artifactsDir.exists()) {
             statusMsg = "containerBuildTask.containerBuildFailArtifactsMissing";
@@ -74,13 +70,26 @@ public class ContainerBuildTask {
             StatusTracker.updateProjectState(context, "build", "failed", statusMsg, null);
             return false;
         }
-        IDCUtils.copyDir(artifactsDir.getAbsolutePath(),
-                context.getAppDockerBase().getPath() + Constants.SLASH + artifactsDir.getName());
+
+        if (!streamContext && !DockerUtils.handleDockerImageBuildSetup(context)) {
+            statusMsg = "containerBuildTask.containerBuildFailDockerfileSetup";
+            Logger.error("Container image failed to build: failed on Dockerfile setup");
+            StatusTracker.updateProjectState(context, "build", "failed", statusMsg, null);
+            return false;
+        }
 
         Logger.info("Build app image using cmd: " + buildCmd);
 
         // "iterative-dev" here is the container image name, not the container name
-        ProcessRunner pr = TaskUtils.runCmd(buildCmd, context, true);
+        ProcessRunner pr;
+        if (streamContext) {
+            BuildContext buildContext = BuildContext.forApplication(context);
+            pr = TaskUtils.runCmdWithInput(buildCmd, context,
+                    os -> Logger.info("Sent a build context of " + buildContext.write(os) + " bytes"), true);
+        } else {
+            pr = TaskUtils.runCmd(buildCmd, context, true);
+        }
+        context.getEnvironment().invalidateImages();
 
         int errorCode = pr.getErrorCode()
                 .orElseThrow(() -> new IllegalStateException("Build process did not complete."));
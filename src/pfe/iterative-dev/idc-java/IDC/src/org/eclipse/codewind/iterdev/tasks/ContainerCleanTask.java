@@ -13,26 +13,33 @@ package org.eclipse.codewind.iterdev.tasks;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.eclipse.codewind.iterdev.AppIndex;
+import org.eclipse.codewind.iterdev.Cmd;
 import org.eclipse.codewind.iterdev.Constants;
-import org.eclipse.codewind.iterdev.DBMap;
+import org.eclipse.codewind.iterdev.DockerUtils;
 import org.eclipse.codewind.iterdev.IDCContext;
 import org.eclipse.codewind.iterdev.IDCUtils;
 import org.eclipse.codewind.iterdev.Logger;
+import org.eclipse.codewind.iterdev.ProcessResult;
 import org.eclipse.codewind.iterdev.ProcessRunner;
+import org.eclipse.codewind.iterdev.SharedDBMap;
 
 public class ContainerCleanTask {
 
 	public static boolean execute(IDCContext context) throws Exception {
 		//boolean isK8s = System.getenv(Constants.IN_K8).equals("true");
-		String imageCommand = context.getImageCommand();
 
 		Logger.info("* Cleaning up containers... ");
 		
 		if (context.isK8s()) {
 			if (!context.getIDCBase().exists()) {
-				ProcessRunner pr = TaskUtils.runCmd("helm list -q", context, false);
+				ProcessRunner pr = TaskUtils.runCmd(Cmd.of("helm", "list", "-q"), context, false);
 				for (String str : pr.getReceived().split("\\r?\\n")) {
 					Logger.info("----");
 					Logger.info("Helm Release Name: " + str);
@@ -40,11 +47,10 @@ public class ContainerCleanTask {
 					if (str != null) {
 						if (str.contains("idc") && IDCUtils.getUserResponse(Constants.missingIDCDirPromptQues).equalsIgnoreCase("yes")) {
 							Logger.info("* Deleting the helm release");
-							TaskUtils.runCmd("helm delete " + str + " --purge", context, false);
+							TaskUtils.runCmd(Cmd.of("helm", "delete", str, "--purge"), context, false);
 						}
 					}
 				}
-				Thread.sleep(1000);
 			}
 			else {
 				/*
@@ -52,13 +58,11 @@ public class ContainerCleanTask {
 				 * container. Print the modified/deleted dir container id and prompt the user before 
 				 * removing the container.
 				 */
-				String dbDirPath = context.getIDCBase().toString() + Constants.SLASH + "db";
-				File dbDir = new File(dbDirPath);
-				File dbFiles[] = dbDir.listFiles();
-
-				for (int i = 0; i < dbFiles.length; i++) {
-					DBMap appDB = new DBMap(dbFiles[i].getName().substring(DBMap.DBPREFIX.length()), context.getIDCBase());
+				AppIndex index = AppIndex.open(context.getIDCBase());
+				Collection<AppIndex.Entry> apps = index.getEntries();
+				Set<String> deletedApps = new HashSet<String>();
 
+				for (AppIndex.Entry appDB : apps) {
 					String fileName = appDB.get(Constants.DB_APP_DIR);
 					if(fileName == null)
 						continue;
@@ -73,11 +77,15 @@ public class ContainerCleanTask {
 						if (IDCUtils.getUserResponse(Constants.modifiedAppDirPromptQues).equalsIgnoreCase("yes")) {
 							Logger.info("* Deleting the Helm release. ");
 
-							TaskUtils.runCmd("helm delete " + releaseID + " --purge", context, false);
-							TaskUtils.runCmd(imageCommand + " image rm " + appDB.get(Constants.DB_CONTAINER_NAME) + " -f", context, false);
+							// The release and the image are independent, so remove them at the same time
+							CompletableFuture<ProcessResult> helmDelete = TaskUtils.startCmd(Cmd.of("helm", "delete", releaseID, "--purge"), context, false);
+							DockerUtils.removeImage(context, appDB.get(Constants.DB_CONTAINER_NAME), true, false);
+							ProcessRunner.waitFor(helmDelete);
+							context.getEnvironment().invalidateContainers();
 
 							// Delete .idc db and docker dir contents
-							deleteCorrespondingIDCContents(context.getIDCBase(), appDB.get(Constants.DB_APP_ID));
+							deleteCorrespondingIDCContents(context.getIDCBase(), appDB.getDbId(), index);
+							deletedApps.add(appDB.getDbId());
 						}
 					}
 				}
@@ -87,34 +95,27 @@ public class ContainerCleanTask {
 				 * need to clean up the corresponding .idc db and docker dir contents
 				 */
 
-				ArrayList<String> runningDeployments = new ArrayList<String>();
+				Set<String> runningDeployments = new HashSet<String>();
 				Logger.info("Checking if any deployments have been explicitly removed without IDC.");
 				Logger.info("If yes, the corresponding .idc db and docker contents will be deleted.");
-				ProcessRunner pr = TaskUtils.runCmd("kubectl get deployments --no-headers=true -o=custom-columns=NAME:.metadata.name", context, false);
+				// The metadata of any application that is missing is deleted, so list the current state rather than the
+				// inventory's, which may be older than a container or deployment started outside of IDC
+				context.getEnvironment().invalidateContainers();
+				runningDeployments.addAll(context.getEnvironment().getDeploymentNames());
 
-				Thread.sleep(1000);
-				for (String str : pr.getReceived().split("\\r?\\n")) {
-					if (str != null) {
-						runningDeployments.add(str);
-					}
-				}
-
-				nextdbfile : for (int i = 0; i < dbFiles.length; i++) {
-					DBMap appDB = new DBMap(dbFiles[i].getName().substring(DBMap.DBPREFIX.length()), context.getIDCBase());
+				for (AppIndex.Entry appDB : apps) {
 					String deploymentID = appDB.get(Constants.DB_LAST_CONTAINER_ID);
-					if(deploymentID == null)
-						continue nextdbfile;
+					if(deploymentID == null || deletedApps.contains(appDB.getDbId()))
+						continue;
 					Logger.info("Checking for deployment " + deploymentID);
-					for (int j = 0; j < runningDeployments.size(); j++) {
-						if (deploymentID.equals(runningDeployments.get(j))) {
-							// Found a running container for this db file so no need to clean up
-							continue nextdbfile;
-						}
+					if (runningDeployments.contains(deploymentID)) {
+						// Found a running container for this db file so no need to clean up
+						continue;
 					}
 
 					// Delete .idc db and docker dir contents
-					Logger.info("Deleting db contents with app id: " + appDB.get(Constants.DB_APP_ID));
-					deleteCorrespondingIDCContents(context.getIDCBase(), appDB.get(Constants.DB_APP_ID));
+					Logger.info("Deleting db contents with app id: " + appDB.getDbId());
+					deleteCorrespondingIDCContents(context.getIDCBase(), appDB.getDbId(), index);
 				}
 				
 				
@@ -129,10 +130,9 @@ public class ContainerCleanTask {
 				containers. Print the container image name 
 				and prompt the user before removing the 
 				container.*/
-				ProcessRunner pr = TaskUtils.runCmd(imageCommand + " ps --format \"{{.Image}}\"", context, false);
+				List<String> images = DockerUtils.listContainerImages(context);
 
-				Thread.sleep(1000);
-				for (String str : pr.getReceived().split("\\r?\\n")) {
+				for (String str : images) {
 					Logger.info("----");
 					Logger.info("Container Image Name: " + str);
 					Logger.info("----");
@@ -142,9 +142,9 @@ public class ContainerCleanTask {
 								&& IDCUtils.getUserResponse(Constants.missingIDCDirPromptQues).equalsIgnoreCase("yes")) {
 							Logger.info("* Stopping and Removing the Container. ");
 
-							TaskUtils.runCmd(imageCommand + " stop " + str, context, false);
-							TaskUtils.runCmd(imageCommand + " rm " + str, context, false);
-							TaskUtils.runCmd(imageCommand + " image rm " + str, context, false);
+							DockerUtils.stopContainer(context, str);
+							DockerUtils.removeContainer(context, str, false, false);
+							DockerUtils.removeImage(context, str, false, false);
 						}
 					}
 				}
@@ -154,13 +154,11 @@ public class ContainerCleanTask {
 				 * container. Print the modified/deleted dir container id and prompt the user before 
 				 * removing the container.
 				 */
-				String dbDirPath = context.getIDCBase().toString() + Constants.SLASH + "db";
-				File dbDir = new File(dbDirPath);
-				File dbFiles[] = dbDir.listFiles();
-
-				for (int i = 0; i < dbFiles.length; i++) {
-					DBMap appDB = new DBMap(dbFiles[i].getName().substring(DBMap.DBPREFIX.length()), context.getIDCBase());
+				AppIndex index = AppIndex.open(context.getIDCBase());
+				Collection<AppIndex.Entry> apps = index.getEntries();
+				Set<String> deletedApps = new HashSet<String>();
 
+				for (AppIndex.Entry appDB : apps) {
 					String fileName = appDB.get(Constants.DB_APP_DIR);
 					if(fileName == null)
 						continue;
@@ -175,12 +173,12 @@ public class ContainerCleanTask {
 						if (IDCUtils.getUserResponse(Constants.modifiedAppDirPromptQues).equalsIgnoreCase("yes")) {
 							Logger.info("* Stopping and Removing the Container. ");
 
-							TaskUtils.runCmd(imageCommand + " rm -f " + containerID, context, false);
-							TaskUtils.runCmd(imageCommand + " image rm " + appDB.get(Constants.DB_CONTAINER_NAME), context,
-									false);
+							DockerUtils.removeContainer(context, containerID, true, false);
+							DockerUtils.removeImage(context, appDB.get(Constants.DB_CONTAINER_NAME), false, false);
 
 							// Delete .idc db and docker dir contents
-							deleteCorrespondingIDCContents(context.getIDCBase(), appDB.get(Constants.DB_APP_ID));
+							deleteCorrespondingIDCContents(context.getIDCBase(), appDB.getDbId(), index);
+							deletedApps.add(appDB.getDbId());
 						}
 					}
 				}
@@ -190,34 +188,27 @@ public class ContainerCleanTask {
 				 * need to clean up the corresponding .idc db and docker dir contents
 				 */
 
-				ArrayList<String> runningContainers = new ArrayList<String>();
+				Set<String> runningContainers = new HashSet<String>();
 				Logger.info("Checking if any containers have been explicitly removed without IDC.");
 				Logger.info("If yes, the corresponding .idc db and docker contents will be deleted.");
-				ProcessRunner pr = TaskUtils.runCmd(imageCommand + " ps --no-trunc -q", context, false);
-
-				Thread.sleep(1000);
-				for (String str : pr.getReceived().split("\\r?\\n")) {
-					if (str != null) {
-						runningContainers.add(str);
-					}
-				}
+				// The metadata of any application that is missing is deleted, so list the current state rather than the
+				// inventory's, which may be older than a container or deployment started outside of IDC
+				context.getEnvironment().invalidateContainers();
+				runningContainers.addAll(context.getEnvironment().getRunningContainerIds());
 
-				nextdbfile : for (int i = 0; i < dbFiles.length; i++) {
-					DBMap appDB = new DBMap(dbFiles[i].getName().substring(DBMap.DBPREFIX.length()), context.getIDCBase());
+				for (AppIndex.Entry appDB : apps) {
 					String containerID = appDB.get(Constants.DB_LAST_CONTAINER_ID);
-					if(containerID == null)
-						continue nextdbfile;
+					if(containerID == null || deletedApps.contains(appDB.getDbId()))
+						continue;
 					Logger.info("Checking for container " + containerID);
-					for (int j = 0; j < runningContainers.size(); j++) {
-						if (containerID.equals(runningContainers.get(j))) {
-							// Found a running container for this db file so no need to clean up
-							continue nextdbfile;
-						}
+					if (runningContainers.contains(containerID)) {
+						// Found a running container for this db file so no need to clean up
+						continue;
 					}
 
 					// Delete .idc db and docker dir contents
-					Logger.info("Deleting db contents with app id: " + appDB.get(Constants.DB_APP_ID));
-					deleteCorrespondingIDCContents(context.getIDCBase(), appDB.get(Constants.DB_APP_ID));
+					Logger.info("Deleting db contents with app id: " + appDB.getDbId());
+					deleteCorrespondingIDCContents(context.getIDCBase(), appDB.getDbId(), index);
 				}
 
 			}
@@ -227,7 +218,7 @@ public class ContainerCleanTask {
 		
 	}
 
-	private static void deleteCorrespondingIDCContents(File IDC_BASE, String appid) throws IOException {
+	private static void deleteCorrespondingIDCContents(File IDC_BASE, String appid, AppIndex index) throws IOException {
 
 		File IDC_DB_DIR = new File(IDC_BASE.toString() + Constants.SLASH + "db");
 		File IDC_DOCKER_DIR = new File(IDC_BASE.toString() + Constants.SLASH + "docker");
@@ -241,6 +232,7 @@ public class ContainerCleanTask {
 
 			if (dBContents[i].contains(appid)) {
 				delFile = new File(IDC_DB_DIR.toString() + Constants.SLASH + dBContents[i]);
+				SharedDBMap.release(delFile);
 				if (IDCUtils.deleteFile(delFile)) {
 					Logger.info("The corresponding IDC container metadata content was deleted.");
 				}
@@ -257,6 +249,8 @@ public class ContainerCleanTask {
 				}
 			}
 		}
+
+		index.remove(appid);
 	}
 
 }
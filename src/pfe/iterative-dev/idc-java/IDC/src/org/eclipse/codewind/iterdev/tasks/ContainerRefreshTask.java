@@ -11,8 +11,10 @@
 
 package org.eclipse.codewind.iterdev.tasks;
 
+import org.eclipse.codewind.iterdev.Cmd;
 import org.eclipse.codewind.iterdev.Constants;
 import org.eclipse.codewind.iterdev.DBMap;
+import org.eclipse.codewind.iterdev.DockerUtils;
 import org.eclipse.codewind.iterdev.IDCContext;
 import org.eclipse.codewind.iterdev.Logger;
 
@@ -20,7 +22,6 @@ public class ContainerRefreshTask {
 
     public static boolean execute(IDCContext context) throws Exception {
         String curLastContainerId = context.getAppDb().get(Constants.DB_LAST_CONTAINER_ID);
-        String imageCommand = context.getImageCommand();
 
         try {
             DBMap appDb = context.getAppDb();
@@ -30,19 +31,20 @@ public class ContainerRefreshTask {
 
                 // If running in K8s, needs to delete helm release first
                 if (context.isK8s()) {
-                    TaskUtils.runCmd("helm delete " + appDb.get(Constants.DB_HELM_RELEASE) + " --purge", context, true);
+                    TaskUtils.runCmd(Cmd.of("helm", "delete", appDb.get(Constants.DB_HELM_RELEASE), "--purge"), context, true);
+                    context.getEnvironment().invalidateContainers();
                 }
                 else {
                         // Erase the container
                     String lastContainerId = appDb.get(Constants.DB_LAST_CONTAINER_ID);
                     if (lastContainerId != null) {
-                        TaskUtils.runCmd(imageCommand + " rm -f " + lastContainerId, context, true);
+                        DockerUtils.removeContainer(context, lastContainerId, true, true);
                         appDb.put(Constants.DB_LAST_CONTAINER_ID, null);
                     }
                 }
             }
             // Erase the container image
-            TaskUtils.runCmd(imageCommand + " rmi -f " + context.getImageName(), context, true);
+            DockerUtils.removeImage(context, context.getImageName(), true, true);
             appDb.put(Constants.DB_CONTAINER_BUILT, Boolean.FALSE.toString());
             appDb.put(Constants.DB_MASTER_DOCKER_FILE_HASH, null);
 
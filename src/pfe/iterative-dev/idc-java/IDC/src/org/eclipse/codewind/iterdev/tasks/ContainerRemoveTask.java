@@ -14,17 +14,21 @@ package org.eclipse.codewind.iterdev.tasks;
 import java.io.File;
 import java.io.IOException;
 
+import org.eclipse.codewind.iterdev.AppIndex;
+import org.eclipse.codewind.iterdev.Cmd;
 import org.eclipse.codewind.iterdev.Constants;
 import org.eclipse.codewind.iterdev.DBMap;
+import org.eclipse.codewind.iterdev.DockerUtils;
 import org.eclipse.codewind.iterdev.IDCContext;
 import org.eclipse.codewind.iterdev.IDCUtils;
+import org.eclipse.codewind.iterdev.KubeUtils;
 import org.eclipse.codewind.iterdev.Logger;
 import org.eclipse.codewind.iterdev.ProcessRunner;
+import org.eclipse.codewind.iterdev.SharedDBMap;
 
 public class ContainerRemoveTask {
 
 	public static boolean execute(IDCContext context) throws Exception {
-		String imageCommand = context.getImageCommand();
 		File idcBase = context.getIDCBase();
 		if (!idcBase.exists()) {
 			/* If the .idc directory doesn't exist then we cannot validate the container that needs to be removed.
@@ -48,7 +52,8 @@ public class ContainerRemoveTask {
 				
 				if(releaseName != null && !releaseName.isEmpty()) {
 					// Delete the helm release, then the docker image
-					ProcessRunner pr = TaskUtils.runCmd("helm delete " + releaseName + " --purge", context, false);
+					ProcessRunner pr = TaskUtils.runCmd(Cmd.of("helm", "delete", releaseName, "--purge"), context, false);
+					context.getEnvironment().invalidateContainers();
 					if(pr.getErrorCode().orElse(0) != 0) {
 						Logger.error("Error code: " + pr.getErrorCode() + ", Failed to remove the the Helm release " + releaseName);
 						return false;
@@ -58,37 +63,16 @@ public class ContainerRemoveTask {
 				}
 
 				Logger.info("Awaiting resource deleting confirmation for release " + releaseName);
-				int MAX_ATTEMPT = 36; //Set timeout: 36*5 = 3mins
-				int numTries = 0;
-				boolean terminated = false;
-				while (numTries < MAX_ATTEMPT) {
-					ProcessRunner pr = TaskUtils.runCmd("kubectl get pods  -l  \"release=" + releaseName + "\"", context, false);
-					if(pr.getErrorCode().orElse(0) != 0) {
-						Logger.error("Error getting K8 pod with release name " + releaseName + ". Error code: " + pr.getErrorCode());
-						return false;
-					}
-					if (pr.getReceived().contains(releaseName)){
-						//K8 pod for this release is still running.
-						Thread.sleep(5000);
-						numTries++;
-					} else {
-						Logger.info("K8 pod for release " + releaseName + "has been terminated");
-						terminated = true;
-						break;
-					}
-
-				}
-				if (!terminated) {
-					Logger.error("Timeout: K8 pod for release " + releaseName + "cannot be terminated within 3 minutes.");
+				if (KubeUtils.waitForPodsDeleted(context, "release=" + releaseName, 180)) {
+					Logger.info("K8 pod for release " + releaseName + " has been terminated");
+				} else {
+					Logger.error("Timeout: K8 pod for release " + releaseName + " cannot be terminated within 3 minutes.");
 					return false;
 				}
 				
 				String imageName = appDB.get(Constants.DB_CONTAINER_NAME);
 				if (imageName != null) {
-					ProcessRunner pr = TaskUtils.runCmd(imageCommand + " rmi " + imageName + " -f", context,
-							false);
-					if(pr.getErrorCode().orElse(0) != 0) {
-						Logger.error("Error code: " + pr.getErrorCode() + ", Failed to remove the image " + imageName);
+					if (!DockerUtils.removeImage(context, imageName, true, false)) {
 						return false;
 					} else {
 						Logger.info("Successfully removed the application image " + imageName);
@@ -96,11 +80,8 @@ public class ContainerRemoveTask {
 
 					String deploymentRegistry = appDB.get(Constants.DB_DEPLOYMENT_REGISTRY);
 					if (deploymentRegistry != null) {
-						pr = TaskUtils.runCmd("imageCommand rmi -f " + deploymentRegistry + "/" + imageName, context,
-								false);
-						if(pr.getErrorCode().orElse(0) != 0) {
-							Logger.error("Error code: " + pr.getErrorCode() + ", Failed to remove the image " + imageName +
-							" from docker registry " + deploymentRegistry);
+						if (!DockerUtils.removeImage(context, deploymentRegistry + "/" + imageName, true, false)) {
+							Logger.error("Failed to remove the image " + imageName + " from docker registry " + deploymentRegistry);
 							return false;
 						} else {
 							Logger.info("Successfully removed the application image " + imageName + " from docker registry " + deploymentRegistry);
@@ -108,7 +89,7 @@ public class ContainerRemoveTask {
 					}
 
 					// Delete the image from Kube
-					pr = TaskUtils.runCmd("kubectl delete image " + imageName + " --force --grace-period=0", context,
+					ProcessRunner pr = TaskUtils.runCmd(Cmd.of("kubectl", "delete", "image", imageName, "--force", "--grace-period=0"), context,
 							false);
 					if(pr.getErrorCode().orElse(0) != 0) {
 						Logger.error("Error code: " + pr.getErrorCode() + ", Failed to remove the image from Kubernetes " + imageName);
@@ -125,17 +106,10 @@ public class ContainerRemoveTask {
 				Logger.info("* Stopping and removing application: " + containerName);
 				
 				// Get the container id using the container name
-				ProcessRunner pr = TaskUtils.runCmd(imageCommand + " ps -aq -f name=" + containerName, context, false);
-				if(pr.getErrorCode().orElse(0) != 0) {
-					Logger.error("Error code: " + pr.getErrorCode() + ", No container with the name " + containerName + " was found.");
-				}
-				String[] lines = pr.getReceived().split("\\r?\\n");
-				String containerID = lines[lines.length - 1].trim();
+				String containerID = DockerUtils.findContainerId(context, containerName);
 			
 				if(containerID != null && !containerID.isEmpty()) {
-					pr = TaskUtils.runCmd(imageCommand + " rm -f " + containerID, context, false);
-					if(pr.getErrorCode().orElse(0) != 0) {
-						Logger.error("Error code: " + pr.getErrorCode() + ", Failed to remove the container " + containerID);
+					if (!DockerUtils.removeContainer(context, containerID, true, false)) {
 						return false;
 					} else {
 						Logger.info("Successfully removed the application container " + containerID);
@@ -144,10 +118,7 @@ public class ContainerRemoveTask {
 				
 				String imageName = appDB.get(Constants.DB_CONTAINER_NAME);
 				if(imageName != null){
-					pr = TaskUtils.runCmd(imageCommand + " image rm " + imageName, context,
-							false);
-					if(pr.getErrorCode().orElse(0) != 0) {
-						Logger.error("Error Code: " + pr.getErrorCode() + ", Failed to remove the image " + imageName);
+					if (!DockerUtils.removeImage(context, imageName, false, false)) {
 						return false;
 					} else {
 						Logger.info("Successfully removed the application image " + imageName);
@@ -174,6 +145,7 @@ public class ContainerRemoveTask {
 
 			if (dBContents[i].contains(appid)) {
 				delFile = new File(IDC_DB_DIR.toString() + Constants.SLASH + dBContents[i]);
+				SharedDBMap.release(delFile);
 				if (IDCUtils.deleteFile(delFile)) {
 					Logger.info("The corresponding IDC container metadata content was deleted.");
 				}
@@ -190,6 +162,8 @@ public class ContainerRemoveTask {
 				}
 			}
 		}
+
+		AppIndex.open(IDC_BASE).remove(appid);
 	}
 
 }
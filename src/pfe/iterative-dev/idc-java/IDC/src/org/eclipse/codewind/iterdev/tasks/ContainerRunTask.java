@@ -11,7 +11,12 @@
 
 package org.eclipse.codewind.iterdev.tasks;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.eclipse.codewind.iterdev.Cmd;
 import org.eclipse.codewind.iterdev.Constants;
+import org.eclipse.codewind.iterdev.DBMap;
 import org.eclipse.codewind.iterdev.IConsoleFilter;
 import org.eclipse.codewind.iterdev.IDCContext;
 import org.eclipse.codewind.iterdev.Logger;
@@ -30,26 +35,26 @@ public class ContainerRunTask {
         // arg to be passed after -p to expose debug port to localhost only
         final String debugPortPublishArg = "127.0.0.1::" + context.getDebugPort();
 
-        String cmd = null;
+        Cmd cmd = null;
         if (isWindows) {
-            cmd = context.getArtifactsDirectory().getPath() + Constants.SLASH + "run_docker.bat "
+            // Batch files are run by cmd
+            cmd = Cmd.shell(context.getArtifactsDirectory().getPath() + Constants.SLASH + "run_docker.bat "
                     + context.getContainerName() + " " + context.getImageName() + " \"-p "
                     + debugPortPublishArg + " -P\"" + " "
                     + context.getAppDockerBase() + " " + context.getLocalWorkspaceOrigin() + " "
-                    + context.getLogDir();
+                    + context.getLogDir());
         } else if (context.isK8s()) {
-            cmd = context.getArtifactsDirectory().getPath() + Constants.SLASH + "run_kubernetes.sh "
-                    + context.getContainerName() + " " + context.getImageName() + " "
-                    + context.getAppDockerBase() + " " + context.getLocalWorkspaceOrigin() + " "
-                    + context.getprojectID() + " "
-                    + context.getLogDir() + " "
-                    + context.getDeploymentRegistry();
+            cmd = Cmd.of(context.getArtifactsDirectory().getPath() + Constants.SLASH + "run_kubernetes.sh",
+                    context.getContainerName(), context.getImageName(),
+                    context.getAppDockerBase().toString(), context.getLocalWorkspaceOrigin(),
+                    context.getprojectID(),
+                    context.getLogDir(),
+                    context.getDeploymentRegistry());
         }  else {
-            cmd = context.getArtifactsDirectory().getPath() + Constants.SLASH + "run_docker.sh "
-                    + context.getContainerName() + " " + context.getImageName() + " \"-p "
-                    + debugPortPublishArg + " -P\"" + " "
-                    + context.getAppDockerBase() + " " + context.getLocalWorkspaceOrigin() + " "
-                    + context.getLogDir();
+            cmd = Cmd.of(context.getArtifactsDirectory().getPath() + Constants.SLASH + "run_docker.sh",
+                    context.getContainerName(), context.getImageName(), "-p " + debugPortPublishArg + " -P",
+                    context.getAppDockerBase().toString(), context.getLocalWorkspaceOrigin(),
+                    context.getLogDir());
         }
 
         ProcessRunner pr = runContainer(cmd, context);
@@ -73,8 +78,25 @@ public class ContainerRunTask {
             exitCode = pr.getErrorCode().orElseThrow(() -> new IllegalStateException("Process did not terminate."));
         }
 
-        // Container ID is the last line of the output
-        String[] lines = pr.getReceived().split("\\r?\\n");
+        // Container ID is the last line of the output; scan the output for the last three lines and the kube port
+        Deque<String> lastLines = new ArrayDeque<String>();
+        String kubePort = null;
+        int emptyLines = 0;
+        for (String line : pr.getCapture()) {
+            if (kubePort == null && line.contains("9080:")) {
+                kubePort = line.split(":")[1].split("/TCP")[0];
+            }
+            // Trailing empty lines are ignored
+            if (line.isEmpty()) {
+                emptyLines++;
+                continue;
+            }
+            for (; emptyLines > 0; emptyLines--) {
+                addLastLine(lastLines, "");
+            }
+            addLastLine(lastLines, line);
+        }
+        String[] lines = lastLines.toArray(new String[0]);
         if (context.isK8s()) {
             if (exitCode == 7) {
                 Logger.info("ContainerRunTask: run_kubernetes.sh has failed with exit code " + exitCode);
@@ -94,35 +116,44 @@ public class ContainerRunTask {
             String podID = lines[lines.length-2];
             String releaseID = lines[lines.length-1];
 
-            // Get the port the deployment is running on
-            for (String line : lines) {
-                if (line.contains("9080:")) {
-                   context.getAppDb().put(Constants.DB_KUBE_PORT, line.split(":")[1].split("/TCP")[0]);
-                   break;
+            DBMap appDb = context.getAppDb();
+            appDb.begin();
+            try {
+                // Get the port the deployment is running on
+                if (kubePort != null) {
+                    appDb.put(Constants.DB_KUBE_PORT, kubePort);
                 }
-            }
 
-            // Add the app db. (Store the deployment id in DB_LAST_CONTAINER_ID)
-            context.getAppDb().put(Constants.DB_LAST_CONTAINER_ID, deploymentID);
-            context.getAppDb().put(Constants.DB_HELM_RELEASE, releaseID);
-            context.getAppDb().put(Constants.DB_DEPLOYMENT_ID, deploymentID);
-            context.getAppDb().put(Constants.DB_POD_ID, podID);
-            context.getAppDb().put(Constants.DB_APP_ID, context.getAppId());
-            context.getAppDb().put(Constants.DB_APP_DIR, context.getAppDirectory().toString());
-            context.getAppDb().put(Constants.DB_CONTAINER_NAME, context.getContainerName());
+                // Add the app db. (Store the deployment id in DB_LAST_CONTAINER_ID)
+                appDb.put(Constants.DB_LAST_CONTAINER_ID, deploymentID);
+                appDb.put(Constants.DB_HELM_RELEASE, releaseID);
+                appDb.put(Constants.DB_DEPLOYMENT_ID, deploymentID);
+                appDb.put(Constants.DB_POD_ID, podID);
+                appDb.put(Constants.DB_APP_ID, context.getAppId());
+                appDb.put(Constants.DB_APP_DIR, context.getAppDirectory().toString());
+                appDb.put(Constants.DB_CONTAINER_NAME, context.getContainerName());
+            } finally {
+                appDb.commit();
+            }
             return releaseID;
         }
         else {
-            String containerId = lines[lines.length - 1];
+            String containerId = lines.length > 0 ? lines[lines.length - 1] : "";
 
             boolean result = (exitCode == 0 && containerId.length() == 64);
 
             if (result) {
                 Logger.info("Stored application container for " + context.getAppName() + ": " + containerId);
-                context.getAppDb().put(Constants.DB_LAST_CONTAINER_ID, containerId);
-                context.getAppDb().put(Constants.DB_APP_ID, context.getAppId());
-                context.getAppDb().put(Constants.DB_APP_DIR, context.getAppDirectory().toString());
-                context.getAppDb().put(Constants.DB_CONTAINER_NAME, context.getContainerName());
+                DBMap appDb = context.getAppDb();
+                appDb.begin();
+                try {
+                    appDb.put(Constants.DB_LAST_CONTAINER_ID, containerId);
+                    appDb.put(Constants.DB_APP_ID, context.getAppId());
+                    appDb.put(Constants.DB_APP_DIR, context.getAppDirectory().toString());
+                    appDb.put(Constants.DB_CONTAINER_NAME, context.getContainerName());
+                } finally {
+                    appDb.commit();
+                }
             } else {
                 Logger.error("Start container stage failed: failed to get containerID");
                 containerId = null;
@@ -133,7 +164,14 @@ public class ContainerRunTask {
 
     }
 
-    private static ProcessRunner runContainer(String cmd, IDCContext context) throws Exception {
+    private static void addLastLine(Deque<String> lastLines, String line) {
+        lastLines.addLast(line);
+        if (lastLines.size() > 3) {
+            lastLines.removeFirst();
+        }
+    }
+
+    private static ProcessRunner runContainer(Cmd cmd, IDCContext context) throws Exception {
         Logger.info("Run command to start the container: " + cmd);
 
         ProcessRunner pr = TaskUtils.runCmd(cmd, context, new IConsoleFilter() {
@@ -149,6 +187,7 @@ public class ContainerRunTask {
                 return false;
             }
         }, true);
+        context.getEnvironment().invalidateContainers();
 
         return pr;
 
@@ -12,64 +12,186 @@
 package org.eclipse.codewind.iterdev.tasks;
 
 import java.io.IOException;
-
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.codewind.iterdev.Cmd;
+import org.eclipse.codewind.iterdev.Constants;
+import org.eclipse.codewind.iterdev.ExecSession;
 import org.eclipse.codewind.iterdev.IConsoleFilter;
 import org.eclipse.codewind.iterdev.IDCContext;
+import org.eclipse.codewind.iterdev.Logger;
+import org.eclipse.codewind.iterdev.OutputCapture;
+import org.eclipse.codewind.iterdev.ProcessResult;
 import org.eclipse.codewind.iterdev.ProcessRunner;
 
 public class TaskUtils {
 
 	/**
 	 * Run a given command using ProcessBuilder
-	 * @param cmd Full command to run (including params)
+	 * @param cmd Command to run
 	 * @param context The context which contains the root password (if required for sudo), or null if not required
 	 * @param showOutput Whether or not to echo process output to the screen
 	 * @return Maybe used to retrieve process error code or output 
 	 * @throws IOException
 	 * @throws InterruptedException
 	 */
-	public static ProcessRunner runCmd(String cmd, IDCContext context, boolean showOutput) throws IOException, InterruptedException {
+	public static ProcessRunner runCmd(Cmd cmd, IDCContext context, boolean showOutput) throws IOException, InterruptedException {
 		return runCmd(cmd, context, null, showOutput);
 	}
 
-	public static ProcessRunner runCmd(String cmd, IDCContext context, IConsoleFilter filter, boolean showOutput)
+	public static ProcessRunner runCmd(Cmd cmd, IDCContext context, IConsoleFilter filter, boolean showOutput)
 			throws IOException, InterruptedException {
+		return runCmd(cmd, context, filter, null, showOutput);
+	}
 
-		ProcessRunner pr = createRunnerForCmd(cmd, context.getRootPassword().orElse(null), showOutput);
+	/**
+	 * Run a given command using ProcessBuilder, capturing its output in the given capture (or in a default capture if
+	 * it is null)
+	 */
+	public static ProcessRunner runCmd(Cmd cmd, IDCContext context, IConsoleFilter filter, OutputCapture capture,
+			boolean showOutput) throws IOException, InterruptedException {
+
+		ProcessRunner pr = createRunnerForCmd(cmd, context, showOutput);
+		pr.setTimeout(getTimeoutMillis(cmd, context));
 		if(filter != null)
 			pr.addConsoleFilter(filter);
-		pr.startAndWaitForTermination();
+		if(capture != null)
+			pr.setCapture(capture);
+		ProcessRunner.waitFor(pr.start());
 
 		return pr;
 	}
 
-	public static ProcessRunner createRunnerForCmd(String cmd, IDCContext context, boolean showOutput)
-			throws IOException, InterruptedException {
-		return createRunnerForCmd(cmd, context.getRootPassword().orElse(null), showOutput);
+	/** Writes the standard input of a process (see runCmdWithInput) */
+	public interface InputWriter {
+		public void write(OutputStream os) throws IOException;
 	}
 
-	private static ProcessRunner createRunnerForCmd(String cmd, String rootPassword, boolean showOutput)
+	/**
+	 * Run a given command, writing its standard input with the given writer while it runs (for example, to stream a
+	 * build context to it, rather than writing the context to disk first). If the process exits before it has read all
+	 * of its input, the error writing the input is logged, and the result is that of the process.
+	 */
+	public static ProcessRunner runCmdWithInput(Cmd cmd, IDCContext context, InputWriter input, boolean showOutput)
 			throws IOException, InterruptedException {
 
-		ProcessRunner pr;
-		boolean isWindows = System.getProperty("os.name").toLowerCase().contains("windows");
+		if (context.getRootPassword().isPresent()) {
+			// The password is written to the standard input of sudo, which is then closed
+			throw new IllegalStateException("Commands run with sudo can't be given input");
+		}
 
-		if (isWindows) {
-			pr = new ProcessRunner(new String[] { "cmd", "/c", cmd }, showOutput);
+		ProcessRunner pr = createRunnerForCmd(cmd, context, showOutput);
+		pr.setTimeout(getTimeoutMillis(cmd, context));
+		CompletableFuture<ProcessResult> result = pr.start();
+		try (OutputStream os = pr.getOutput()) {
+			input.write(os);
+		} catch (IOException e) {
+			Logger.error("Unable to write the input of " + cmd.getProgramName() + ": " + e.getMessage());
+		}
+		ProcessRunner.waitFor(result);
 
-		} else {
+		return pr;
+	}
 
-			// Unixes
+	/**
+	 * Start a given command without waiting for it to complete
+	 * @param cmd Command to run
+	 * @param context The context which contains the root password (if required for sudo), or null if not required
+	 * @param showOutput Whether or not to echo process output to the screen
+	 * @return Completed with the error code and output of the process, once it has exited
+	 * @throws IOException
+	 */
+	public static CompletableFuture<ProcessResult> startCmd(Cmd cmd, IDCContext context, boolean showOutput)
+			throws IOException {
+		ProcessRunner pr = createRunnerForCmd(cmd, context, showOutput);
+		pr.setTimeout(getTimeoutMillis(cmd, context));
+		return pr.start();
+	}
 
-			if (rootPassword == null) {
-				pr = new ProcessRunner(new String[] { "/bin/bash", "-c", cmd }, showOutput);
-			} else {
-				pr = new ProcessRunner(new String[] { "/bin/bash", "-c", "echo " + rootPassword + " | sudo -S " + cmd },
-						showOutput);
+	/**
+	 * Run a given command in the application container, in the exec session of the container if possible (see
+	 * ExecSession), or else with a new 'docker exec' (or 'kubectl exec')
+	 * @param cmd Command to run in the container
+	 * @param context The context of the application
+	 * @param capture Where to capture the output of the command, or null for a default capture
+	 * @param showOutput Whether or not to echo process output to the screen
+	 * @return The error code and output of the command
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static ProcessResult runInContainer(Cmd cmd, IDCContext context, OutputCapture capture, boolean showOutput)
+			throws IOException, InterruptedException {
+		if (ExecSession.isEnabled(context)) {
+			ExecSession session = ExecSession.get(context);
+			ProcessResult result = session != null ? session.run(cmd, capture, showOutput, getTimeoutMillis(cmd, context)) : null;
+			if (result != null) {
+				return result;
+			}
+		}
+
+		ProcessRunner pr = createRunnerForCmd(context.getContainerExecCmd().args(cmd.getArgs()).named(cmd.getOperation()),
+				context, showOutput);
+		// The timeout is that of the command run in the container, rather than of docker or kubectl
+		pr.setTimeout(getTimeoutMillis(cmd, context));
+		if(capture != null)
+			pr.setCapture(capture);
+		ProcessRunner.waitFor(pr.start());
+		return new ProcessResult(pr.getErrorCode().orElseThrow(() -> new IllegalStateException("Process did not complete.")),
+				pr.getCapture());
+	}
+
+	/**
+	 * Return the timeout of the given command, from 'timeout.(program)' in idc.config (for example, 'timeout.docker'
+	 * or 'timeout.build_server.sh'), or else from 'timeout.default'; in seconds, with 0 (the default if neither is set)
+	 * for no timeout.
+	 */
+	public static long getTimeoutMillis(Cmd cmd, IDCContext context) {
+		String program = cmd.getProgramName();
+
+		Properties config = context.getIDCConfiguration();
+		String value = config.getProperty(Constants.TIMEOUT_PROPERTY_PREFIX + program,
+				config.getProperty(Constants.DEFAULT_TIMEOUT_PROPERTY_KEY));
+		if (value != null) {
+			try {
+				return TimeUnit.SECONDS.toMillis(Long.parseLong(value.trim()));
+			} catch (NumberFormatException e) {
+				Logger.error("Invalid timeout for " + program + " in " + Constants.IDC_CONFIG_FILE + ": " + value);
 			}
 		}
+		return TimeUnit.SECONDS.toMillis(Constants.DEFAULT_TIMEOUT_SECONDS);
+	}
+
+	public static ProcessRunner createRunnerForCmd(Cmd cmd, IDCContext context, boolean showOutput)
+			throws IOException {
+		ProcessRunner pr = createRunnerForCmd(cmd, context.getRootPassword().orElse(null), showOutput);
+		pr.setWorkingDirectory(context.getAppDirectory());
+		return pr;
+	}
+
+	private static ProcessRunner createRunnerForCmd(Cmd cmd, String rootPassword, boolean showOutput)
+			throws IOException {
+
+		ProcessRunner pr;
+		boolean isWindows = System.getProperty("os.name").toLowerCase().contains("windows");
+
+		if (isWindows || rootPassword == null) {
+			pr = new ProcessRunner(cmd.toArgv(), showOutput);
+		} else {
+			// Unixes: sudo reads the password from stdin, so it does not appear in the command line
+			List<String> argv = new ArrayList<>(Arrays.asList("sudo", "-S"));
+			argv.addAll(Arrays.asList(cmd.toArgv()));
+			pr = new ProcessRunner(argv.toArray(new String[argv.size()]), showOutput);
+			pr.setInput(rootPassword + "\n");
+		}
+		pr.setOperation(cmd.getOperation());
 
 		return pr;
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,81 @@
+package org.eclipse.codewind.iterdev.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.eclipse.codewind.iterdev.AppIndex;
+import org.eclipse.codewind.iterdev.Constants;
+import org.eclipse.codewind.iterdev.DBMap;
+import org.eclipse.codewind.iterdev.tests.utils.IDCTestUtil;
+
+public class AppIndexTest {
+
+	File idcBase;
+
+	@Before
+	public void setUp() throws Exception {
+		idcBase = Files.createTempDirectory("appindextest").toFile();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		IDCTestUtil.delete(idcBase.getAbsolutePath());
+	}
+
+	@Test
+	public void buildsFromExistingDbs() throws Exception {
+		DBMap app = new DBMap("app1", idcBase);
+		app.put(Constants.DB_APP_DIR, "/projects/app1");
+		app.put(Constants.DB_LAST_CONTAINER_ID, "container1");
+		app.put(Constants.DB_LOG_NAME, "not-indexed");
+		new DBMap("global", idcBase).put("port-mapping", "9080");
+
+		Map<String, AppIndex.Entry> entries = getEntries();
+		assertEquals(1, entries.size());
+		assertEquals("/projects/app1", entries.get("app1").get(Constants.DB_APP_DIR));
+		assertEquals("container1", entries.get("app1").get(Constants.DB_LAST_CONTAINER_ID));
+		assertNull(entries.get("app1").get(Constants.DB_LOG_NAME));
+	}
+
+	@Test
+	public void followsDbWrites() throws Exception {
+		AppIndex index = AppIndex.open(idcBase);
+
+		DBMap app = new DBMap("app1", idcBase);
+		app.put(Constants.DB_LAST_CONTAINER_ID, "container1");
+		assertEquals("container1", getEntries().get("app1").get(Constants.DB_LAST_CONTAINER_ID));
+
+		app.begin();
+		app.put(Constants.DB_LAST_CONTAINER_ID, "container2");
+		app.put(Constants.DB_HELM_RELEASE, "release2");
+		assertEquals("container1", getEntries().get("app1").get(Constants.DB_LAST_CONTAINER_ID));
+		app.commit();
+		assertEquals("container2", getEntries().get("app1").get(Constants.DB_LAST_CONTAINER_ID));
+		assertEquals("release2", getEntries().get("app1").get(Constants.DB_HELM_RELEASE));
+
+		app.put(Constants.DB_LAST_CONTAINER_ID, null);
+		assertNull(getEntries().get("app1").get(Constants.DB_LAST_CONTAINER_ID));
+
+		index.remove("app1");
+		assertNull(getEntries().get("app1"));
+	}
+
+	private Map<String, AppIndex.Entry> getEntries() throws Exception {
+		Collection<AppIndex.Entry> entries = AppIndex.open(idcBase).getEntries();
+		Map<String, AppIndex.Entry> result = new HashMap<>();
+		for (AppIndex.Entry e : entries) {
+			result.put(e.getDbId(), e);
+		}
+		return result;
+	}
+}
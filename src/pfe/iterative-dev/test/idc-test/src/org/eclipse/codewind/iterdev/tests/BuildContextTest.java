@@ -0,0 +1,156 @@
+package org.eclipse.codewind.iterdev.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.eclipse.codewind.iterdev.BuildContext;
+import org.eclipse.codewind.iterdev.tests.utils.IDCTestUtil;
+
+public class BuildContextTest {
+
+	File dir;
+
+	@Before
+	public void setUp() throws Exception {
+		dir = Files.createTempDirectory("buildcontexttest").toFile();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		IDCTestUtil.delete(dir.getAbsolutePath());
+	}
+
+	private File write(String path, String contents) throws Exception {
+		File f = new File(dir, path);
+		f.getParentFile().mkdirs();
+		Files.write(f.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+		return f;
+	}
+
+	/** Read the entries of a tar archive: name (with a trailing '/' for directories) to contents */
+	private static Map<String, String> readTar(byte[] tar) {
+		Map<String, String> result = new LinkedHashMap<>();
+		String paxPath = null;
+		int pos = 0;
+		while (pos + 512 <= tar.length && tar[pos] != 0) {
+			String name = field(tar, pos, 100);
+			long size = Long.parseLong(field(tar, pos + 124, 12).trim(), 8);
+			char type = (char) tar[pos + 156];
+			String contents = new String(tar, pos + 512, (int) size, StandardCharsets.UTF_8);
+			if (type == 'x') {
+				// Only 'path' records are expected
+				paxPath = contents.substring(contents.indexOf("path=") + 5, contents.length() - 1);
+			} else {
+				result.put(paxPath != null ? paxPath : name, contents);
+				paxPath = null;
+			}
+			pos += 512 + (int) ((size + 511) / 512 * 512);
+		}
+		return result;
+	}
+
+	private static String field(byte[] tar, int offset, int length) {
+		int end = offset;
+		while (end < offset + length && tar[end] != 0) {
+			end++;
+		}
+		return new String(tar, offset, end - offset, StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void contextIsWrittenAsTar() throws Exception {
+		File dockerfile = write("docker/Dockerfile-idc", "FROM scratch\n");
+		File artifacts = new File(dir, "artifacts");
+		write("artifacts/run.sh", "#!/bin/sh\n");
+		File app = new File(dir, "app");
+		write("app/src/main/App.java", "class App {}\n");
+		write("app/node_modules/lib.js", "ignored\n");
+		write("app/.dockerignore", "node_modules\n");
+		String longPath = "src/" + String.join("/", Collections.nCopies(12, "directory")) + "/File.txt";
+		write("app/" + longPath, "long\n");
+
+		BuildContext context = new BuildContext(BuildContext.Ignore.load(new File(app, ".dockerignore")));
+		context.addFile(BuildContext.DOCKERFILE, dockerfile, true);
+		context.addTree("artifacts", artifacts);
+		context.addTree("", app);
+		context.addDirectory("target/liberty/wlp");
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		long written = context.write(out);
+		assertEquals(out.size(), written);
+		assertEquals(0, written % 512);
+
+		Map<String, String> entries = readTar(out.toByteArray());
+		assertEquals("FROM scratch\n", entries.get("Dockerfile-idc"));
+		assertEquals("#!/bin/sh\n", entries.get("artifacts/run.sh"));
+		assertEquals("class App {}\n", entries.get("src/main/App.java"));
+		assertEquals("long\n", entries.get(longPath));
+		assertTrue(entries.containsKey("target/liberty/wlp/"));
+		assertFalse(entries.containsKey("node_modules/"));
+		assertFalse(entries.containsKey("node_modules/lib.js"));
+
+		// Each directory comes before its contents
+		String[] names = entries.keySet().toArray(new String[0]);
+		assertArrayEquals(new String[] { "Dockerfile-idc", "artifacts/", "artifacts/run.sh" }, Arrays.copyOf(names, 3));
+	}
+
+	@Test
+	public void applicationFilesReplaceArtifactsOfTheSameName() throws Exception {
+		File dockerfile = write("docker/Dockerfile-idc", "FROM scratch\n");
+		File artifacts = new File(dir, "artifacts");
+		write("artifacts/run.sh", "#!/bin/sh\n");
+		write("artifacts/lib/a.jar", "a\n");
+		File app = new File(dir, "app");
+		write("app/artifacts/run.sh", "#!/bin/bash\n");
+		write("app/artifacts/lib", "not a directory\n");
+		write("app/Dockerfile-idc", "FROM app\n");
+
+		BuildContext context = new BuildContext(new BuildContext.Ignore());
+		context.addFile(BuildContext.DOCKERFILE, dockerfile, true);
+		context.addTree("artifacts", artifacts);
+		context.addTree("", app);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		context.write(out);
+		Map<String, String> entries = readTar(out.toByteArray());
+		assertEquals("FROM scratch\n", entries.get("Dockerfile-idc"));
+		assertEquals("#!/bin/bash\n", entries.get("artifacts/run.sh"));
+		assertEquals("not a directory\n", entries.get("artifacts/lib"));
+		assertFalse(entries.containsKey("artifacts/lib/a.jar"));
+	}
+
+	@Test
+	public void ignorePatternsMatchLikeDocker() throws Exception {
+		BuildContext.Ignore ignore = new BuildContext.Ignore();
+		ignore.add("# comment");
+		ignore.add("*.log");
+		ignore.add("!keep.log");
+		ignore.add("**/tmp");
+		ignore.add("/docs");
+
+		assertTrue(ignore.isExcluded("build.log"));
+		assertFalse(ignore.isExcluded("keep.log"));
+		assertFalse(ignore.isExcluded("src/build.log"));
+		assertTrue(ignore.isExcluded("tmp"));
+		assertTrue(ignore.isExcluded("src/main/tmp"));
+		assertTrue(ignore.isExcluded("docs/index.html"));
+		assertFalse(ignore.isExcluded("src/docs"));
+		assertFalse(ignore.isExcluded("comment"));
+		assertTrue(ignore.hasExceptions());
+	}
+}
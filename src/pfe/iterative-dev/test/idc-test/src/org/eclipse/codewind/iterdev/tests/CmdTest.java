@@ -0,0 +1,39 @@
+package org.eclipse.codewind.iterdev.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import org.eclipse.codewind.iterdev.Cmd;
+import org.eclipse.codewind.iterdev.ProcessRunner;
+
+public class CmdTest {
+
+	@Test
+	public void argumentsAreNotSplitOrExpanded() throws Exception {
+		Cmd exec = Cmd.of("/bin/echo");
+		Cmd cmd = exec.args("-p 127.0.0.1::7777 -P", "$HOME", "{{.Image}}");
+		assertArrayEquals(new String[] { "/bin/echo", "-p 127.0.0.1::7777 -P", "$HOME", "{{.Image}}" }, cmd.toArgv());
+		assertEquals("/bin/echo '-p 127.0.0.1::7777 -P' '$HOME' '{{.Image}}'", cmd.toString());
+
+		// The prefix is unchanged
+		assertArrayEquals(new String[] { "/bin/echo" }, exec.toArgv());
+
+		ProcessRunner pr = new ProcessRunner(cmd.toArgv(), false);
+		pr.startAndWaitForTermination();
+		assertEquals("-p 127.0.0.1::7777 -P $HOME {{.Image}}\n", pr.getReceived());
+	}
+
+	@Test
+	public void shellCommandsUseTheShell() throws Exception {
+		ProcessRunner pr = new ProcessRunner(Cmd.shell("echo a b | tr ' ' '\\n' | sort -r").toArgv(), false);
+		pr.startAndWaitForTermination();
+		assertEquals("b\na\n", pr.getReceived());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void argumentsCannotBeAddedToShellCommands() {
+		Cmd.shell("ls").args("-l");
+	}
+}
@@ -0,0 +1,99 @@
+package org.eclipse.codewind.iterdev.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.eclipse.codewind.iterdev.ContentHasher;
+import org.eclipse.codewind.iterdev.DBMap;
+import org.eclipse.codewind.iterdev.FileMonitor;
+import org.eclipse.codewind.iterdev.IDCUtils;
+import org.eclipse.codewind.iterdev.tests.utils.IDCTestUtil;
+
+public class ContentHasherTest {
+
+	private static final ContentHasher XXH64 = ContentHasher.get(ContentHasher.XXH64);
+
+	File idcBase;
+
+	File appDir;
+
+	@Before
+	public void setUp() throws Exception {
+		idcBase = Files.createTempDirectory("contenthashertest").toFile();
+		appDir = new File(idcBase, "app");
+		appDir.mkdirs();
+
+		// The content hasher is read from the idc.config file in the IDC jar directory, which has none here (xxh64)
+		System.setProperty("idc.jar.path", idcBase.getAbsolutePath());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		System.clearProperty("idc.jar.path");
+		IDCTestUtil.delete(idcBase.getAbsolutePath());
+	}
+
+	@Test
+	public void xxh64MatchesReferenceValues() {
+		assertEquals("ef46db3751d8e999", XXH64.hashString(""));
+		assertEquals("d24ec4f1a98c6e5b", XXH64.hashString("a"));
+		assertEquals("44bc2cf5ad770999", XXH64.hashString("abc"));
+		assertEquals("fbcea83c8a378bf1", XXH64.hashString("Nobody inspects the spammish repetition"));
+	}
+
+	@Test
+	public void xxh64FileMatchesString() throws Exception {
+		// Larger than the read buffer, and not a multiple of the 32 byte stripe
+		StringBuilder sb = new StringBuilder();
+		for (int x = 0; sb.length() < 200003; x++) {
+			sb.append(x).append(',');
+		}
+		String contents = sb.substring(0, 200003);
+
+		File f = new File(appDir, "large.txt");
+		Files.write(f.toPath(), contents.getBytes());
+		assertEquals(XXH64.hashString(contents), XXH64.hashFile(f));
+	}
+
+	@Test
+	public void legacyHashIsUpgradedWithoutChange() throws Exception {
+		File pom = new File(appDir, "pom.xml");
+		Files.write(pom.toPath(), "<project/>".getBytes());
+		Files.setLastModifiedTime(pom.toPath(), FileTime.fromMillis(System.currentTimeMillis() - 60000));
+
+		// A hash stored by an earlier version of IDC
+		DBMap appDb = new DBMap("app", idcBase);
+		appDb.put(FileMonitor.POMCHANGE_HASH, IDCUtils.calculateHashOfOrderedFileContents(new File[] { pom }));
+
+		assertNull(FileMonitor.getNewPomUpdateHash(appDb, appDir.getAbsolutePath()));
+		assertTrue(appDb.get(FileMonitor.POMCHANGE_HASH).startsWith(ContentHasher.XXH64 + ":"));
+		assertNull(FileMonitor.getNewPomUpdateHash(appDb, appDir.getAbsolutePath()));
+
+		Files.write(pom.toPath(), "<project>changed</project>".getBytes());
+		assertNotNull(FileMonitor.getNewPomUpdateHash(appDb, appDir.getAbsolutePath()));
+	}
+
+	@Test
+	public void changedFileIsNotUpgraded() throws Exception {
+		File pom = new File(appDir, "pom.xml");
+		Files.write(pom.toPath(), "<project/>".getBytes());
+
+		DBMap appDb = new DBMap("app", idcBase);
+		String legacyHash = IDCUtils.calculateHashOfOrderedFileContents(new File[] { pom });
+		appDb.put(FileMonitor.POMCHANGE_HASH, legacyHash);
+
+		Files.write(pom.toPath(), "<project>changed</project>".getBytes());
+		assertNotNull(FileMonitor.getNewPomUpdateHash(appDb, appDir.getAbsolutePath()));
+		assertEquals(legacyHash, appDb.get(FileMonitor.POMCHANGE_HASH));
+	}
+}
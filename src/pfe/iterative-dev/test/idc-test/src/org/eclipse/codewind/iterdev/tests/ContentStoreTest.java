@@ -0,0 +1,124 @@
+package org.eclipse.codewind.iterdev.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.eclipse.codewind.iterdev.ContentHasher;
+import org.eclipse.codewind.iterdev.ContentStore;
+import org.eclipse.codewind.iterdev.DBMap;
+import org.eclipse.codewind.iterdev.FingerprintCache;
+import org.eclipse.codewind.iterdev.StagingDirectory;
+import org.eclipse.codewind.iterdev.tests.utils.IDCTestUtil;
+
+public class ContentStoreTest {
+
+	private static final ContentHasher SHA1 = ContentHasher.get(ContentHasher.SHA1);
+
+	File idcBase;
+
+	File artifactsDir;
+
+	ContentStore store;
+
+	@Before
+	public void setUp() throws Exception {
+		idcBase = Files.createTempDirectory("contentstoretest").toFile();
+		artifactsDir = new File(idcBase, "artifacts");
+		writeOldFile("masterDockerfiles/Dockerfile", "FROM websphere-liberty");
+		File script = writeOldFile("build_docker_image.sh", "#!/bin/bash");
+		Files.setPosixFilePermissions(script.toPath(), PosixFilePermissions.fromString("rwxr-xr-x"));
+		store = new ContentStore(idcBase, SHA1);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		IDCTestUtil.delete(idcBase.getAbsolutePath());
+	}
+
+	@Test
+	public void identicalFilesAreStoredOnce() throws Exception {
+		StagingDirectory first = stage("app1");
+		assertEquals(2, first.getFilesCopied());
+		StagingDirectory second = stage("app2");
+		assertEquals(0, second.getFilesCopied());
+		assertEquals(2, second.getFilesShared());
+
+		Path script1 = staged("app1", "build_docker_image.sh");
+		Path script2 = staged("app2", "build_docker_image.sh");
+		assertTrue(Files.isSameFile(script1, script2));
+		assertEquals(3, ((Number) Files.getAttribute(script1, "unix:nlink")).intValue());
+		assertEquals("rwxr-xr-x", PosixFilePermissions.toString(Files.getPosixFilePermissions(script2)));
+		assertEquals("FROM websphere-liberty", new String(Files.readAllBytes(staged("app2", "masterDockerfiles/Dockerfile"))));
+
+		// Already linked, so nothing is written again
+		StagingDirectory again = stage("app1");
+		assertEquals(0, again.getFilesCopied());
+		assertEquals(0, again.getFilesShared());
+		assertEquals(2, again.getFilesUnchanged());
+	}
+
+	@Test
+	public void changedFileIsStoredSeparately() throws Exception {
+		stage("app1");
+		writeOldFile("masterDockerfiles/Dockerfile", "FROM open-liberty");
+		StagingDirectory staging = stage("app1");
+		assertEquals(1, staging.getFilesCopied());
+		Path dockerfile = staged("app1", "masterDockerfiles/Dockerfile");
+		assertEquals("FROM open-liberty", new String(Files.readAllBytes(dockerfile)));
+	}
+
+	@Test
+	public void unreferencedFilesAreCollected() throws Exception {
+		stage("app1");
+		stage("app2");
+
+		IDCTestUtil.delete(new File(idcBase, "docker/docker-app1").getAbsolutePath());
+		Thread.sleep(10);
+		assertEquals(0, store.collectGarbage(0));
+		assertTrue(Files.exists(staged("app2", "build_docker_image.sh")));
+
+		IDCTestUtil.delete(new File(idcBase, "docker/docker-app2").getAbsolutePath());
+		Thread.sleep(10);
+		assertEquals(2, store.collectGarbage(0));
+		assertEquals(0, store.collectGarbage(0));
+
+		// Recently unreferenced files are kept for a while, as another process may be about to link to them
+		stage("app3");
+		IDCTestUtil.delete(new File(idcBase, "docker/docker-app3").getAbsolutePath());
+		assertEquals(0, store.collectGarbage(60000));
+		assertEquals(0, stage("app4").getFilesCopied());
+	}
+
+	private StagingDirectory stage(String appId) throws Exception {
+		File dockerBase = new File(idcBase, "docker/docker-" + appId);
+		dockerBase.mkdirs();
+		FingerprintCache fingerprints = FingerprintCache.forDb(new DBMap(appId, idcBase));
+		StagingDirectory staging = new StagingDirectory(dockerBase, fingerprints, SHA1);
+		staging.stage(artifactsDir, "artifacts", store);
+		staging.prune();
+		fingerprints.save();
+		return staging;
+	}
+
+	private Path staged(String appId, String name) {
+		return new File(idcBase, "docker/docker-" + appId + "/artifacts/" + name).toPath();
+	}
+
+	private File writeOldFile(String name, String contents) throws Exception {
+		File f = new File(artifactsDir, name);
+		f.getParentFile().mkdirs();
+		Files.write(f.toPath(), contents.getBytes());
+		Files.setLastModifiedTime(f.toPath(), FileTime.fromMillis(System.currentTimeMillis() - 60000));
+		return f;
+	}
+}
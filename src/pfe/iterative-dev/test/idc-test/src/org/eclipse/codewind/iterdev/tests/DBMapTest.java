@@ -0,0 +1,171 @@
+package org.eclipse.codewind.iterdev.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.eclipse.codewind.iterdev.DBMap;
+import org.eclipse.codewind.iterdev.tests.utils.IDCTestUtil;
+
+public class DBMapTest {
+
+	/** Number of puts that IDC makes in a typical burst (IDCContext constructor, ContainerRunTask) */
+	private static final int PUTS_PER_BURST = 10;
+
+	private static final int BURSTS = 500;
+
+	File idcBase;
+
+	@Before
+	public void setUp() throws Exception {
+		idcBase = Files.createTempDirectory("dbmaptest").toFile();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		IDCTestUtil.delete(idcBase.getAbsolutePath());
+	}
+
+	@Test
+	public void readsExistingDbFile() throws IOException {
+		File dbDir = new File(idcBase, "db");
+		dbDir.mkdirs();
+		Files.write(new File(dbDir, DBMap.DBPREFIX + "app").toPath(), "APP_ID@#@app\nPOD_ID@#@pod1\n".getBytes());
+
+		DBMap db = new DBMap("app", idcBase);
+		assertEquals("app", db.get("APP_ID"));
+		assertEquals("pod1", db.get("POD_ID"));
+	}
+
+	@Test
+	public void replaysPutsAndRemoves() throws IOException {
+		DBMap db = new DBMap("app", idcBase);
+		db.put("A", "1");
+		db.put("B", "2");
+		db.put("A", "3");
+		db.remove("B");
+		db.put("C", null);
+
+		DBMap reloaded = new DBMap("app", idcBase);
+		assertEquals("3", reloaded.get("A"));
+		assertNull(reloaded.get("B"));
+		assertNull(reloaded.get("C"));
+		assertEquals(1, reloaded.getMap().size());
+	}
+
+	@Test
+	public void discardsIncompleteLastEntry() throws IOException {
+		DBMap db = new DBMap("app", idcBase);
+		db.put("A", "1");
+
+		File dbFile = new File(new File(idcBase, "db"), DBMap.DBPREFIX + "app");
+		Files.write(dbFile.toPath(), "B@#@partial".getBytes(), java.nio.file.StandardOpenOption.APPEND);
+
+		DBMap reloaded = new DBMap("app", idcBase);
+		assertNull(reloaded.get("B"));
+		reloaded.put("C", "2");
+
+		DBMap again = new DBMap("app", idcBase);
+		assertEquals("1", again.get("A"));
+		assertEquals("2", again.get("C"));
+	}
+
+	@Test
+	public void compactsJournal() throws IOException {
+		DBMap db = new DBMap("app", idcBase);
+		for (int x = 0; x < 1000; x++) {
+			db.put("COUNTER", Integer.toString(x));
+		}
+
+		File dbFile = new File(new File(idcBase, "db"), DBMap.DBPREFIX + "app");
+		List<String> lines = Files.readAllLines(dbFile.toPath());
+		assertTrue("Journal was not compacted: " + lines.size() + " lines", lines.size() < 100);
+		assertEquals("999", new DBMap("app", idcBase).get("COUNTER"));
+	}
+
+	@Test
+	public void commitWritesOnce() throws IOException {
+		DBMap db = new DBMap("app", idcBase);
+		long writes = DBMap.getWriteCount();
+
+		db.begin();
+		for (int x = 0; x < PUTS_PER_BURST; x++) {
+			db.put("KEY" + x, "value" + x);
+		}
+		assertNull(new DBMap("app", idcBase).get("KEY0"));
+		db.commit();
+
+		assertEquals(1, DBMap.getWriteCount() - writes);
+		assertEquals("value9", new DBMap("app", idcBase).get("KEY9"));
+	}
+
+	@Test
+	public void rollbackDiscardsChanges() throws IOException {
+		DBMap db = new DBMap("app", idcBase);
+		db.put("A", "1");
+
+		db.begin();
+		db.put("A", "2");
+		db.put("B", "3");
+		db.rollback();
+
+		assertEquals("1", db.get("A"));
+		assertNull(db.get("B"));
+		assertEquals("1", new DBMap("app", idcBase).get("A"));
+	}
+
+	@Test
+	public void nestedRollbackKeepsOuterTransaction() throws IOException {
+		DBMap db = new DBMap("app", idcBase);
+
+		db.begin();
+		db.put("A", "1");
+		db.begin();
+		db.put("B", "2");
+		db.rollback();
+		assertEquals("1", db.get("A"));
+		assertNull(db.get("B"));
+		db.commit();
+
+		assertEquals("1", new DBMap("app", idcBase).get("A"));
+		assertNull(new DBMap("app", idcBase).get("B"));
+	}
+
+	/** Bursts of puts in a transaction write the db file once per burst, rather than once per put. */
+	@Test
+	public void batchingReducesWrites() throws IOException {
+		DBMap unbatched = new DBMap("unbatched", idcBase);
+		long writes = DBMap.getWriteCount();
+		for (int burst = 0; burst < BURSTS; burst++) {
+			for (int x = 0; x < PUTS_PER_BURST; x++) {
+				unbatched.put("KEY" + x, "value" + burst);
+			}
+		}
+		long unbatchedWrites = DBMap.getWriteCount() - writes;
+
+		DBMap batched = new DBMap("batched", idcBase);
+		writes = DBMap.getWriteCount();
+		for (int burst = 0; burst < BURSTS; burst++) {
+			batched.begin();
+			for (int x = 0; x < PUTS_PER_BURST; x++) {
+				batched.put("KEY" + x, "value" + burst);
+			}
+			batched.commit();
+		}
+		long batchedWrites = DBMap.getWriteCount() - writes;
+
+		assertEquals(BURSTS * PUTS_PER_BURST, unbatchedWrites);
+		assertEquals(BURSTS, batchedWrites);
+		assertTrue("Expected at least 10x fewer writes, batched " + batchedWrites + ", unbatched " + unbatchedWrites,
+				batchedWrites * 10 <= unbatchedWrites);
+	}
+}
@@ -0,0 +1,81 @@
+package org.eclipse.codewind.iterdev.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import org.eclipse.codewind.iterdev.DockerClient;
+import org.eclipse.codewind.iterdev.Json;
+import org.eclipse.codewind.iterdev.tests.utils.StubDockerDaemon;
+
+public class DockerClientTest {
+
+	@Test
+	public void requestsReuseTheConnection() throws Exception {
+		try (StubDockerDaemon daemon = new StubDockerDaemon()) {
+			daemon.respond("GET", "/images/json", 200,
+					"[{\"Id\":\"sha256:1\",\"RepoTags\":[\"app-idc-1:latest\",\"localhost:5000/app-idc-1:v2\"]},"
+							+ "{\"Id\":\"sha256:2\",\"RepoTags\":[\"<none>:<none>\"]}]", true);
+			daemon.respond("GET", "/containers/json?all=0", 200,
+					"[{\"Id\":\"abc123\",\"Image\":\"app-idc-1\",\"Names\":[\"/app-idc-1\"]}]", false);
+			daemon.respond("DELETE", "/containers/abc123?force=1", 204, "", false);
+
+			DockerClient client = DockerClient.connect(daemon.getEndpoint(), 10000);
+			assertEquals(Arrays.asList("app-idc-1", "localhost:5000/app-idc-1"), client.listImageRepositories());
+			assertEquals(Arrays.asList("abc123"), client.listContainerIds(false));
+			assertEquals(Arrays.asList("app-idc-1"), client.listContainerImages());
+			assertTrue(client.removeContainer("abc123", true).isSuccessful());
+
+			DockerClient.Response missing = client.removeImage("missing image", false);
+			assertFalse(missing.isSuccessful());
+			assertEquals("No such object", missing.getMessage());
+			assertEquals("DELETE /images/missing%20image?force=0", daemon.getRequests().get(4));
+
+			assertEquals(1, daemon.getConnections());
+			client.close();
+		}
+	}
+
+	@Test
+	public void closedConnectionIsReopened() throws Exception {
+		try (StubDockerDaemon daemon = new StubDockerDaemon()) {
+			daemon.respond("POST", "/containers/app/stop", 304, "", false);
+			DockerClient client = DockerClient.connect(daemon.getEndpoint(), 10000);
+			assertEquals(304, client.stopContainer("app").getStatus());
+
+			// As if the engine had closed the idle connection
+			client.close();
+			assertEquals(304, client.stopContainer("app").getStatus());
+			assertEquals(2, daemon.getConnections());
+			client.close();
+		}
+	}
+
+	@Test
+	public void imagesAreInspectedByName() throws Exception {
+		try (StubDockerDaemon daemon = new StubDockerDaemon()) {
+			daemon.respond("GET", "/images/localhost:5000/app-idc-1/json", 200, "{\"Id\":\"sha256:1\"}", false);
+			DockerClient client = DockerClient.connect(daemon.getEndpoint(), 10000);
+			assertTrue(client.inspectImage("localhost:5000/app-idc-1").isSuccessful());
+			assertEquals(404, client.inspectImage("app-idc-2").getStatus());
+			client.close();
+		}
+	}
+
+	@Test
+	public void jsonIsDecoded() {
+		Object json = Json.parse("{\"a\": [1, 2.5, -3e2], \"b\": \"x\\\"\\u00e9\\n\", \"c\": {\"d\": null, \"e\": true}}");
+		List<?> a = Json.getList(json, "a");
+		assertEquals(Arrays.asList(1.0, 2.5, -300.0), a);
+		assertEquals("x\"\u00e9\n", Json.getString(json, "b"));
+		Map<?, ?> c = (Map<?, ?>) ((Map<?, ?>) json).get("c");
+		assertTrue(c.containsKey("d"));
+		assertEquals(Boolean.TRUE, c.get("e"));
+	}
+}
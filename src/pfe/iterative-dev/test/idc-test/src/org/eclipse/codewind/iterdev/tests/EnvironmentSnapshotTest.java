@@ -0,0 +1,88 @@
+package org.eclipse.codewind.iterdev.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.eclipse.codewind.iterdev.DockerUtils;
+import org.eclipse.codewind.iterdev.EnvironmentSnapshot;
+import org.eclipse.codewind.iterdev.IDCContext;
+import org.eclipse.codewind.iterdev.tests.utils.IDCTestUtil;
+import org.eclipse.codewind.iterdev.tests.utils.StubDockerDaemon;
+
+public class EnvironmentSnapshotTest {
+
+	File idcBase;
+
+	StubDockerDaemon daemon;
+
+	IDCContext context;
+
+	@Before
+	public void setUp() throws Exception {
+		idcBase = Files.createTempDirectory("environmentsnapshottest").toFile();
+		File artifacts = new File(idcBase, "artifacts");
+		artifacts.mkdirs();
+		new File(artifacts, "run_docker.sh").createNewFile();
+		File appDir = new File(idcBase, "app");
+		appDir.mkdirs();
+
+		daemon = new StubDockerDaemon();
+		daemon.respond("GET", "/images/app-idc-1/json", 200, "{\"Id\":\"sha256:1\"}", false);
+		daemon.respond("GET", "/containers/json?all=0", 200, "[{\"Id\":\"abc123\"}]", false);
+		daemon.respond("DELETE", "/images/app-idc-1?force=1", 200, "[]", false);
+
+		// The Docker engine is found from idc.config, in the IDC jar directory
+		Files.write(new File(artifacts, "idc.config").toPath(), Arrays.asList(
+				"idcBasePath=" + idcBase.getAbsolutePath(), "dockerHost=" + daemon.getEndpoint()));
+		System.setProperty("idc.jar.path", artifacts.getAbsolutePath());
+
+		context = new IDCContext(appDir, null, null, "app-idc-1", null, null, null, null, null);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		System.clearProperty("idc.jar.path");
+		daemon.close();
+		IDCTestUtil.delete(idcBase.getAbsolutePath());
+	}
+
+	@Test
+	public void stateIsFetchedOnce() throws Exception {
+		EnvironmentSnapshot environment = context.getEnvironment();
+		environment.prefetch();
+		assertTrue(environment.isImagePresent());
+		assertTrue(environment.isImagePresent());
+		assertEquals(Collections.singletonList("abc123"), environment.getRunningContainerIds());
+		assertEquals(Collections.singletonList("abc123"), environment.getRunningContainerIds());
+
+		assertEquals(2, daemon.getRequests().size());
+	}
+
+	@Test
+	public void stateIsFetchedAgainAfterItIsChanged() throws Exception {
+		EnvironmentSnapshot environment = context.getEnvironment();
+		assertTrue(environment.isImagePresent());
+
+		daemon.respond("GET", "/images/app-idc-1/json", 404, "{\"message\":\"No such image\"}", false);
+		assertTrue(environment.isImagePresent());
+
+		// Removing the image invalidates the image state, but not the container state
+		environment.getRunningContainerIds();
+		assertTrue(DockerUtils.removeImage(context, "app-idc-1", true, false));
+		assertFalse(environment.isImagePresent());
+		environment.getRunningContainerIds();
+
+		assertEquals(Arrays.asList("GET /images/app-idc-1/json", "GET /containers/json?all=0",
+				"DELETE /images/app-idc-1?force=1", "GET /images/app-idc-1/json"), daemon.getRequests());
+	}
+}
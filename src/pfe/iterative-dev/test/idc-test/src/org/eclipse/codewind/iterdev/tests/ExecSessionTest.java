@@ -0,0 +1,74 @@
+package org.eclipse.codewind.iterdev.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.eclipse.codewind.iterdev.Cmd;
+import org.eclipse.codewind.iterdev.ExecSession;
+import org.eclipse.codewind.iterdev.ProcessResult;
+
+public class ExecSessionTest {
+
+	ExecSession session;
+
+	@Before
+	public void setUp() {
+		session = ExecSession.start(Cmd.of("/bin/sh"));
+		assertNotNull(session);
+	}
+
+	@After
+	public void tearDown() {
+		session.close();
+	}
+
+	@Test
+	public void commandsRunInTheSameShell() throws Exception {
+		ProcessResult first = session.run(Cmd.shell("echo $$"), null, false);
+		ProcessResult second = session.run(Cmd.shell("echo $$"), null, false);
+		assertEquals(0, first.getErrorCode());
+		assertEquals(first.getReceived(), second.getReceived());
+	}
+
+	@Test
+	public void outputAndExitCodeOfEachCommand() throws Exception {
+		ProcessResult result = session.run(Cmd.of("/bin/sh", "-c", "echo out; echo err >&2; exit 3"), null, false);
+		assertEquals(3, result.getErrorCode());
+		assertEquals("out\nerr\n", result.getReceived());
+
+		// Output without a final line break, and empty lines
+		assertEquals("no line break\n", session.run(Cmd.of("printf", "no line break"), null, false).getReceived());
+		assertEquals("a\n\n", session.run(Cmd.of("printf", "a\\n\\n"), null, false).getReceived());
+		assertEquals("", session.run(Cmd.of("true"), null, false).getReceived());
+
+		// Commands can't read the commands that follow them
+		assertEquals("", session.run(Cmd.of("cat"), null, false).getReceived());
+		assertEquals("'quoted' arg\n", session.run(Cmd.of("echo", "'quoted' arg"), null, false).getReceived());
+	}
+
+	@Test
+	public void endedSessionIsNotUsed() throws Exception {
+		try {
+			session.run(Cmd.shell("kill $$"), null, false);
+			fail("The session should have ended during the command");
+		} catch (IOException e) {
+			/* expected */
+		}
+		assertNull(session.run(Cmd.of("true"), null, false));
+	}
+
+	@Test
+	public void commandThatTimesOutEndsTheSession() throws Exception {
+		ProcessResult result = session.run(Cmd.of("sleep", "100"), null, false, 300);
+		assertEquals(ExecSession.TIMED_OUT, result.getErrorCode());
+		assertNull(session.run(Cmd.of("true"), null, false));
+	}
+}
@@ -0,0 +1,113 @@
+package org.eclipse.codewind.iterdev.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.eclipse.codewind.iterdev.FileCopier;
+import org.eclipse.codewind.iterdev.IDCUtils;
+import org.eclipse.codewind.iterdev.tests.utils.IDCTestUtil;
+
+public class FileCopierTest {
+
+	Path base;
+
+	Path source;
+
+	Path target;
+
+	@Before
+	public void setUp() throws Exception {
+		base = Files.createTempDirectory("filecopiertest");
+		source = base.resolve("source");
+		target = base.resolve("target");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		IDCTestUtil.delete(base.toString());
+	}
+
+	@Test
+	public void copiesTreeWithAttributes() throws Exception {
+		FileTime mtime = FileTime.fromMillis(System.currentTimeMillis() - 60000);
+		Path script = write("bin/start.sh", "#!/bin/sh");
+		Files.setPosixFilePermissions(script, PosixFilePermissions.fromString("rwxr-x---"));
+		Files.setLastModifiedTime(script, mtime);
+		for (int i = 0; i < 50; i++) {
+			write("src/pkg" + (i % 5) + "/Class" + i + ".java", "class Class" + i + " {}");
+		}
+		Files.createSymbolicLink(source.resolve("run.sh"), source.relativize(script));
+		Files.setLastModifiedTime(source.resolve("src"), mtime);
+
+		FileCopier copier = new FileCopier();
+		copier.copyTree(source, target);
+
+		assertEquals(52, copier.getFilesCopied());
+		assertEquals("class Class42 {}", read("src/pkg2/Class42.java"));
+		assertEquals("rwxr-x---", PosixFilePermissions.toString(Files.getPosixFilePermissions(target.resolve("bin/start.sh"))));
+		assertEquals(mtime.toMillis(), Files.getLastModifiedTime(target.resolve("bin/start.sh")).toMillis());
+		assertEquals(mtime.toMillis(), Files.getLastModifiedTime(target.resolve("src")).toMillis());
+		assertTrue(Files.isSymbolicLink(target.resolve("run.sh")));
+		assertEquals("#!/bin/sh", read("run.sh"));
+	}
+
+	@Test
+	public void replacesExistingFiles() throws Exception {
+		write("pom.xml", "<project>2</project>");
+		Files.createDirectories(target);
+		Path old = Files.write(base.resolve("old.xml"), "<project>1</project>".getBytes());
+		Files.createLink(target.resolve("pom.xml"), old);
+
+		IDCUtils.copyDir(source.toString(), target.toString());
+
+		assertEquals("<project>2</project>", read("pom.xml"));
+		// The file was replaced, not written through the existing link
+		assertEquals("<project>1</project>", new String(Files.readAllBytes(old)));
+	}
+
+	@Test
+	public void linksFilesIfEnabled() throws Exception {
+		Path pom = write("pom.xml", "<project/>");
+
+		FileCopier copier = new FileCopier();
+		copier.setHardLinks(true);
+		copier.copyTree(source, target);
+
+		assertEquals(1, copier.getFilesLinked());
+		assertTrue(Files.isSameFile(pom, target.resolve("pom.xml")));
+	}
+
+	@Test
+	public void missingSourceFails() throws Exception {
+		try {
+			IDCUtils.copyFile(new File(base.toFile(), "missing").getPath(), new File(base.toFile(), "copy").getPath());
+			fail("Copied a missing file");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("does not exist"));
+		}
+		assertFalse(Files.exists(base.resolve("copy")));
+	}
+
+	private Path write(String name, String contents) throws Exception {
+		Path p = source.resolve(name);
+		Files.createDirectories(p.getParent());
+		return Files.write(p, contents.getBytes());
+	}
+
+	private String read(String name) throws Exception {
+		return new String(Files.readAllBytes(target.resolve(name)));
+	}
+}
@@ -0,0 +1,105 @@
+package org.eclipse.codewind.iterdev.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.eclipse.codewind.iterdev.ContentHasher;
+import org.eclipse.codewind.iterdev.DBMap;
+import org.eclipse.codewind.iterdev.FingerprintCache;
+import org.eclipse.codewind.iterdev.IDCUtils;
+import org.eclipse.codewind.iterdev.KubeUtils;
+import org.eclipse.codewind.iterdev.tests.utils.IDCTestUtil;
+
+public class FingerprintCacheTest {
+
+	private static final ContentHasher SHA1 = ContentHasher.get(ContentHasher.SHA1);
+
+	File idcBase;
+
+	File appDir;
+
+	DBMap appDb;
+
+	@Before
+	public void setUp() throws Exception {
+		idcBase = Files.createTempDirectory("fingerprintcachetest").toFile();
+		appDir = new File(idcBase, "app");
+		appDir.mkdirs();
+		appDb = new DBMap("app", idcBase);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		IDCTestUtil.delete(idcBase.getAbsolutePath());
+	}
+
+	@Test
+	public void matchesUncachedHash() throws Exception {
+		File[] files = { writeOldFile("pom.xml", "<project/>"), writeOldFile("server.xml", "<server/>") };
+
+		String expected = IDCUtils.calculateHashOfOrderedFileContents(files);
+		assertEquals(expected, IDCUtils.calculateHashOfOrderedFileContents(files, FingerprintCache.forDb(appDb), SHA1));
+		assertEquals(DigestUtils.sha1Hex("<project/>"), FingerprintCache.forDb(appDb).getHash(files[0], SHA1));
+	}
+
+	@Test
+	public void unchangedFileIsNotRead() throws Exception {
+		File pom = writeOldFile("pom.xml", "<project>1</project>");
+		FingerprintCache cache = FingerprintCache.forDb(appDb);
+		String original = cache.getHash(pom, SHA1);
+		cache.save();
+
+		// Same size and modification time, so the stored hash is used without reading the file
+		FileTime mtime = Files.getLastModifiedTime(pom.toPath());
+		Files.write(pom.toPath(), "<project>2</project>".getBytes());
+		Files.setLastModifiedTime(pom.toPath(), mtime);
+		assertEquals(original, FingerprintCache.forDb(appDb).getHash(pom, SHA1));
+
+		Files.setLastModifiedTime(pom.toPath(), FileTime.fromMillis(mtime.toMillis() - 1000));
+		assertEquals(DigestUtils.sha1Hex("<project>2</project>"), FingerprintCache.forDb(appDb).getHash(pom, SHA1));
+	}
+
+	@Test
+	public void recentlyModifiedFileIsNotCached() throws Exception {
+		File pom = new File(appDir, "pom.xml");
+		Files.write(pom.toPath(), "<project>1</project>".getBytes());
+		FingerprintCache cache = FingerprintCache.forDb(appDb);
+		String original = cache.getHash(pom, SHA1);
+		cache.save();
+
+		// Rewritten within the timestamp granularity, so the modification time may not change
+		FileTime mtime = Files.getLastModifiedTime(pom.toPath());
+		Files.write(pom.toPath(), "<project>2</project>".getBytes());
+		Files.setLastModifiedTime(pom.toPath(), mtime);
+		assertFalse(original.equals(FingerprintCache.forDb(appDb).getHash(pom, SHA1)));
+	}
+
+	@Test
+	public void chartHashMatchesShellPipeline() throws Exception {
+		File chartDir = new File(appDir, "chart");
+		new File(chartDir, "templates").mkdirs();
+		Files.write(new File(chartDir, "Chart.yaml").toPath(), "name: app\n".getBytes());
+		Files.write(new File(chartDir, "templates/service.yaml").toPath(), "kind: Service\n".getBytes());
+		Files.write(new File(chartDir, "templates/NOTES.txt").toPath(), "notes\n".getBytes());
+
+		// Output of: find chart -type f -name "*.yaml" -exec sha256sum {} + | awk '{print $1}' | sort | sha256sum
+		String expected = "2426dd5c427d8ea6b74279fc00d70eb9f2bf53642c07e19a48f30266edb6dac1  -";
+		assertEquals(expected, KubeUtils.calculateChartDirHash(chartDir, FingerprintCache.forDb(appDb)));
+	}
+
+	private File writeOldFile(String name, String contents) throws Exception {
+		File f = new File(appDir, name);
+		Files.write(f.toPath(), contents.getBytes());
+		Files.setLastModifiedTime(f.toPath(), FileTime.fromMillis(System.currentTimeMillis() - 60000));
+		return f;
+	}
+}
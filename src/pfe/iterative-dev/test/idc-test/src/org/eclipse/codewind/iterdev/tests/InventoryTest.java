@@ -0,0 +1,124 @@
+package org.eclipse.codewind.iterdev.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.eclipse.codewind.iterdev.DockerUtils;
+import org.eclipse.codewind.iterdev.IDCContext;
+import org.eclipse.codewind.iterdev.Inventory;
+import org.eclipse.codewind.iterdev.tests.utils.IDCTestUtil;
+import org.eclipse.codewind.iterdev.tests.utils.StubDockerDaemon;
+
+public class InventoryTest {
+
+	File idcBase;
+
+	File artifacts;
+
+	File appDir;
+
+	StubDockerDaemon daemon;
+
+	@Before
+	public void setUp() throws Exception {
+		idcBase = Files.createTempDirectory("inventorytest").toFile();
+		artifacts = new File(idcBase, "artifacts");
+		artifacts.mkdirs();
+		new File(artifacts, "run_docker.sh").createNewFile();
+		appDir = new File(idcBase, "app");
+		appDir.mkdirs();
+
+		daemon = new StubDockerDaemon();
+		daemon.respond("GET", "/images/app-idc-1/json", 200, "{\"Id\":\"sha256:1\"}", false);
+		daemon.respond("GET", "/containers/json?all=0", 200, "[{\"Id\":\"abc123\"}]", false);
+		daemon.respond("DELETE", "/images/app-idc-1?force=1", 200, "[]", false);
+
+		writeConfig();
+		System.setProperty("idc.jar.path", artifacts.getAbsolutePath());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		System.clearProperty("idc.jar.path");
+		daemon.close();
+		IDCTestUtil.delete(idcBase.getAbsolutePath());
+	}
+
+	private void writeConfig(String... extra) throws Exception {
+		List<String> lines = new ArrayList<>(Arrays.asList("idcBasePath=" + idcBase.getAbsolutePath(),
+				"dockerHost=" + daemon.getEndpoint()));
+		lines.addAll(Arrays.asList(extra));
+		File config = new File(artifacts, "idc.config");
+		Files.write(config.toPath(), lines);
+		// The config is cached until its modification time changes
+		config.setLastModified(System.currentTimeMillis() + 1000 * extra.length);
+	}
+
+	/** A new context, as created by each IDC command */
+	private IDCContext newCommand() throws Exception {
+		return new IDCContext(appDir, null, null, "app-idc-1", null, null, null, null, null);
+	}
+
+	@Test
+	public void stateIsSharedBetweenCommands() throws Exception {
+		IDCContext first = newCommand();
+		assertTrue(first.getEnvironment().isImagePresent());
+		assertEquals(Collections.singletonList("abc123"), first.getEnvironment().getRunningContainerIds());
+
+		IDCContext second = newCommand();
+		assertTrue(second.getEnvironment().isImagePresent());
+		assertEquals(Collections.singletonList("abc123"), second.getEnvironment().getRunningContainerIds());
+
+		assertEquals(2, daemon.getRequests().size());
+	}
+
+	@Test
+	public void stateIsFetchedAgainOnceItExpires() throws Exception {
+		writeConfig("inventoryTtl.containers=0");
+
+		newCommand().getEnvironment().getRunningContainerIds();
+		newCommand().getEnvironment().getRunningContainerIds();
+		newCommand().getEnvironment().isImagePresent();
+		newCommand().getEnvironment().isImagePresent();
+
+		assertEquals(Arrays.asList("GET /containers/json?all=0", "GET /containers/json?all=0",
+				"GET /images/app-idc-1/json"), daemon.getRequests());
+	}
+
+	@Test
+	public void changesAreSeenByLaterCommands() throws Exception {
+		assertTrue(newCommand().getEnvironment().isImagePresent());
+
+		daemon.respond("GET", "/images/app-idc-1/json", 404, "{\"message\":\"No such image\"}", false);
+		assertTrue(DockerUtils.removeImage(newCommand(), "app-idc-1", true, false));
+
+		assertFalse(newCommand().getEnvironment().isImagePresent());
+		assertEquals(Arrays.asList("GET /images/app-idc-1/json", "DELETE /images/app-idc-1?force=1",
+				"GET /images/app-idc-1/json"), daemon.getRequests());
+	}
+
+	@Test
+	public void valuesFetchedDuringAnInvalidationAreNotKept() throws Exception {
+		Inventory inventory = Inventory.open(newCommand());
+		assertEquals("1", inventory.get(Inventory.Kind.CONTAINERS, "running", () -> {
+			inventory.invalidate(Inventory.Kind.CONTAINERS);
+			return "1";
+		}));
+		// Values fetched in the same millisecond as an invalidation are not kept either
+		Thread.sleep(2);
+		assertEquals("2", inventory.get(Inventory.Kind.CONTAINERS, "running", () -> "2"));
+		assertEquals("2", inventory.get(Inventory.Kind.CONTAINERS, "running", () -> "3"));
+	}
+}
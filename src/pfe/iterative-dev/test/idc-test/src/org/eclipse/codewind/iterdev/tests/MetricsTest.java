@@ -0,0 +1,64 @@
+package org.eclipse.codewind.iterdev.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import org.eclipse.codewind.iterdev.Cmd;
+import org.eclipse.codewind.iterdev.Histogram;
+import org.eclipse.codewind.iterdev.Metrics;
+import org.eclipse.codewind.iterdev.ProcessRunner;
+
+public class MetricsTest {
+
+	@Test
+	public void percentilesArePrecise() {
+		Histogram h = new Histogram();
+		for (int i = 1; i <= 100000; i++) {
+			h.record(i);
+		}
+		assertEquals(100000, h.getTotalCount());
+		assertEquals(100000, h.getMax());
+		assertWithin(50000, h.getValueAtPercentile(50));
+		assertWithin(99000, h.getValueAtPercentile(99));
+		assertEquals(100000, h.getValueAtPercentile(100));
+
+		Histogram decoded = Histogram.decode(h.encode());
+		assertEquals(h.getValueAtPercentile(95), decoded.getValueAtPercentile(95));
+	}
+
+	@Test
+	public void operationsAreNamedAfterTheProgram() {
+		assertEquals("docker ps", Cmd.of("docker", "ps", "--no-trunc", "-q").getOperation());
+		assertEquals("kubectl exec", Cmd.of("/usr/bin/kubectl", "exec", "-i", "pod").getOperation());
+		assertEquals("build_server", Cmd.of("/home/default/artifacts/build_server.sh", "log").getOperation());
+		assertEquals("image check", Cmd.of("docker", "images").named("image check").args("-q").getOperation());
+	}
+
+	@Test
+	public void metricsAreAddedToTheStoredMetrics() throws Exception {
+		File dir = Files.createTempDirectory("idc-metrics").toFile();
+
+		for (int i = 0; i < 2; i++) {
+			ProcessRunner pr = new ProcessRunner(new String[] { "/bin/sh", "-c", "echo one; echo two; exit 1" }, false);
+			pr.setOperation("metrics test");
+			pr.startAndWaitForTermination();
+			Metrics.flush(dir);
+		}
+
+		Metrics.OperationMetrics m = Metrics.load(dir).get("metrics test");
+		assertEquals(2, m.getCount());
+		assertEquals(2, m.getFailures());
+		assertEquals(8, m.getBytes().getMax());
+		assertEquals(2, m.getLines().getMax());
+		assertTrue(m.getWallTime().getMax() >= m.getSpawnTime().getMax());
+	}
+
+	private static void assertWithin(long expected, long actual) {
+		assertTrue(actual + " is not close to " + expected, Math.abs(actual - expected) <= expected / 50);
+	}
+}
@@ -0,0 +1,56 @@
+package org.eclipse.codewind.iterdev.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import org.eclipse.codewind.iterdev.OutputCapture;
+import org.eclipse.codewind.iterdev.ProcessRunner;
+
+public class OutputCaptureTest {
+
+	@Test
+	public void keepsTheEndOfTheOutput() throws Exception {
+		try (OutputCapture capture = new OutputCapture(10, false)) {
+			for (int i = 0; i < 10; i++) {
+				capture.append("line" + i);
+			}
+			assertTrue(capture.isTruncated());
+			assertEquals("line9\n", capture.toString());
+		}
+	}
+
+	@Test
+	public void keepsAllOfTheOutputByDefault() throws Exception {
+		try (OutputCapture capture = new OutputCapture()) {
+			for (int i = 0; i < 200000; i++) {
+				capture.append("line" + i);
+			}
+			assertFalse(capture.isTruncated());
+			assertEquals("line0", capture.iterator().next());
+		}
+	}
+
+	@Test
+	public void spillsTheWholeOutput() throws Exception {
+		try (OutputCapture capture = new OutputCapture(100, true)) {
+			ProcessRunner pr = new ProcessRunner(new String[] { "/bin/sh", "-c", "seq 1 1000" }, false);
+			pr.setCapture(capture);
+			pr.startAndWaitForTermination();
+
+			assertFalse(capture.isTruncated());
+			List<String> lines = new ArrayList<>();
+			for (String line : pr.getCapture()) {
+				lines.add(line);
+			}
+			assertEquals(1000, lines.size());
+			assertEquals("1", lines.get(0));
+			assertEquals("1000", lines.get(999));
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package org.eclipse.codewind.iterdev.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+
+import org.eclipse.codewind.iterdev.ProcessResult;
+import org.eclipse.codewind.iterdev.ProcessRunner;
+
+public class ProcessRunnerTest {
+
+	@Test
+	public void resultIncludesAllOutput() throws Exception {
+		// stderr is written after stdout has been closed, so it must be waited for separately
+		ProcessRunner pr = new ProcessRunner(
+				new String[] { "/bin/sh", "-c", "echo out; exec 1>&-; sleep 0.3; echo err >&2; exit 3" }, false);
+		CompletableFuture<ProcessResult> future = pr.start();
+
+		ProcessResult result = ProcessRunner.waitFor(future);
+		assertEquals(3, result.getErrorCode());
+		assertEquals("out\nerr\n", result.getReceived());
+		assertEquals(3, (int) pr.getErrorCode().get());
+	}
+
+	@Test
+	public void backgroundProcessHoldingStderrDoesNotBlock() throws Exception {
+		// Like a server start script: the background process inherits stderr and outlives the script
+		long start = System.nanoTime();
+		ProcessRunner pr = new ProcessRunner(
+				new String[] { "/bin/sh", "-c", "sleep 30 >/dev/null & echo started; echo warning >&2" }, false);
+		ProcessResult result = ProcessRunner.waitFor(pr.start());
+		assertEquals(0, result.getErrorCode());
+		assertTrue(result.getReceived().contains("started\n"));
+		assertTrue((System.nanoTime() - start) / 1000000 < 5000);
+	}
+
+	@Test
+	public void processesRunConcurrently() throws Exception {
+		long start = System.nanoTime();
+		CompletableFuture<ProcessResult> first = new ProcessRunner(new String[] { "/bin/sh", "-c", "sleep 0.5" }, false).start();
+		CompletableFuture<ProcessResult> second = new ProcessRunner(new String[] { "/bin/sh", "-c", "sleep 0.5" }, false).start();
+		assertFalse(first.isDone());
+
+		ProcessRunner.waitFor(first);
+		ProcessRunner.waitFor(second);
+		assertTrue((System.nanoTime() - start) / 1000000 < 1000);
+	}
+
+	@Test
+	public void timeoutKillsProcessTree() throws Exception {
+		// The background sleep keeps stdout open, so the result is only completed once it has been killed as well
+		ProcessRunner pr = new ProcessRunner(new String[] { "/bin/sh", "-c", "sleep 100 & wait" }, false);
+		pr.setTimeout(300);
+		long start = System.nanoTime();
+		ProcessResult result = ProcessRunner.waitFor(pr.start());
+
+		assertTrue(pr.isTimedOut());
+		assertTrue(result.getErrorCode() != 0);
+		assertTrue((System.nanoTime() - start) / 1000000 < 5000);
+	}
+
+	@Test
+	public void cancelKillsProcessTree() throws Exception {
+		ProcessRunner pr = new ProcessRunner(new String[] { "/bin/sh", "-c", "sleep 100 & echo $!; wait" }, false);
+		CompletableFuture<ProcessResult> future = pr.start();
+		while (pr.getReceived().isEmpty()) {
+			Thread.sleep(10);
+		}
+		File child = new File("/proc/" + pr.getReceived().trim() + "/stat");
+		assertTrue(child.exists());
+
+		future.cancel(true);
+		assertTrue(future.isCancelled());
+		assertFalse(pr.isTimedOut());
+
+		// The child has been killed (it may remain a zombie until it is reaped)
+		long start = System.nanoTime();
+		while (child.exists() && !isZombie(child) && (System.nanoTime() - start) / 1000000 < 5000) {
+			Thread.sleep(10);
+		}
+		assertTrue(!child.exists() || isZombie(child));
+	}
+
+	private static boolean isZombie(File stat) {
+		try {
+			String s = new String(Files.readAllBytes(stat.toPath()));
+			return s.substring(s.lastIndexOf(')') + 2).startsWith("Z");
+		} catch (IOException e) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package org.eclipse.codewind.iterdev.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.eclipse.codewind.iterdev.ProjectWatcher;
+import org.eclipse.codewind.iterdev.ProjectWatcher.Category;
+import org.eclipse.codewind.iterdev.tests.utils.IDCTestUtil;
+
+public class ProjectWatcherTest {
+
+	File appDir;
+
+	AtomicInteger calculations = new AtomicInteger();
+
+	@Before
+	public void setUp() throws Exception {
+		appDir = Files.createTempDirectory("projectwatchertest").toFile();
+		new File(appDir, "src/main/java").mkdirs();
+		Files.write(new File(appDir, "pom.xml").toPath(), "<project/>".getBytes());
+		ProjectWatcher.setEnabled(true);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		ProjectWatcher.setEnabled(false);
+		IDCTestUtil.delete(appDir.getAbsolutePath());
+	}
+
+	@Test
+	public void hashIsOnlyRecalculatedAfterChange() throws Exception {
+		assertEquals("1", pomHash());
+		assertEquals("1", pomHash());
+
+		// Changes to other kinds of files do not affect the pom hash
+		Files.write(new File(appDir, "src/main/java/App.java").toPath(), "class App {}".getBytes());
+		new File(appDir, "src/main/liberty/config").mkdirs();
+		Thread.sleep(500);
+		assertEquals("1", pomHash());
+
+		Files.write(new File(appDir, "pom.xml").toPath(), "<project>changed</project>".getBytes());
+		assertEquals("2", waitForRecalculation());
+	}
+
+	@Test
+	public void newDirectoriesAreWatched() throws Exception {
+		assertEquals("1", configHash());
+
+		File configDir = new File(appDir, "src/main/liberty/config");
+		configDir.mkdirs();
+		assertEquals("2", waitForConfigRecalculation());
+
+		Thread.sleep(500);
+		assertEquals("2", configHash());
+
+		Files.write(new File(configDir, "server.xml").toPath(), "<server/>".getBytes());
+		assertEquals("3", waitForConfigRecalculation());
+	}
+
+	private String pomHash() throws Exception {
+		return ProjectWatcher.getHash(appDir, Category.POM, "test", () -> Integer.toString(calculations.incrementAndGet()));
+	}
+
+	private String configHash() throws Exception {
+		return ProjectWatcher.getHash(appDir, Category.CONFIG, "test", () -> Integer.toString(calculations.incrementAndGet()));
+	}
+
+	/** Events are delivered asynchronously, so allow some time for them to arrive */
+	private String waitForRecalculation() throws Exception {
+		int before = calculations.get();
+		String result = pomHash();
+		for (int x = 0; x < 50 && calculations.get() == before; x++) {
+			Thread.sleep(100);
+			result = pomHash();
+		}
+		return result;
+	}
+
+	private String waitForConfigRecalculation() throws Exception {
+		int before = calculations.get();
+		String result = configHash();
+		for (int x = 0; x < 50 && calculations.get() == before; x++) {
+			Thread.sleep(100);
+			result = configHash();
+		}
+		return result;
+	}
+}
@@ -0,0 +1,120 @@
+package org.eclipse.codewind.iterdev.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.eclipse.codewind.iterdev.DBMap;
+import org.eclipse.codewind.iterdev.SharedDBMap;
+import org.eclipse.codewind.iterdev.tests.utils.IDCTestUtil;
+
+public class SharedDBMapTest {
+
+	private static final int THREADS = 8;
+
+	private static final int INCREMENTS = 50;
+
+	File idcBase;
+
+	@Before
+	public void setUp() throws Exception {
+		idcBase = Files.createTempDirectory("shareddbmaptest").toFile();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		IDCTestUtil.delete(idcBase.getAbsolutePath());
+	}
+
+	@Test
+	public void seesChangesFromOtherMaps() throws Exception {
+		SharedDBMap first = new SharedDBMap("global", idcBase);
+		SharedDBMap second = new SharedDBMap("global", idcBase);
+
+		first.put("A", "1");
+		assertEquals("1", second.get("A"));
+
+		second.remove("A");
+		assertNull(first.get("A"));
+
+		assertEquals(1, DBMap.listDBFiles(idcBase).length);
+	}
+
+	@Test
+	public void reopensDeletedDb() throws Exception {
+		SharedDBMap first = new SharedDBMap("global", idcBase);
+		SharedDBMap second = new SharedDBMap("global", idcBase);
+		first.put("A", "1");
+		assertEquals("1", second.get("A"));
+
+		// As when the .idc directory is removed while the daemon is running
+		IDCTestUtil.delete(new File(idcBase, "db").getAbsolutePath());
+		assertNull(second.get("A"));
+
+		first.put("B", "2");
+		assertEquals("2", second.get("B"));
+		assertTrue(new File(idcBase, "db/db-global.lock").exists());
+	}
+
+	@Test
+	public void concurrentUpdatesAreNotLost() throws Exception {
+		List<Thread> threads = new ArrayList<>();
+		List<Throwable> errors = new ArrayList<>();
+		for (int x = 0; x < THREADS; x++) {
+			Thread t = new Thread(() -> {
+				try {
+					// Each thread has its own map, as each IDC process would
+					SharedDBMap db = new SharedDBMap("global", idcBase);
+					for (int y = 0; y < INCREMENTS; y++) {
+						db.begin();
+						String value = db.get("COUNTER");
+						db.put("COUNTER", Integer.toString(value == null ? 1 : Integer.parseInt(value) + 1));
+						db.commit();
+					}
+				} catch (Throwable e) {
+					synchronized (errors) {
+						errors.add(e);
+					}
+				}
+			});
+			threads.add(t);
+			t.start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+
+		assertEquals(0, errors.size());
+		assertEquals(Integer.toString(THREADS * INCREMENTS), new DBMap("global", idcBase).get("COUNTER"));
+	}
+
+	@Test
+	public void rollbackReleasesLock() throws Exception {
+		SharedDBMap db = new SharedDBMap("global", idcBase);
+		db.begin();
+		db.put("A", "1");
+		db.rollback();
+
+		Thread t = new Thread(() -> {
+			try {
+				new SharedDBMap("global", idcBase).put("B", "2");
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		});
+		t.start();
+		t.join(10000);
+
+		assertNull(db.get("A"));
+		assertEquals("2", db.get("B"));
+	}
+}
@@ -0,0 +1,134 @@
+package org.eclipse.codewind.iterdev.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.eclipse.codewind.iterdev.ContentHasher;
+import org.eclipse.codewind.iterdev.DBMap;
+import org.eclipse.codewind.iterdev.FingerprintCache;
+import org.eclipse.codewind.iterdev.StagingDirectory;
+import org.eclipse.codewind.iterdev.tests.utils.IDCTestUtil;
+
+public class StagingDirectoryTest {
+
+	private static final ContentHasher SHA1 = ContentHasher.get(ContentHasher.SHA1);
+
+	File idcBase;
+
+	File appDir;
+
+	File stagingDir;
+
+	DBMap appDb;
+
+	@Before
+	public void setUp() throws Exception {
+		idcBase = Files.createTempDirectory("stagingdirectorytest").toFile();
+		appDir = new File(idcBase, "app");
+		appDir.mkdirs();
+		stagingDir = new File(idcBase, "docker");
+		stagingDir.mkdirs();
+		appDb = new DBMap("app", idcBase);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		IDCTestUtil.delete(idcBase.getAbsolutePath());
+	}
+
+	@Test
+	public void unchangedFilesAreNotCopied() throws Exception {
+		writeOldFile("pom.xml", "<project/>");
+		writeOldFile("src/main/java/App.java", "class App {}");
+
+		StagingDirectory first = stage();
+		assertEquals(2, first.getFilesCopied());
+		assertEquals("class App {}", read("src/main/java/App.java"));
+
+		StagingDirectory second = stage();
+		assertEquals(0, second.getFilesCopied());
+		assertEquals(2, second.getFilesUnchanged());
+		assertEquals("<project/>".length() + "class App {}".length(), second.getBytesAvoided());
+	}
+
+	@Test
+	public void changedFileIsCopied() throws Exception {
+		File pom = writeOldFile("pom.xml", "<project>1</project>");
+		writeOldFile("server.xml", "<server/>");
+		stage();
+
+		Files.write(pom.toPath(), "<project>22</project>".getBytes());
+		StagingDirectory staging = stage();
+		assertEquals(1, staging.getFilesCopied());
+		assertEquals(1, staging.getFilesUnchanged());
+		assertEquals("<project>22</project>", read("pom.xml"));
+	}
+
+	@Test
+	public void touchedFileIsNotCopied() throws Exception {
+		File pom = writeOldFile("pom.xml", "<project/>");
+		stage();
+
+		// Same contents, but a newer modification time
+		FileTime touched = FileTime.fromMillis(Files.getLastModifiedTime(pom.toPath()).toMillis() + 5000);
+		Files.setLastModifiedTime(pom.toPath(), touched);
+		StagingDirectory staging = stage();
+		assertEquals(0, staging.getFilesCopied());
+		assertEquals(1, staging.getFilesUnchanged());
+		assertEquals(touched.toMillis(), Files.getLastModifiedTime(new File(stagingDir, "pom.xml").toPath()).toMillis());
+
+		// Same size and modification time as the staged file, but different contents
+		Files.write(pom.toPath(), "<Project/>".getBytes());
+		Files.setLastModifiedTime(pom.toPath(), FileTime.fromMillis(touched.toMillis() + 5000));
+		assertEquals(1, stage().getFilesCopied());
+		assertEquals("<Project/>", read("pom.xml"));
+	}
+
+	@Test
+	public void removedFilesArePruned() throws Exception {
+		writeOldFile("pom.xml", "<project/>");
+		File old = writeOldFile("src/Old.java", "class Old {}");
+		Files.write(new File(stagingDir, "Dockerfile-idc").toPath(), "FROM scratch".getBytes());
+		stage();
+
+		Files.delete(old.toPath());
+		Files.delete(old.getParentFile().toPath());
+		StagingDirectory staging = stage();
+		assertEquals(1, staging.getFilesDeleted());
+		assertFalse(new File(stagingDir, "src").exists());
+		assertTrue(new File(stagingDir, "pom.xml").exists());
+		assertTrue(new File(stagingDir, "Dockerfile-idc").exists());
+	}
+
+	private StagingDirectory stage() throws Exception {
+		FingerprintCache fingerprints = FingerprintCache.forDb(appDb);
+		StagingDirectory staging = new StagingDirectory(stagingDir, fingerprints, SHA1);
+		staging.keep("Dockerfile-idc");
+		staging.stage(appDir, "");
+		staging.prune();
+		fingerprints.save();
+		return staging;
+	}
+
+	private String read(String name) throws Exception {
+		return new String(Files.readAllBytes(new File(stagingDir, name).toPath()));
+	}
+
+	/** Write a file that was last modified a while ago, as the fingerprint cache only stores hashes of settled files */
+	private File writeOldFile(String name, String contents) throws Exception {
+		File f = new File(appDir, name);
+		f.getParentFile().mkdirs();
+		Files.write(f.toPath(), contents.getBytes());
+		Files.setLastModifiedTime(f.toPath(), FileTime.fromMillis(System.currentTimeMillis() - 60000));
+		return f;
+	}
+}
@@ -0,0 +1,125 @@
+package org.eclipse.codewind.iterdev.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.eclipse.codewind.iterdev.ContentHasher;
+import org.eclipse.codewind.iterdev.DBMap;
+import org.eclipse.codewind.iterdev.FingerprintCache;
+import org.eclipse.codewind.iterdev.ProjectWatcher;
+import org.eclipse.codewind.iterdev.WorkspaceSnapshot;
+import org.eclipse.codewind.iterdev.tests.utils.IDCTestUtil;
+
+public class WorkspaceSnapshotTest {
+
+	private static final ContentHasher XXH64 = ContentHasher.get(ContentHasher.XXH64);
+
+	File idcBase;
+
+	File appDir;
+
+	DBMap appDb;
+
+	@Before
+	public void setUp() throws Exception {
+		idcBase = Files.createTempDirectory("workspacesnapshottest").toFile();
+		appDir = new File(idcBase, "app");
+		appDb = new DBMap("app", idcBase);
+		write("pom.xml", "<project/>");
+		write("src/main/java/a/A.java", "class A {}");
+		write("src/main/java/b/B.java", "class B {}");
+		write("src/main/liberty/config/server.xml", "<server/>");
+		write("target/classes/A.class", "A");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		IDCTestUtil.delete(idcBase.getAbsolutePath());
+	}
+
+	@Test
+	public void diffReturnsChangedSubtrees() throws Exception {
+		WorkspaceSnapshot before = snapshot();
+		assertEquals(Collections.emptySet(), snapshot().diff(before));
+
+		// Build output is not part of the snapshot
+		write("target/classes/B.class", "B");
+		assertEquals(before.getRootHash(), snapshot().getRootHash());
+
+		write("src/main/java/a/A.java", "class A { int i; }");
+		write("src/main/java/c/C.java", "class C {}");
+		new File(appDir, "src/main/java/b/B.java").delete();
+		WorkspaceSnapshot after = snapshot();
+		assertFalse(before.getRootHash().equals(after.getRootHash()));
+		assertEquals(new TreeSet<>(Arrays.asList("src/main/java/a/A.java", "src/main/java/b/B.java",
+				"src/main/java/c")), after.diff(before));
+	}
+
+	@Test
+	public void buildConfigurationIsIncludedButMetadataIsNot() throws Exception {
+		WorkspaceSnapshot before = snapshot();
+
+		write(".git/index", "index");
+		write(".idc/db/db-app", "KEY@#@value");
+		assertEquals(before.getRootHash(), snapshot().getRootHash());
+
+		// Maven reads .mvn, so a change to it changes the build
+		write(".mvn/maven.config", "-DskipTests");
+		assertEquals(Collections.singleton(".mvn"), snapshot().diff(before));
+	}
+
+	@Test
+	public void changesAreCategorized() throws Exception {
+		WorkspaceSnapshot before = snapshot();
+		write("pom.xml", "<project>2</project>");
+		write("src/main/liberty/config/server.xml", "<server>2</server>");
+
+		assertEquals(Arrays.asList(ProjectWatcher.Category.POM, ProjectWatcher.Category.CONFIG),
+				Arrays.asList(WorkspaceSnapshot.categorize(snapshot().diff(before)).keySet()
+						.toArray(new ProjectWatcher.Category[0])));
+	}
+
+	@Test
+	public void savedSnapshotCanBeCompared() throws Exception {
+		assertNull(WorkspaceSnapshot.load(appDb));
+
+		snapshot().save(appDb, "container1");
+		WorkspaceSnapshot saved = WorkspaceSnapshot.load(appDb);
+		assertEquals("container1", saved.getTag());
+		assertEquals(Collections.emptySet(), snapshot().diff(saved));
+
+		write("src/main/java/b/B.java", "class B { int i; }");
+		assertEquals(Collections.singleton("src/main/java/b/B.java"), snapshot().diff(saved));
+
+		WorkspaceSnapshot.delete(appDb);
+		assertNull(WorkspaceSnapshot.load(appDb));
+	}
+
+	@Test
+	public void snapshotsWithDifferentHashersCannotBeCompared() throws Exception {
+		WorkspaceSnapshot sha1 = WorkspaceSnapshot.create(appDir, FingerprintCache.forDb(appDb),
+				ContentHasher.get(ContentHasher.SHA1));
+		assertNull(snapshot().diff(sha1));
+	}
+
+	private WorkspaceSnapshot snapshot() throws Exception {
+		return WorkspaceSnapshot.create(appDir, FingerprintCache.forDb(appDb), XXH64);
+	}
+
+	private void write(String path, String contents) throws Exception {
+		File f = new File(appDir, path);
+		f.getParentFile().mkdirs();
+		Files.write(f.toPath(), contents.getBytes());
+	}
+}
@@ -0,0 +1,125 @@
+package org.eclipse.codewind.iterdev.tests.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A stand-in for the Docker engine, for testing DockerClient: answers HTTP/1.1 requests on a local socket with
+ * canned responses, keeping connections open between requests as the engine does.
+ */
+public class StubDockerDaemon implements AutoCloseable {
+
+	private final ServerSocket server;
+
+	private final Map<String, String[]> responses = new HashMap<>();
+
+	private final List<String> requests = new ArrayList<>();
+
+	private final AtomicInteger connections = new AtomicInteger();
+
+	public StubDockerDaemon() throws IOException {
+		server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		Thread t = new Thread(this::accept, "Stub docker daemon");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/** The endpoint to pass to DockerClient.connect(...) */
+	public String getEndpoint() {
+		return "tcp://127.0.0.1:" + server.getLocalPort();
+	}
+
+	/** Answer requests for the given method and path (without the API version) with the given status and body; the body is chunked if 'chunked' is true. */
+	public synchronized void respond(String method, String path, int status, String body, boolean chunked) {
+		responses.put(method + " " + path, new String[] { Integer.toString(status), body, Boolean.toString(chunked) });
+	}
+
+	/** The requests received so far, as 'METHOD path' */
+	public synchronized List<String> getRequests() {
+		return new ArrayList<>(requests);
+	}
+
+	public int getConnections() {
+		return connections.get();
+	}
+
+	private void accept() {
+		while (!server.isClosed()) {
+			try {
+				Socket socket = server.accept();
+				connections.incrementAndGet();
+				Thread t = new Thread(() -> serve(socket), "Stub docker daemon connection");
+				t.setDaemon(true);
+				t.start();
+			} catch (IOException e) {
+				return;
+			}
+		}
+	}
+
+	private void serve(Socket socket) {
+		try (Socket s = socket) {
+			BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII));
+			OutputStream out = s.getOutputStream();
+			String requestLine;
+			while ((requestLine = in.readLine()) != null) {
+				String line;
+				while ((line = in.readLine()) != null && !line.isEmpty()) {
+					/* headers */
+				}
+
+				String[] parts = requestLine.split(" ");
+				String request = parts[0] + " " + parts[1].replaceFirst("^/v[0-9.]+", "");
+				String[] response;
+				synchronized (this) {
+					requests.add(request);
+					response = responses.getOrDefault(request, new String[] { "404", "{\"message\":\"No such object\"}", "false" });
+				}
+
+				byte[] body = response[1].getBytes(StandardCharsets.UTF_8);
+				StringBuilder head = new StringBuilder("HTTP/1.1 " + response[0] + " Stub\r\nContent-Type: application/json\r\n");
+				if (Boolean.parseBoolean(response[2])) {
+					head.append("Transfer-Encoding: chunked\r\n\r\n");
+					out.write(head.toString().getBytes(StandardCharsets.US_ASCII));
+					// Two chunks, to check that they are joined
+					int half = body.length / 2;
+					writeChunk(out, body, 0, half);
+					writeChunk(out, body, half, body.length - half);
+					out.write("0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+				} else {
+					head.append("Content-Length: " + body.length + "\r\n\r\n");
+					out.write(head.toString().getBytes(StandardCharsets.US_ASCII));
+					out.write(body);
+				}
+				out.flush();
+			}
+		} catch (IOException e) {
+			/* the client closed the connection */
+		}
+	}
+
+	private static void writeChunk(OutputStream out, byte[] body, int offset, int length) throws IOException {
+		if (length == 0) {
+			return;
+		}
+		out.write((Integer.toHexString(length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+		out.write(body, offset, length);
+		out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+	}
+
+	@Override
+	public void close() throws IOException {
+		server.close();
+	}
+}